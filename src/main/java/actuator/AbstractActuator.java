@@ -130,6 +130,11 @@ public abstract class AbstractActuator implements Pokable, InterfaceScenarioElem
         }
     }
 
+    // takes effect when the actuator is initialized
+    public void set_passive(boolean passive){
+        this.passive = passive;
+    }
+
     public void validate_post_init(OTMErrorLog errorLog){
         if(target==null)
             errorLog.addWarning("Actuator has no target");
@@ -160,6 +165,10 @@ public abstract class AbstractActuator implements Pokable, InterfaceScenarioElem
     }
 
 
+    public final boolean is_on(){
+        return ison;
+    }
+
     public final void turn_on() throws OTMException {
         if(!initialized || ison || myController==null)
             return;
@@ -2,13 +2,16 @@ package cmd;
 
 import error.OTMException;
 import py4j.GatewayServer;
+import xml.JaxbWriter;
+import xml.ScenarioGenerator;
 
 public class OTM {
 
     // 0:  -help      Display usage message.
     //     -version   Display version information.
     //     -load      Load and validate a config file. arguments: <configfile>
-    //     -run       Run a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration>
+    //     -run       Run a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration> [progress_dt]
+    //     -generate  Generate a synthetic scenario. arguments: <topology> <size> <configfile> [options]
     //     -gateway
     // 1: configfile: absolute location and name of the configuration file.
     // 2: prefix: string to be pre-pended to all output files.
@@ -16,6 +19,7 @@ public class OTM {
     // 4: output folder: folder where the output files should go.
     // 5: start_time: [integer] start time for the simrultion in seconds after midnight.
     // 6: duration: [integer] simulation duration in seconds.
+    // 7: progress_dt: [optional float] report progress every progress_dt simulated seconds.
     public static void main(String[] args) {
 
         GatewayServer gatewayServer=null;
@@ -38,8 +42,10 @@ public class OTM {
                 e.printStackTrace();
             }
 
-            if(otm!=null)
+            if(otm!=null) {
                 System.out.println("Load successful!");
+                System.out.print(otm.get_discretization_summary());
+            }
         }
 
         else if (cmd.equals("-run")){
@@ -49,6 +55,7 @@ public class OTM {
             //    3 output folder
             //    4 start_time
             //    5 duration
+            //    6 progress_dt (optional)
             try {
 
                 if(arguments.length<6) {
@@ -64,6 +71,10 @@ public class OTM {
                 int duration = Integer.parseInt(arguments[5]);
 
                 core.OTM otm = new core.OTM(configfile,true);
+                if(arguments.length>6) {
+                    System.out.print(otm.get_discretization_summary());
+                    otm.set_telemetry(Float.parseFloat(arguments[6]),true,null,null);
+                }
                 otm.run(prefix, output_requests_file, output_folder,start_time,duration,true);
 
             } catch (OTMException e) {
@@ -71,6 +82,31 @@ public class OTM {
             }
         }
 
+        // synthetic scenario
+        else if (cmd.equals("-generate")){
+            //    0 topology
+            //    1 size
+            //    2 configfile
+            //    3 options (optional)
+            try {
+
+                if(arguments.length<3) {
+                    System.err.println("Not enough input arguments.");
+                    return;
+                }
+
+                String options = arguments.length>3 ? arguments[3] : null;
+                jaxb.Scenario scenario = new ScenarioGenerator(arguments[0],Integer.parseInt(arguments[1]))
+                        .set_options(options)
+                        .generate();
+                JaxbWriter.save_scenario(scenario,arguments[2]);
+                System.out.println("Wrote " + arguments[2]);
+
+            } catch (OTMException e) {
+                e.printStackTrace();
+            }
+        }
+
         // specified port
         else if (cmd.equals("-gateway")) {
             try{
@@ -113,19 +149,34 @@ public class OTM {
         return null;
     }
 
+    public core.OTM get_synthetic(String topology,int size,String options, boolean validate_pre_init){
+        try {
+            return core.OTM.load_synthetic(topology,size,options,validate_pre_init);
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     private static String get_usage(){
         String str =
                 "Usage: [-help|-version|-load file]\n" +
                         "\t-help\t\tDisplay usage message.\n" +
                         "\t-version\tDisplay version information.\n" +
                         "\t-load\t\tLoad and validate a config file. arguments: <configfile>\n" +
-                        "\t-run\t\tRun a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration>\n" +
+                        "\t-run\t\tRun a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration> [progress_dt]\n" +
                         "\t\tconfigfile: absolute location and name of the configuration file.\n" +
                         "\t\tprefix: string to be pre-pended to all output files.\n" +
                         "\t\toutput request file: absolute location and name of the output request file.\n" +
                         "\t\toutput folder: folder where the output files should go.\n" +
                         "\t\tstart_time: [integer] start time for the simrultion in seconds after midnight.\n" +
-                        "\t\tduration: [integer] simulation duration in seconds.\n";
+                        "\t\tduration: [integer] simulation duration in seconds.\n" +
+                        "\t\tprogress_dt: [optional] report progress every progress_dt simulated seconds.\n" +
+                        "\t-generate\tGenerate a synthetic scenario. arguments: <topology> <size> <configfile> [options]\n" +
+                        "\t\ttopology: line, grid, or freeway.\n" +
+                        "\t\tsize: [integer] links (line), nodes per side (grid), or ramp sections (freeway).\n" +
+                        "\t\tconfigfile: absolute location and name of the generated configuration file.\n" +
+                        "\t\toptions: comma separated key=value pairs: lanes, link_length, commodities, pathfull, models (separated by ';'), sim_dt (a number or auto), max_cell_length, demand, signals, cycle, hov, ramp_meters.\n";
         return str;
     }
 
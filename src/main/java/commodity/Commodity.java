@@ -19,7 +19,8 @@ public class Commodity implements InterfaceScenarioElement {
     public boolean pathfull;
     public float pvequiv;
 
-    // this is a dispatch output writer for vehicles of this commodity
+    // this is a dispatch output writer for vehicles of this commodity.
+    // Unmodifiable and shared by the vehicles, replaced when a listener is added.
     public Set<InterfaceVehicleListener> vehicle_event_listeners;
 
     ///////////////////////////////////////////////////
@@ -32,7 +33,7 @@ public class Commodity implements InterfaceScenarioElement {
         this.pathfull = jaxb_comm.isPathfull();
         this.subnetworks = pathfull ? subnet_ids.stream().map(id->subnetworks.get(id)).collect(Collectors.toSet()) : null;
         this.pvequiv = jaxb_comm.getPvequiv();
-        this.vehicle_event_listeners = new HashSet<>();
+        this.vehicle_event_listeners = Collections.emptySet();
     }
 
     ///////////////////////////////////////////
@@ -88,7 +89,9 @@ public class Commodity implements InterfaceScenarioElement {
     }
 
     public void add_vehicle_event_listener(InterfaceVehicleListener ev) {
-        vehicle_event_listeners.add(ev);
+        Set<InterfaceVehicleListener> x = new HashSet<>(vehicle_event_listeners);
+        x.add(ev);
+        vehicle_event_listeners = Collections.unmodifiableSet(x);
     }
 
     public List<Long> get_subnetwork_ids(){
@@ -27,6 +27,7 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
         sig_follower,
         sig_pretimed,
         rm_alinea,
+        rm_alinea_bank,
         rm_fixed_rate,
         rm_open,
         rm_closed,
@@ -149,6 +150,15 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
 
     public final void initialize(Scenario scenario,boolean override_targets) throws OTMException {
 
+        activate(scenario,override_targets);
+
+        // poke
+        poke(scenario.dispatcher,scenario.dispatcher.current_time);
+    }
+
+    // initialize the actuators, validate, configure and turn on, without the first poke
+    protected final void activate(Scenario scenario,boolean override_targets) throws OTMException {
+
         float now = scenario.dispatcher.current_time;
 
         for(AbstractActuator x : actuators.values()) {
@@ -164,9 +174,6 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
         configure();
 
         this.is_on = true;
-
-        // poke
-        poke(scenario.dispatcher,scenario.dispatcher.current_time);
     }
 
     public void turn_off(){
@@ -187,6 +194,17 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
 
     }
 
+    public final boolean is_on(){
+        return is_on;
+    }
+
+    // the actuators are updated by this controller's poke, not by their own dt. Call before initialization.
+    protected final void set_actuators_passive(){
+        if(actuators!=null)
+            for(AbstractActuator act : actuators.values())
+                act.set_passive(true);
+    }
+
     ///////////////////////////////////////////
     // InterfaceScenarioElement
     ///////////////////////////////////////////
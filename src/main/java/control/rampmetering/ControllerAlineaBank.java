@@ -0,0 +1,272 @@
+package control.rampmetering;
+
+import actuator.AbstractActuator;
+import actuator.ActuatorLaneGroupCapacity;
+import control.AbstractController;
+import control.command.CommandNumber;
+import core.*;
+import dispatch.Dispatcher;
+import error.OTMErrorLog;
+import error.OTMException;
+import jaxb.Controller;
+import jaxb.Roadparam;
+import sensor.AbstractSensor;
+import sensor.FixedSensor;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * ALINEA for a bank of ramp meters, with optional HERO-style coordination. All meters are updated by
+ * the controller's own event, once per dt, and their state is held in arrays indexed by meter. Link
+ * vehicles are read from the scenario KPIAccumulator.
+ * <p>
+ * Each meter is an ActuatorLaneGroupCapacity on an on-ramp. Its reference link is the link of the
+ * feedback sensor whose usage is the actuator id, or else the widest link leaving the end node of the
+ * on-ramp. When coordination is on, a meter whose queue fills more than hero_activation of its storage
+ * holds back the nearest upstream meters (up to hero_slaves) until their queues are as full as its own.
+ * A meter with a full queue is set to its maximum rate.
+ * <p>
+ * Parameters: min_rate_vphpl, max_rate_vphpl, coordinated (true), hero_activation (0.6),
+ * hero_slaves (3), max_queue_veh (the on-ramp storage at jam density).
+ */
+public class ControllerAlineaBank extends AbstractController {
+
+    public float min_rate_vpspl = 0f;
+    public float max_rate_vpspl = Float.POSITIVE_INFINITY;
+    public boolean coordinated = true;
+    public float hero_activation = 0.6f;
+    public int hero_slaves = 3;
+    public float max_queue_veh = Float.NaN;
+
+    // meters
+    private ActuatorLaneGroupCapacity [] meters;
+    private CommandNumber [] commands;
+    private int [] ramp_index;             // KPIAccumulator index of the on-ramp
+    private int [] ref_index;              // KPIAccumulator index of the reference link
+    private float [] gain_per_sec;
+    private float [] ref_veh;
+    private float [] min_rate_vps;
+    private float [] max_rate_vps;
+    private float [] max_queue;
+    private int [][] slaves;               // nearest upstream meters first
+
+    // state
+    private float [] rate_vps;
+    private float [] queue_ratio;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public ControllerAlineaBank(Scenario scenario, Controller jaxb_controller) throws OTMException {
+        super(scenario, jaxb_controller);
+        if(jaxb_controller.getParameters()!=null){
+            for(jaxb.Parameter p : jaxb_controller.getParameters().getParameter()){
+                switch(p.getName().toLowerCase()){
+                    case "min_rate_vphpl":
+                        min_rate_vpspl = Float.parseFloat(p.getValue())/3600f;
+                        break;
+                    case "max_rate_vphpl":
+                        max_rate_vpspl = Float.parseFloat(p.getValue())/3600f;
+                        break;
+                    case "coordinated":
+                        coordinated = Boolean.parseBoolean(p.getValue());
+                        break;
+                    case "hero_activation":
+                        hero_activation = Float.parseFloat(p.getValue());
+                        break;
+                    case "hero_slaves":
+                        hero_slaves = Integer.parseInt(p.getValue());
+                        break;
+                    case "max_queue_veh":
+                        max_queue_veh = Float.parseFloat(p.getValue());
+                        break;
+                }
+            }
+        }
+
+        // the meters are set by this controller's event, not by their own
+        set_actuators_passive();
+    }
+
+    @Override
+    public Class get_actuator_class() {
+        return ActuatorLaneGroupCapacity.class;
+    }
+
+    @Override
+    public void validate_pre_init(OTMErrorLog errorLog) {
+        super.validate_pre_init(errorLog);
+        if(dt==null || dt<=0)
+            errorLog.addError("ControllerAlineaBank id=" + id + " requires a positive dt");
+        if(min_rate_vpspl>max_rate_vpspl)
+            errorLog.addError("ControllerAlineaBank id=" + id + ": min_rate_vphpl>max_rate_vphpl");
+        if(hero_activation<=0f)
+            errorLog.addError("ControllerAlineaBank id=" + id + ": hero_activation<=0");
+    }
+
+    @Override
+    protected void configure() throws OTMException {
+
+        KPIAccumulator kpis = scenario.kpis;
+        List<AbstractActuator> acts = new ArrayList<>(actuators.values());
+        acts.sort(Comparator.comparing(AbstractActuator::getId));
+        int n = acts.size();
+
+        meters = new ActuatorLaneGroupCapacity[n];
+        commands = new CommandNumber[n];
+        ramp_index = new int[n];
+        ref_index = new int[n];
+        gain_per_sec = new float[n];
+        ref_veh = new float[n];
+        min_rate_vps = new float[n];
+        max_rate_vps = new float[n];
+        max_queue = new float[n];
+        rate_vps = new float[n];
+        queue_ratio = new float[n];
+        Link [] ref_links = new Link[n];
+
+        for(int i=0;i<n;i++){
+            ActuatorLaneGroupCapacity act = (ActuatorLaneGroupCapacity) acts.get(i);
+            meters[i] = act;
+
+            Set<AbstractLaneGroup> lgs = ((LaneGroupSet) act.target).lgs;
+            Link ramp = lgs.iterator().next().get_link();
+            if(lgs.stream().anyMatch(lg->lg.get_link()!=ramp))
+                throw new OTMException("All lanegroups in any single actuator used by an Alinea controller must belong to the same link.");
+
+            Link ref = get_ref_link(act,ramp);
+            if(ref==null)
+                throw new OTMException("No reference link for actuator " + act.id + " in controller " + id);
+            ref_links[i] = ref;
+            ramp_index[i] = kpis.link_index(ramp.getId());
+            ref_index[i] = kpis.link_index(ref.getId());
+
+            Roadparam p = ref.road_param_full;
+            gain_per_sec[i] = p.getSpeed() * 1000f / 3600f / ref.get_full_length() ; // [kph]*1000/3600/[m] -> [mps]
+            float critical_density_vpkpl = p.getCapacity() / p.getSpeed();  // vpkpl
+            ref_veh[i] = critical_density_vpkpl * ref.get_full_lanes() * ref.get_full_length() / 1000f;
+
+            min_rate_vps[i] = Math.max(min_rate_vpspl * act.total_lanes,act.min_rate_vps);
+            max_rate_vps[i] = Math.min(max_rate_vpspl * act.total_lanes,act.max_rate_vps);
+            if(Float.isInfinite(max_rate_vps[i]))
+                max_rate_vps[i] = ramp.road_param_full.getCapacity() * act.total_lanes / 3600f;
+
+            max_queue[i] = Float.isNaN(max_queue_veh) ?
+                    ramp.road_param_full.getJamDensity() * ramp.get_full_lanes() * ramp.get_full_length() / 1000f :
+                    max_queue_veh;
+
+            rate_vps[i] = max_rate_vps[i];
+            commands[i] = new CommandNumber(rate_vps[i]);
+            command.put(act.id,commands[i]);
+        }
+
+        slaves = coordinated ? get_slaves(ref_links) : new int[n][0];
+    }
+
+    ///////////////////////////////////////////////////
+    // AbstractController
+    ///////////////////////////////////////////////////
+
+    @Override
+    protected void update_command(Dispatcher dispatcher) throws OTMException {
+
+        KPIAccumulator kpis = scenario.kpis;
+        int n = meters.length;
+
+        // alinea
+        for(int i=0;i<n;i++){
+            float veh = (float) kpis.get_veh(ref_index[i]);
+            float r = rate_vps[i] + gain_per_sec[i] * (ref_veh[i] - veh);
+            rate_vps[i] = Math.max(min_rate_vps[i],Math.min(max_rate_vps[i],r));
+            queue_ratio[i] = (float) kpis.get_veh(ramp_index[i]) / max_queue[i];
+        }
+
+        // masters hold back their upstream meters until these have the same relative queue
+        for(int i=0;i<n;i++){
+            if(queue_ratio[i]<hero_activation)
+                continue;
+            for(int j : slaves[i]){
+                if(queue_ratio[j]>=queue_ratio[i])
+                    continue;
+                float hold_vps = (queue_ratio[i]-queue_ratio[j]) * max_queue[j] / dt;
+                rate_vps[j] = Math.max(min_rate_vps[j],rate_vps[j]-hold_vps);
+            }
+        }
+
+        // queue override
+        for(int i=0;i<n;i++)
+            if(queue_ratio[i]>=1f)
+                rate_vps[i] = max_rate_vps[i];
+
+        for(int i=0;i<n;i++)
+            commands[i].value = rate_vps[i];
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    public int num_meters(){
+        return meters==null ? 0 : meters.length;
+    }
+
+    public float get_rate_vps(long actuator_id){
+        for(int i=0;i<meters.length;i++)
+            if(meters[i].id==actuator_id)
+                return rate_vps[i];
+        return Float.NaN;
+    }
+
+    // on-ramp vehicles over max_queue_veh, at the last update
+    public float get_queue_ratio(long actuator_id){
+        for(int i=0;i<meters.length;i++)
+            if(meters[i].id==actuator_id)
+                return queue_ratio[i];
+        return Float.NaN;
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private Link get_ref_link(AbstractActuator act,Link ramp){
+        AbstractSensor sensor = sensor_by_usage.get(Long.toString(act.id));
+        if(sensor instanceof FixedSensor)
+            return ((FixedSensor) sensor).get_link();
+        return ramp.get_end_node().get_out_links().stream()
+                .max(Comparator.comparing(Link::get_full_lanes).thenComparing(x->-x.getId()))
+                .orElse(null);
+    }
+
+    // meter j is upstream of meter i if the reference link of i can be reached from that of j.
+    // The nearest upstream meters are the ones with the fewest meters downstream.
+    private int [][] get_slaves(Link [] ref_links){
+        int n = ref_links.length;
+        NetworkGraph graph = scenario.network.get_graph();
+        boolean [][] reaches = new boolean[n][n];
+        int [] num_downstream = new int[n];
+        for(int j=0;j<n;j++){
+            boolean [] reachable = graph.get_reachable_links(ref_links[j].getId());
+            for(int i=0;i<n;i++)
+                if(i!=j && reachable[graph.link_index(ref_links[i].getId())]){
+                    reaches[j][i] = true;
+                    num_downstream[j]++;
+                }
+        }
+        int [][] x = new int[n][];
+        for(int i=0;i<n;i++){
+            final int m = i;
+            x[i] = IntStream.range(0,n)
+                    .filter(j->reaches[j][m])
+                    .boxed()
+                    .sorted(Comparator.comparing(j->num_downstream[j]))
+                    .limit(hero_slaves)
+                    .mapToInt(j->j)
+                    .toArray();
+        }
+        return x;
+    }
+
+}
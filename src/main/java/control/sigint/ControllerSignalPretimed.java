@@ -157,6 +157,11 @@ public class ControllerSignalPretimed extends AbstractController {
         command.put(signal.id , c);
     }
 
+    /** Initialize without scheduling stage changes, which are then made by a SignalPlanEngine **/
+    final void initialize_compiled(Scenario scenario) throws OTMException {
+        activate(scenario,false);
+    }
+
     /** Retrieve the signal actuator **/
     public final ActuatorSignal get_signal(){
         return (ActuatorSignal) actuators.values().iterator().next();
@@ -169,7 +174,7 @@ public class ControllerSignalPretimed extends AbstractController {
     // for an absolute time value, returns the stage index and time
     // relative to the beginning of the cycle (offset time).
     // Assumes periodic extension in both directions.
-    private StageindexReltime get_stage_for_time(float time){
+    StageindexReltime get_stage_for_time(float time){
 
         if(time<this.start_time || time>this.end_time)
             return null;
@@ -189,9 +194,9 @@ public class ControllerSignalPretimed extends AbstractController {
         return new StageindexReltime(0,0);
     }
 
-    private class StageindexReltime{
-        int index;
-        float reltime;
+    static class StageindexReltime{
+        final int index;
+        final float reltime;
         public StageindexReltime(int index,float reltime){
             this.index = index;
             this.reltime = reltime;
@@ -0,0 +1,227 @@
+package control.sigint;
+
+import actuator.AbstractActuator;
+import actuator.ActuatorSignal;
+import actuator.SignalPhase;
+import control.AbstractController;
+import control.command.CommandSignal;
+import core.AbstractLaneGroup;
+import core.Scenario;
+import dispatch.Dispatcher;
+import dispatch.EventPoke;
+import dispatch.Pokable;
+import error.OTMException;
+import events.AbstractScenarioEvent;
+import events.EventActuatorToggle;
+import output.events.EventWrapperController;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Runs pretimed signal controllers from compiled plans, in place of the controller and actuator
+ * events. Each stage of a controller is compiled into the lanegroup rates that change when it starts,
+ * and all plans are kept on one timeline: the stage changes of every controller that fall at the same
+ * time are made by a single event. Controllers with a dt, without a single signal actuator, or whose
+ * signal is toggled by an actuator event, are not compiled.
+ * <p>
+ * Compiled signals are passive, so they have no events of their own. While a signal is off, its plan
+ * keeps time but leaves the lanegroups alone; turning it on applies the current stage.
+ */
+public class SignalPlanEngine implements Pokable {
+
+    private final Scenario scenario;
+    private final PriorityQueue<Plan> timeline;
+    private float next_poke = Float.NaN;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public SignalPlanEngine(Scenario scenario){
+        this.scenario = scenario;
+        this.timeline = new PriorityQueue<>(Comparator.comparingDouble(p->p.next_time));
+    }
+
+    /**
+     * Add a controller to the timeline.
+     * @param controller Controller.
+     * @param start_time Time at which the controller is initialized.
+     * @return False if the controller cannot be compiled.
+     */
+    public boolean add_controller(AbstractController controller, float start_time){
+        if(!is_compilable(controller))
+            return false;
+        Plan plan = new Plan((ControllerSignalPretimed) controller,start_time);
+        plan.signal.set_passive(true);
+        timeline.add(plan);
+        return true;
+    }
+
+    public void register(Dispatcher dispatcher){
+        next_poke = Float.NaN;
+        register_next(dispatcher);
+    }
+
+    public int num_controllers(){
+        return timeline.size();
+    }
+
+    public static boolean is_compilable(AbstractController controller){
+        if(!(controller instanceof ControllerSignalPretimed) || controller.dt!=null)
+            return false;
+        if(controller.actuators==null || controller.actuators.size()!=1)
+            return false;
+        AbstractActuator act = controller.actuators.values().iterator().next();
+        if(!(act instanceof ActuatorSignal) || ((ActuatorSignal) act).signal_phases==null)
+            return false;
+        if(controller.scenario!=null)
+            for(AbstractScenarioEvent event : controller.scenario.events.values())
+                if(event instanceof EventActuatorToggle && ((EventActuatorToggle) event).get_actuators()!=null
+                        && ((EventActuatorToggle) event).get_actuators().contains(act))
+                    return false;
+        return true;
+    }
+
+    ///////////////////////////////////////////////////
+    // Pokable
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void poke(Dispatcher dispatcher, float timestamp) throws OTMException {
+
+        next_poke = Float.NaN;
+
+        // all stage changes due now
+        List<Plan> due = new ArrayList<>();
+        while(!timeline.isEmpty() && timeline.peek().next_time<=timestamp)
+            due.add(timeline.poll());
+
+        for(Plan plan : due){
+            if(plan.stage<0)
+                plan.start(timestamp);
+            else
+                plan.advance(timestamp);
+            if(plan.is_active())
+                timeline.add(plan);
+        }
+
+        register_next(dispatcher);
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private void register_next(Dispatcher dispatcher){
+        if(timeline.isEmpty())
+            return;
+        float time = timeline.peek().next_time;
+        if(!Float.isNaN(next_poke) && next_poke<=time)
+            return;
+        next_poke = time;
+        dispatcher.register_event(new EventPoke(dispatcher,2,time,this));
+    }
+
+    // one controller, compiled when it is initialized
+    private class Plan {
+
+        final ControllerSignalPretimed controller;
+        final ActuatorSignal signal;
+
+        SignalPhase [] phases;
+        SignalPhase.BulbColor [][] colors;      // stage -> phase -> color
+        CommandSignal [] commands;              // stage -> command
+        AbstractLaneGroup [] lgs;
+        float [][] rates;                       // stage -> lanegroup -> rate
+        int [][] changes;                       // stage -> lanegroups whose rate differs from the previous stage
+
+        int stage = -1;                         // -1 before initialization
+        float next_time;
+
+        Plan(ControllerSignalPretimed controller,float start_time){
+            this.controller = controller;
+            this.signal = controller.get_signal();
+            this.next_time = start_time;
+        }
+
+        boolean is_active(){
+            return controller.is_on() && next_time<=controller.end_time && Float.isFinite(next_time);
+        }
+
+        void start(float timestamp) throws OTMException {
+            controller.initialize_compiled(scenario);
+            compile();
+            ControllerSignalPretimed.StageindexReltime x = controller.get_stage_for_time(timestamp);
+            if(x==null){
+                next_time = Float.POSITIVE_INFINITY;
+                return;
+            }
+            set_stage(timestamp,x.index,null);
+            next_time = timestamp - x.reltime + controller.stages.get(x.index).duration;
+        }
+
+        void advance(float timestamp) throws OTMException {
+            if(!controller.is_on())
+                return;
+            int index = (stage+1) % controller.stages.size();
+            set_stage(timestamp,index,changes[index]);
+            next_time = timestamp + controller.stages.get(index).duration;
+        }
+
+        // changed==null sets all lanegroups. A signal that is off is not set.
+        void set_stage(float timestamp,int index,int [] changed) throws OTMException {
+            stage = index;
+            controller.curr_stage_index = index;
+            controller.command.put(signal.id,commands[index]);
+            if(controller.event_output!=null)
+                controller.event_output.write(new EventWrapperController(timestamp,controller.command));
+            if(!signal.is_on())
+                return;
+            for(int i=0;i<phases.length;i++)
+                phases[i].bulbcolor = colors[index][i];
+            float [] r = rates[index];
+            if(changed==null)
+                for(int i=0;i<lgs.length;i++)
+                    lgs[i].set_actuator_capacity_vps(r[i]);
+            else
+                for(int i : changed)
+                    lgs[i].set_actuator_capacity_vps(r[i]);
+        }
+
+        // rates are resolved in the order used by ActuatorSignal.process_command,
+        // so a lanegroup in several phases gets the same rate as with the controller
+        void compile(){
+            int num_stages = controller.stages.size();
+            phases = signal.signal_phases.values().toArray(new SignalPhase[0]);
+            colors = new SignalPhase.BulbColor[num_stages][phases.length];
+            commands = new CommandSignal[num_stages];
+            List<Map<AbstractLaneGroup,Float>> stage_rates = new ArrayList<>();
+            for(int s=0;s<num_stages;s++){
+                commands[s] = controller.get_command_for_stage_index(s);
+                Map<AbstractLaneGroup,Float> lg2rate = new LinkedHashMap<>();
+                for(int i=0;i<phases.length;i++){
+                    boolean green = controller.stages.get(s).phase_ids.contains(phases[i].id);
+                    colors[s][i] = green ? SignalPhase.BulbColor.GREEN : SignalPhase.BulbColor.RED;
+                    for(AbstractLaneGroup lg : phases[i].lanegroups)
+                        lg2rate.put(lg,green ? Float.POSITIVE_INFINITY : 0f);
+                }
+                stage_rates.add(lg2rate);
+            }
+
+            lgs = stage_rates.get(0).keySet().toArray(new AbstractLaneGroup[0]);
+            rates = new float[num_stages][lgs.length];
+            for(int s=0;s<num_stages;s++)
+                for(int i=0;i<lgs.length;i++)
+                    rates[s][i] = stage_rates.get(s).get(lgs[i]);
+
+            changes = new int[num_stages][];
+            for(int s=0;s<num_stages;s++){
+                float [] prev = rates[(s+num_stages-1)%num_stages];
+                float [] curr = rates[s];
+                changes[s] = IntStream.range(0,lgs.length).filter(i->prev[i]!=curr[i]).toArray();
+            }
+        }
+    }
+
+}
@@ -80,10 +80,11 @@ public abstract class AbstractDemandGenerator {
                 errorLog.addError("demand for pathless commodity id=" + commodity.getId() + ", specifies a subnetwork instead of an origin link.");
 
             // the path should be a path
+            NetworkGraph graph = path.ordered_links.isEmpty() ? null : path.ordered_links.get(0).network.get_graph();
             for(int i=0;i<path.ordered_links.size()-1;i++){
                 Link this_link = path.ordered_links.get(i);
                 Link next_link = path.ordered_links.get(i+1);
-                if(!this_link.outlink2lanegroups.containsKey(next_link.getId()))
+                if(!graph.is_link_arc(this_link.getId(),next_link.getId()))
                     errorLog.addError("In path " + path.getId() + ", link " + next_link.getId() + " is not reachable from link " + this_link.getId());
             }
 
@@ -145,6 +146,14 @@ public abstract class AbstractDemandGenerator {
         return commodity.getId();
     }
 
+    public Path get_path(){
+        return path;
+    }
+
+    public Profile1D get_profile(){
+        return profile;
+    }
+
 //    public KeyCommodityDemandTypeId get_key(){
 //        return new KeyCommodityDemandTypeId(get_commodity_id(),get_link_or_path_id(),get_type());
 //    }
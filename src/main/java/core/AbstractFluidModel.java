@@ -2,8 +2,10 @@ package core;
 
 import commodity.Commodity;
 import commodity.Path;
+import core.geometry.AddLanes;
 import core.geometry.Side;
 import dispatch.Dispatcher;
+import dispatch.DispatcherProfiler;
 import error.OTMException;
 import jaxb.Lanechanges;
 import models.fluid.*;
@@ -21,14 +23,25 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
 
     protected final float max_cell_length;
     public final float dt_sec;
+    public final boolean auto_dt;   // dt_sec was chosen by get_max_stable_dt
     protected Set<Link> source_links = new HashSet<>();
     protected Set<Link> sink_links = new HashSet<>();
     protected Map<Long, NodeModel> node_models;
+    protected Dispatcher dispatcher;
+    protected InterfaceFluidSubdomains subdomains;   // null runs the model on the dispatcher thread
+    protected boolean skip_idle_links = false;
 
     public AbstractFluidModel(String name, Set<Link> links, float dt_sec, StochasticProcess process, jaxb.ModelParams params) throws OTMException {
         super(AbstractModel.Type.Fluid,name,links,process);
-        this.dt_sec = dt_sec;
         this.max_cell_length = params.getMaxCellLength()==null ? -1 : params.getMaxCellLength();
+        this.auto_dt = params.isAutoDt() || params.getSimDt()==null;
+        if(auto_dt){
+            double dt = get_max_stable_dt(links,max_cell_length);
+            if(Double.isInfinite(dt))
+                throw new OTMException("Could not choose a time step for model " + name);
+            this.dt_sec = (float) dt;
+        } else
+            this.dt_sec = dt_sec;
     }
 
     @Override
@@ -53,13 +66,7 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
                 all_nodes.add(link.get_end_node());
 
             // compute cell length .............
-            float r = link.get_full_length()/max_cell_length;
-            boolean is_source_or_sink = link.is_source() || link.is_sink();
-
-            int num_cells = is_source_or_sink ?
-                    1 :
-                    OTMUtils.approximately_equals(r%1.0,0.0) ? (int) r :  1+((int) r);
-
+            int num_cells = get_num_cells(link,max_cell_length);
             float cell_length_meters = link.get_full_length()/num_cells;
 
             // create cells ....................
@@ -102,6 +109,75 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
     }
 
 
+    //////////////////////////////////////////////////////////////
+    // discretization
+    //////////////////////////////////////////////////////////////
+
+    /**
+     * Largest time step for which the cells of every lanegroup satisfy the CFL condition, for both the
+     * free flow and the congestion wave speeds. Links have the fewest cells that max_cell_length allows
+     * (one if it is not given, or if the link is a source or a sink), so this is also the step that
+     * minimizes the number of cell updates. The result is rounded down to a tenth of a second.
+     * @param links Links.
+     * @param max_cell_length [m] Non-positive for one cell per link.
+     * @return [sec] Infinity if no link constrains the step.
+     */
+    public static double get_max_stable_dt(Collection<Link> links,float max_cell_length){
+        double dt = Double.POSITIVE_INFINITY;
+        for(Link link : links){
+            if(link.is_source())
+                continue;
+            int num_cells = get_num_cells(link,max_cell_length);
+            dt = Math.min(dt,get_max_stable_dt(link.road_param_full,link.get_full_length()/num_cells));
+            if(link.road_geom!=null)
+                for(AddLanes addlanes : new AddLanes[]{link.road_geom.in,link.road_geom.out})
+                    if(addlanes!=null && addlanes.lanes>0)
+                        dt = Math.min(dt,get_max_stable_dt(
+                                addlanes.roadparam==null ? link.road_param_full : addlanes.roadparam,
+                                addlanes.get_length(link.get_full_length())/num_cells));
+        }
+        if(Double.isInfinite(dt))
+            return dt;
+        dt *= 1d - 1e-6;    // float round-off in the per cell parameters
+        return dt>=0.1d ? Math.floor(dt*10d)/10d : dt;
+    }
+
+    public long get_num_cells(){
+        long n = 0;
+        for(Link link : links)
+            for(AbstractLaneGroup lg : link.get_lgs())
+                n += ((FluidLaneGroup) lg).cells.size();
+        return n;
+    }
+
+    /**
+     * @return Computational cost estimate: cell updates per simulated hour.
+     */
+    public double get_cell_updates_per_hour(){
+        return get_num_cells() * 3600d / dt_sec;
+    }
+
+    public String get_discretization_summary(){
+        return String.format("%s: dt=%.2f sec%s, %d cells on %d links, %.3g cell updates per simulated hour",
+                name,dt_sec,auto_dt ? " (auto)" : "",get_num_cells(),links.size(),get_cell_updates_per_hour());
+    }
+
+    // fewest cells no longer than max_cell_length. One cell for sources, sinks, and if max_cell_length is not given.
+    private static int get_num_cells(Link link,float max_cell_length){
+        if(link.is_source() || link.is_sink() || max_cell_length<=0)
+            return 1;
+        float r = link.get_full_length()/max_cell_length;
+        return OTMUtils.approximately_equals(r%1.0,0.0) ? (int) r :  1+((int) r);
+    }
+
+    // [sec] cell length over the faster of the free flow and congestion wave speeds
+    private static double get_max_stable_dt(jaxb.Roadparam rp,float cell_length_meters){
+        double ffspeed = rp.getSpeed();                                         // [km/hr]
+        double critical_density = rp.getCapacity() / ffspeed;                   // [veh/km/lane]
+        double wspeed = rp.getCapacity() / (rp.getJamDensity() - critical_density);  // [km/hr]
+        return cell_length_meters / (Math.max(ffspeed,wspeed) / 3.6d);
+    }
+
     //////////////////////////////////////////////////////////////
     // InterfaceModel
     //////////////////////////////////////////////////////////////
@@ -116,6 +192,7 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
 
     @Override
     public void register_with_dispatcher(Scenario scenario, Dispatcher dispatcher, float start_time){
+        this.dispatcher = dispatcher;
         dispatcher.register_event(new EventFluidModelUpdate(dispatcher, start_time + dt_sec, this));
         dispatcher.register_event(new EventFluidStateUpdate(dispatcher, start_time + dt_sec, this));
     }
@@ -136,6 +213,9 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
 
         for(NodeModel node_model : node_models.values())
             node_model.initialize(scenario);
+
+        for(Link link : links)
+            wake(link);
     }
 
     //////////////////////////////////////////////////////////////
@@ -147,7 +227,9 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
 
         update_flow_I(timestamp);
 
-        // -- MPI communication (in otm-mpi) -- //
+        // with subdomains, all subdomains have finished update_flow_I here, so boundary
+        // demands, supplies and node flows are visible to every subdomain: threads share
+        // them in memory, processes have exchanged them over their transport.
 
         update_flow_II(timestamp);
 
@@ -156,12 +238,24 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
     // update supplies and demands, then run node model to obtain inter-link flows
     public final void update_flow_I(float timestamp) throws OTMException {
 
+        if(subdomains!=null){
+            subdomains.update_flow_I(timestamp);
+            return;
+        }
+
         // lane changes and compute demand and supply
         for(Link link : links)
-            compute_lanechange_demand_supply(link,timestamp);
+            update_demand_supply(link,timestamp);
 
         // compute node inflow and outflow (all nodes except sources)
-        node_models.values().forEach(n->n.update_flow(timestamp));
+        DispatcherProfiler profiler = dispatcher==null ? null : dispatcher.profiler;
+        if(profiler==null)
+            node_models.values().forEach(n->n.update_flow(timestamp));
+        else {
+            long start = System.nanoTime();
+            node_models.values().forEach(n->n.update_flow(timestamp));
+            profiler.add_section("NodeModel " + name,System.nanoTime()-start);
+        }
 
     }
 
@@ -169,56 +263,210 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
     // node model exchange packets
     public final void update_flow_II(float timestamp) throws OTMException {
 
-        // add to source links
-        for(Link link : source_links){
-            for(AbstractLaneGroup alg : link.get_lgs()){
-                FluidLaneGroup lg = (FluidLaneGroup)alg;
-                lg.cells.get(0).add_vehicles(lg.source_flow,null,null);
-            }
+        if(subdomains!=null){
+            subdomains.update_flow_II(timestamp);
+            return;
         }
 
-        // release from sink links
-        for(Link link : sink_links){
-            for(AbstractLaneGroup alg : link.get_lgs()) {
-                FluidLaneGroup lg = (FluidLaneGroup) alg;
-                Map<State,Double> flow_dwn = lg.get_demand();
+        KPIAccumulator kpis = dispatcher==null ? null : dispatcher.scenario.kpis;
 
-                lg.release_vehicles(flow_dwn);
+        // add to source links
+        for(Link link : source_links)
+            add_source_flow(link,kpis,timestamp);
 
-                for(Map.Entry<State,Double> e : flow_dwn.entrySet())
-                    if(e.getValue()>0)
-                        lg.update_flow_accummulators(e.getKey(),e.getValue());
-            }
-        }
+        // release from sink links
+        for(Link link : sink_links)
+            release_sink_flow(link);
 
         // node models exchange packets
         for(NodeModel node_model : node_models.values()) {
+            send_node_flows(node_model,timestamp,false);
+            release_node_flows(node_model);
+        }
 
-            // flows on road connections arrive to links on give lanes convert to packets and send
-            for(RoadConnection rc : node_model.rcs.values()) {
-                Link link = rc.rc.get_end_link();
-                link.get_model().add_vehicle_packet(link,timestamp, new PacketLink(rc.f_rs, rc.rc));
-            }
+    }
+
+    // called by EventFluidStateUpdate
+    // intra link flows and states
+    protected final void update_fluid_state(float timestamp) throws OTMException {
+        if(subdomains!=null){
+            subdomains.update_fluid_state(timestamp);
+            return;
+        }
+        for(Link link : links)
+            update_state(link,timestamp);
+    }
+
+    //////////////////////////////////////////////////////////////
+    // skip idle links
+    //////////////////////////////////////////////////////////////
 
-            // set exit flows on non-sink lanegroups
-            for(UpLaneGroup ulg : node_model.ulgs.values()) {
-                ulg.lg.release_vehicles(ulg.f_gs);
+    /**
+     * Skip the demand, supply and state updates of links that are empty. An empty link is updated once,
+     * which leaves its cells with zero demand and constant supply, and then sleeps until vehicles
+     * arrive or an actuator changes its parameters. Links with travel timers or flow actuators are
+     * never skipped.
+     * @param skip_idle_links True to skip idle links.
+     */
+    public void set_skip_idle_links(boolean skip_idle_links){
+        this.skip_idle_links = skip_idle_links;
+        for(Link link : links)
+            wake(link);
+    }
 
-                // send lanegroup exit flow to flow accumulator
-                for(Map.Entry<State,Double> e : ulg.f_gs.entrySet())
-                    if(e.getValue()>0)
-                        ulg.lg.update_flow_accummulators(e.getKey(),e.getValue());
+    public int get_num_idle_links(){
+        return (int) links.stream().filter(AbstractFluidModel::is_asleep).count();
+    }
+
+    // compute_lanechange_demand_supply, unless the link sleeps. The link may fall asleep here.
+    final void update_demand_supply(Link link,float timestamp) throws OTMException {
+        if(skip_idle_links && is_asleep(link))
+            return;
+        compute_lanechange_demand_supply(link,timestamp);
+        if(skip_idle_links && is_idle(link))
+            for(AbstractLaneGroup alg : link.get_lgs()){
+                FluidLaneGroup lg = (FluidLaneGroup) alg;
+                lg.update_long_supply();    // the only effect of update_link_state on an idle link
+                lg.asleep = true;
             }
+    }
+
+    // update_link_state, unless the link sleeps
+    final void update_state(Link link,float timestamp) throws OTMException {
+        if(skip_idle_links && is_asleep(link))
+            return;
+        update_link_state(link,timestamp);
+    }
 
+    private static boolean is_asleep(Link link){
+        for(AbstractLaneGroup lg : link.get_lgs())
+            if(!((FluidLaneGroup) lg).asleep)
+                return false;
+        return true;
+    }
+
+    private static void wake(Link link){
+        for(AbstractLaneGroup lg : link.get_lgs())
+            ((FluidLaneGroup) lg).asleep = false;
+    }
+
+    // empty, with nothing in the buffer, and no per step bookkeeping in update_link_state
+    private static boolean is_idle(Link link){
+        if(link.unique_acts_flowToLinks!=null && !link.unique_acts_flowToLinks.isEmpty())
+            return false;
+        for(AbstractLaneGroup alg : link.get_lgs()){
+            FluidLaneGroup lg = (FluidLaneGroup) alg;
+            if(lg.travel_timer!=null)
+                return false;
+            if(link.is_model_source_link() && lg.buffer.get_total_veh()>=OTMUtils.epsilon)
+                return false;
+            for(AbstractCell cell : lg.cells)
+                if(cell.get_vehicles()>=OTMUtils.epsilon)
+                    return false;
         }
+        return true;
+    }
 
+    //////////////////////////////////////////////////////////////
+    // subdomains
+    //////////////////////////////////////////////////////////////
+
+    /**
+     * Split the links of this model into balanced subdomains that are updated in parallel, one
+     * thread of this JVM per subdomain. Results agree with the serial update up to round-off.
+     * @param num_subdomains Number of subdomains. 1 or less runs the model on the dispatcher thread.
+     * @throws OTMException Undocumented
+     */
+    public void set_num_subdomains(int num_subdomains) throws OTMException {
+        NetworkPartition partition = null;
+        if(num_subdomains>1 && !links.isEmpty()) {
+            Network network = links.iterator().next().network;
+            partition = NetworkPartition.create(network,links,num_subdomains,NetworkPartition.get_cost(1d,1d,0d));
+        }
+        set_partition(partition);
     }
 
-    // called by EventFluidStateUpdate
-    // intra link flows and states
-    protected final void update_fluid_state(float timestamp) throws OTMException {
-        for(Link link : links)
-            update_link_state(link,timestamp);
+    /**
+     * Update this model in parallel over a given partition of its links, for example one read from a file.
+     * @param partition Partition of the links of this model. null runs the model on the dispatcher thread.
+     * @throws OTMException If the partition does not cover the links of this model.
+     */
+    public void set_partition(NetworkPartition partition) throws OTMException {
+        if(subdomains!=null)
+            subdomains.close();
+        subdomains = partition!=null && partition.num_parts>1 ? new FluidSubdomainRunner(this,partition) : null;
+    }
+
+    /**
+     * Update only one subdomain of a partition of the links of this model, in this process. Every process
+     * loads the same scenario and calls this with the same partition and its own transport before the run.
+     * See FluidSubdomainProcess.
+     * @param partition Partition of the links of this model.
+     * @param transport Transport of this subdomain. It is not closed by this model.
+     * @return Subdomain process, for gather_outputs after the run.
+     * @throws OTMException If the partition does not cover the links of this model or does not match the transport.
+     */
+    public FluidSubdomainProcess set_subdomain_process(NetworkPartition partition,InterfaceSubdomainTransport transport) throws OTMException {
+        FluidSubdomainProcess process = new FluidSubdomainProcess(this,partition,transport);
+        if(subdomains!=null)
+            subdomains.close();
+        subdomains = process;
+        return process;
+    }
+
+    public NetworkPartition get_partition(){
+        return subdomains==null ? null : subdomains.get_partition();
+    }
+
+    // the four steps of update_flow_II, for one element each
+    final void add_source_flow(Link link,KPIAccumulator kpis,float timestamp){
+        for(AbstractLaneGroup alg : link.get_lgs()){
+            FluidLaneGroup lg = (FluidLaneGroup)alg;
+            if(lg.asleep && lg.source_flow.values().stream().anyMatch(x->x>0d))
+                lg.wake_link();
+            lg.cells.get(0).add_vehicles(lg.source_flow,null,null);
+            if(kpis!=null)
+                kpis.enter(link,lg.source_flow,timestamp);
+        }
+    }
+
+    final void release_sink_flow(Link link){
+        for(AbstractLaneGroup alg : link.get_lgs()) {
+            FluidLaneGroup lg = (FluidLaneGroup) alg;
+            Map<State,Double> flow_dwn = lg.get_demand();
+
+            lg.release_vehicles(flow_dwn);
+
+            for(Map.Entry<State,Double> e : flow_dwn.entrySet())
+                if(e.getValue()>0)
+                    lg.update_flow_accummulators(e.getKey(),e.getValue());
+        }
+    }
+
+    // flows on road connections arrive to links on give lanes convert to packets and send.
+    // with only_this_model, flows into links of other models are skipped.
+    final void send_node_flows(NodeModel node_model,float timestamp,boolean only_this_model) throws OTMException {
+        for(RoadConnection rc : node_model.rcs.values()) {
+            Link link = rc.rc.get_end_link();
+            if(only_this_model && link.get_model()!=this)
+                continue;
+            link.get_model().add_vehicle_packet(link,timestamp, new PacketLink(rc.f_rs, rc.rc));
+        }
+    }
+
+    // set exit flows on non-sink lanegroups
+    final void release_node_flows(NodeModel node_model){
+        for(UpLaneGroup ulg : node_model.ulgs.values())
+            release_lanegroup_flow(ulg.lg,ulg.f_gs);
+    }
+
+    final void release_lanegroup_flow(FluidLaneGroup lg,Map<State,Double> flow){
+        lg.release_vehicles(flow);
+
+        // send lanegroup exit flow to flow accumulator
+        for(Map.Entry<State,Double> e : flow.entrySet())
+            if(e.getValue()>0)
+                lg.update_flow_accummulators(e.getKey(),e.getValue());
     }
 
     //////////////////////////////////////////////////////////////
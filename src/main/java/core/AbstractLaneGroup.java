@@ -157,7 +157,7 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
     public void register_actuator(Set<Long> commids,AbstractActuator act,boolean override) throws OTMException {
 
         if(act instanceof ActuatorLaneGroupCapacity){
-            if(!override && this.actuator_capacity!=null)
+            if(!override && this.actuator_capacity!=null && this.actuator_capacity!=act)
                 throw new OTMException(String.format("Multiple capacity actuators on link %d, lanes %d through %d.",link.getId(),start_lane_dn,start_lane_dn+num_lanes-1));
             this.actuator_capacity = (ActuatorLaneGroupCapacity) act;
         }
@@ -166,7 +166,7 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
             if(actuator_lgrestrict==null)
                 actuator_lgrestrict = new HashMap<>();
             for(Long commid : commids){
-                if (!override && actuator_lgrestrict.containsKey(commid))
+                if (!override && actuator_lgrestrict.containsKey(commid) && actuator_lgrestrict.get(commid)!=act)
                     throw new OTMException(String.format("Lane group closure clash for commodity %d", commid));
                 this.actuator_lgrestrict.put(commid, (ActuatorLaneGroupAllowComm) act);
             }
@@ -289,6 +289,9 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
     public final void update_flow_accummulators(State state, double num_vehicles){
         if(flw_acc!=null)
             flw_acc.increment(state,num_vehicles);
+        Scenario scenario = link.get_scenario();
+        if(scenario.kpis!=null && scenario.dispatcher!=null)
+            scenario.kpis.exit(link,state.commodity_id,num_vehicles,scenario.dispatcher.current_time);
     }
 
 //    public final RoadConnection get_target_road_connection_for_state(State state){
@@ -180,6 +180,10 @@ public abstract class AbstractModel implements InterfaceModel {
         if(vp.isEmpty())
             return;
 
+        KPIAccumulator kpis = link.get_scenario().kpis;
+        if(kpis!=null)
+            kpis.enter(link,vp,timestamp);
+
         // 1. split arriving core.packet into subpackets per downstream link.
         // This assigns states to the packets, but
         // This does not set AbstractPacketLaneGroup.target_road_connection
@@ -4,6 +4,7 @@ import commodity.Path;
 import output.InterfaceVehicleListener;
 import utils.OTMUtils;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -16,8 +17,11 @@ public abstract class AbstractVehicle {
     public AbstractLaneGroup lg;
     public Path path;
 
-    // dispatch listeners
-    private Set<InterfaceVehicleListener> event_listeners;
+    // time of entry to the current link, set by travel timers. NaN when not timed.
+    public float link_entry_time = Float.NaN;
+
+    // dispatch listeners. Shared with the commodity and other vehicles, never modified in place.
+    private Set<InterfaceVehicleListener> event_listeners = Collections.emptySet();
 
     public AbstractVehicle(){}
 
@@ -27,15 +31,46 @@ public abstract class AbstractVehicle {
         this.next_link_id = that.next_link_id;
         this.comm_id = that.comm_id;
         this.event_listeners = that.event_listeners;
+        this.link_entry_time = that.link_entry_time;
     }
 
     public AbstractVehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners){
+        init(comm_id,event_listeners);
+    }
+
+    /**
+     * Reuse this object as a new vehicle, with a new id and no lanegroup, path or state.
+     * @param comm_id Commodity id.
+     * @param event_listeners Shared set of listeners. It is not copied.
+     */
+    public void reset(Long comm_id,Set<InterfaceVehicleListener> event_listeners){
+        init(comm_id,event_listeners);
+    }
+
+    private void init(Long comm_id,Set<InterfaceVehicleListener> event_listeners){
         this.id = OTMUtils.get_vehicle_id();
         this.comm_id = comm_id;
-        this.event_listeners = new HashSet<>();
-        if(event_listeners!=null)
-            this.event_listeners.addAll(event_listeners);
+        this.state = null;
+        this.next_link_id = null;
+        this.lg = null;
+        this.path = null;
+        this.link_entry_time = Float.NaN;
+        this.event_listeners = event_listeners==null ? Collections.emptySet() : event_listeners;
+    }
+
+    /**
+     * Reuse this object as a copy of another vehicle, as done by the copy constructor.
+     * @param that Vehicle to copy.
+     */
+    public void reset(AbstractVehicle that){
+        this.id = that.getId();
+        this.state = that.state;
+        this.next_link_id = that.next_link_id;
+        this.comm_id = that.comm_id;
+        this.event_listeners = that.event_listeners;
+        this.link_entry_time = that.link_entry_time;
         this.lg = null;
+        this.path = null;
     }
 
     public void set_next_link_id(Long nextlink_id){
@@ -65,12 +100,17 @@ public abstract class AbstractVehicle {
     // event listeners
     ////////////////////////////////////////////
 
+    // copy on write, since the set is shared
     public void add_event_listeners(Set<InterfaceVehicleListener> x){
-        this.event_listeners.addAll(x);
+        Set<InterfaceVehicleListener> y = new HashSet<>(event_listeners);
+        y.addAll(x);
+        this.event_listeners = Collections.unmodifiableSet(y);
     }
 
     public void remove_event_listeners(Set<InterfaceVehicleListener> x){
-        this.event_listeners.removeAll(x);
+        Set<InterfaceVehicleListener> y = new HashSet<>(event_listeners);
+        y.removeAll(x);
+        this.event_listeners = Collections.unmodifiableSet(y);
     }
 
     public Set<InterfaceVehicleListener> get_event_listeners(){
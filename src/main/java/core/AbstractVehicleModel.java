@@ -12,6 +12,10 @@ import java.util.*;
 
 public abstract class AbstractVehicleModel extends AbstractModel implements InterfaceVehicleModel {
 
+    // vehicles that have left the network, reused by create_vehicle and translate_vehicle
+    private final ArrayDeque<AbstractVehicle> vehicle_pool = new ArrayDeque<>();
+    private int max_pool_size = 10000;
+
     public AbstractVehicleModel(String name, Set<Link> links, StochasticProcess process) throws OTMException {
         super(AbstractModel.Type.Vehicle,name,links,process);
     }
@@ -25,6 +29,38 @@ public abstract class AbstractVehicleModel extends AbstractModel implements Inte
         return new VehicleDemandGenerator(origin,profile,commodity,path);
     }
 
+    /////////////////////////////////////////////////////////////
+    // vehicle pool
+    //////////////////////////////////////////////////////////////
+
+    /**
+     * Return a vehicle that has left the network to the pool. It must not be referenced by any
+     * queue, lanegroup or other vehicle.
+     * @param vehicle Vehicle created by this model.
+     */
+    public void recycle_vehicle(AbstractVehicle vehicle){
+        if(vehicle_pool.size()<max_pool_size)
+            vehicle_pool.push(vehicle);
+    }
+
+    /**
+     * @param x Maximum number of vehicles kept for reuse. 0 disables pooling.
+     */
+    public void set_max_pool_size(int x){
+        max_pool_size = Math.max(x,0);
+        while(vehicle_pool.size()>max_pool_size)
+            vehicle_pool.pop();
+    }
+
+    public int get_pool_size(){
+        return vehicle_pool.size();
+    }
+
+    // a vehicle from the pool, or null if it is empty
+    protected AbstractVehicle reuse_vehicle(){
+        return vehicle_pool.poll();
+    }
+
     /////////////////////////////////////////////////////////////
     // protected
     //////////////////////////////////////////////////////////////
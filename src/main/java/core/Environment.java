@@ -0,0 +1,263 @@
+package core;
+
+import error.OTMException;
+import plugin.PluginController;
+import utils.OTMUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reinforcement learning environment over independent copies of one scenario, with reset and step in the
+ * style of a vectorized gym environment. Every copy is loaded once and kept in memory; reset re-initializes
+ * it at the start time, which is cheaper than loading it again.
+ * <p>
+ * The agent acts through the PluginControllers of the scenario, ordered by id. Their own dt is ignored:
+ * they are updated once per step, at its start, with the actions of the step. Actions and observations
+ * are laid out as in PluginController, one copy after the other: num_actions values per copy, and
+ * num_observations values per copy, read at the end of the step. The reward of a copy is minus the delay
+ * [veh.hr] accrued during the step.
+ * <p>
+ * With num_threads&gt;1 the copies are stepped in parallel. This requires all models to be fluid, since
+ * vehicle ids and the random number generator are shared by all scenarios in the JVM.
+ */
+public class Environment {
+
+    public final int num_copies;
+    public final float start_time;
+    public final float step_duration;
+    public final int num_actions;           // per copy
+    public final int num_observations;      // per copy
+
+    private final OTM [] copies;
+    private final PluginController [][] controllers;    // copy -> controllers ordered by id
+    private final double [] actions;
+    private final double [] observations;
+    private final double [] rewards;
+    private final double [] delay;
+    private final ExecutorService executor;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * Load the copies.
+     * @param jscenario Scenario.
+     * @param num_copies Number of independent copies.
+     * @param start_time Time at which reset starts the copies [sec].
+     * @param step_duration Simulated time per step [sec].
+     * @param num_threads Threads used by step. 1 steps the copies one after the other.
+     * @throws OTMException If the scenario cannot be loaded or has no PluginController.
+     */
+    public Environment(jaxb.Scenario jscenario,int num_copies,float start_time,float step_duration,int num_threads) throws OTMException {
+
+        if(num_copies<1)
+            throw new OTMException("Environment requires at least one copy");
+        if(step_duration<=0f)
+            throw new OTMException("Environment requires a positive step duration");
+        if(num_threads<1)
+            throw new OTMException("Environment requires at least one thread");
+
+        this.num_copies = num_copies;
+        this.start_time = start_time;
+        this.step_duration = step_duration;
+
+        copies = new OTM[num_copies];
+        controllers = new PluginController[num_copies][];
+        for(int k=0;k<num_copies;k++){
+            copies[k] = new OTM(jscenario,true);
+            controllers[k] = copies[k].scenario.controllers.values().stream()
+                    .filter(c->c instanceof PluginController)
+                    .sorted(Comparator.comparing(c->c.id))
+                    .toArray(PluginController[]::new);
+        }
+
+        if(controllers[0].length==0)
+            throw new OTMException("Environment requires at least one PluginController");
+        if(num_threads>1 && copies[0].scenario.models.values().stream().anyMatch(m->!(m instanceof AbstractFluidModel)))
+            throw new OTMException("Parallel stepping requires all models to be fluid");
+
+        int na = 0, no = 0;
+        for(PluginController c : controllers[0]){
+            na += c.num_commands();
+            no += c.num_measurements();
+        }
+        num_actions = na;
+        num_observations = no;
+
+        actions = new double[num_copies*num_actions];
+        observations = new double[num_copies*num_observations];
+        rewards = new double[num_copies];
+        delay = new double[num_copies];
+
+        // the controllers take their commands from the action array
+        for(int k=0;k<num_copies;k++){
+            int offset = k*num_actions;
+            for(PluginController c : controllers[k]){
+                final int start = offset;
+                c.dt = null;
+                c.policy = (t,x,u) -> System.arraycopy(actions,start,u,0,u.length);
+                offset += c.num_commands();
+            }
+        }
+
+        executor = num_threads==1 ? null : Executors.newFixedThreadPool(num_threads,r->{
+            Thread t = new Thread(r,"otm-environment");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    ///////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////
+
+    /**
+     * Restart all copies at the start time. The copies are reset one after the other, after seeding the
+     * random number generator, so that the result depends only on the seed.
+     * @param seed Random seed.
+     * @return Observations, num_observations per copy.
+     * @throws OTMException Undocumented
+     */
+    public double [] reset(long seed) throws OTMException {
+        OTMUtils.set_random_seed(seed);
+        for(int k=0;k<num_copies;k++)
+            reset_copy(k);
+        return observations;
+    }
+
+    /**
+     * Restart one copy at the start time.
+     * @param copy Copy index.
+     * @param seed Random seed.
+     * @return Observations of all copies.
+     * @throws OTMException Undocumented
+     */
+    public double [] reset(int copy,long seed) throws OTMException {
+        OTMUtils.set_random_seed(seed);
+        reset_copy(copy);
+        return observations;
+    }
+
+    /**
+     * Apply the actions and advance all copies by step_duration.
+     * @param a Actions, num_actions per copy. NaN leaves an actuator as it was.
+     * @return Rewards, one per copy. Observations are then given by get_observations.
+     * @throws OTMException Undocumented
+     */
+    public double [] step(double [] a) throws OTMException {
+
+        if(copies[0].scenario.dispatcher==null)
+            throw new OTMException("Call reset before step");
+        if(a.length!=actions.length)
+            throw new OTMException("Expected " + actions.length + " actions, got " + a.length);
+        System.arraycopy(a,0,actions,0,a.length);
+
+        if(executor==null){
+            for(int k=0;k<num_copies;k++)
+                step_copy(k);
+            return rewards;
+        }
+
+        List<Callable<Void>> calls = new ArrayList<>();
+        for(int k=0;k<num_copies;k++){
+            final int copy = k;
+            calls.add(()->{
+                step_copy(copy);
+                return null;
+            });
+        }
+        try {
+            for(Future<Void> f : executor.invokeAll(calls))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause().getMessage());
+        }
+        return rewards;
+    }
+
+    /**
+     * step with arrays packed as little endian float64, for py4j.
+     * @param a Packed actions.
+     * @return Packed rewards followed by packed observations.
+     * @throws OTMException Undocumented
+     */
+    public byte [] step_bytes(byte [] a) throws OTMException {
+        step(OTMUtils.doubles_from_bytes(a));
+        double [] x = new double[num_copies+observations.length];
+        System.arraycopy(rewards,0,x,0,num_copies);
+        System.arraycopy(observations,0,x,num_copies,observations.length);
+        return OTMUtils.to_bytes(x);
+    }
+
+    /**
+     * reset with observations packed as little endian float64, for py4j.
+     * @param seed Random seed.
+     * @return Packed observations.
+     * @throws OTMException Undocumented
+     */
+    public byte [] reset_bytes(long seed) throws OTMException {
+        return OTMUtils.to_bytes(reset(seed));
+    }
+
+    public double [] get_observations(){
+        return observations;
+    }
+
+    public float get_time(int copy){
+        return copies[copy].scenario.dispatcher.current_time;
+    }
+
+    public OTM get_copy(int copy){
+        return copies[copy];
+    }
+
+    public void close() throws OTMException {
+        if(executor!=null)
+            executor.shutdownNow();
+        for(OTM otm : copies)
+            otm.terminate();
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    // the controllers are initialized by the zero length advance, with no actions
+    private void reset_copy(int k) throws OTMException {
+        OTM otm = copies[k];
+        Arrays.fill(actions,k*num_actions,(k+1)*num_actions,Double.NaN);
+        otm.initialize(start_time);
+        otm.advance(0f);
+        delay[k] = otm.scenario.kpis.get_delay(null,null,start_time);
+        rewards[k] = 0d;
+        read_observations(k);
+    }
+
+    private void step_copy(int k) throws OTMException {
+        OTM otm = copies[k];
+        float now = otm.scenario.dispatcher.current_time;
+        for(PluginController c : controllers[k])
+            c.poke(otm.scenario.dispatcher,now);
+        otm.advance(step_duration);
+        double d = otm.scenario.kpis.get_delay(null,null,now+step_duration);
+        rewards[k] = delay[k] - d;
+        delay[k] = d;
+        read_observations(k);
+    }
+
+    private void read_observations(int k){
+        int offset = k*num_observations;
+        for(PluginController c : controllers[k]){
+            c.read_measurements(observations,offset);
+            offset += c.num_measurements();
+        }
+    }
+
+}
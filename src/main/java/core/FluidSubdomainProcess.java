@@ -0,0 +1,471 @@
+package core;
+
+import core.packet.PacketLink;
+import dispatch.DispatcherProfiler;
+import error.OTMException;
+import models.fluid.FluidLaneGroup;
+import models.fluid.nodemodel.NodeModel;
+import models.fluid.nodemodel.RoadConnection;
+import models.fluid.nodemodel.UpLaneGroup;
+import output.AbstractOutput;
+import output.AbstractOutputTimed;
+import output.AbstractOutputTimedLanegroup;
+import output.AbstractOutputTimedLink;
+import output.OutputStore;
+
+import java.io.*;
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Updates one subdomain of a fluid model in a process of its own. Every process loads the same scenario,
+ * uses the same partition (for example one read with NetworkPartition.read), and updates only the links
+ * and node models of its subdomain. Boundary information is exchanged with the neighboring subdomains
+ * through an InterfaceSubdomainTransport at the update_flow_I/II barrier:
+ * <ol>
+ * <li>after the demand and supply update, the demands of links that enter a node of another subdomain,
+ * and the supplies of links that leave one,</li>
+ * <li>after the node models, the flows that nodes release from links of other subdomains, and the
+ * packets they send into links of other subdomains.</li>
+ * </ol>
+ * Results of each subdomain agree with the serial update up to round-off. Other elements of the
+ * scenario (sensors, controllers, outputs) see the whole network, but only the links of their own
+ * subdomain are up to date. gather_outputs collects the in-memory link and lanegroup outputs in
+ * subdomain 0. Outputs to files are written by each process for its own subdomain.
+ * <p>
+ * Node models must connect links of this model only.
+ */
+public class FluidSubdomainProcess implements InterfaceFluidSubdomains {
+
+    private interface Encoder {
+        void write(int to,DataOutputStream out) throws IOException, OTMException;
+    }
+
+    private interface Decoder {
+        void read(int from,DataInputStream in) throws IOException, OTMException;
+    }
+
+    public final AbstractFluidModel model;
+    public final NetworkPartition partition;
+    public final InterfaceSubdomainTransport transport;
+    public final int part;
+
+    private final Network network;
+    private final List<Link> links;
+    private final List<Link> sources;
+    private final List<Link> sinks;
+    private final List<NodeModel> nodes;                  // by node id
+    private final int [] neighbors;                       // ascending
+
+    // subdomain -> links by id
+    private final Map<Integer,List<Link>> demand_out;     // own links that enter its nodes
+    private final Map<Integer,List<Link>> supply_out;     // own links that leave its nodes
+    private final Map<Integer,List<Link>> demand_in;      // its links that enter own nodes
+    private final Map<Integer,List<Link>> supply_in;      // its links that leave own nodes
+
+    // node flows of other subdomains into own links, received at the end of update_flow_I
+    private final List<FluidLaneGroup> in_release_lgs = new ArrayList<>();
+    private final List<Map<State,Double>> in_release_flows = new ArrayList<>();
+    private final List<Link> in_packet_links = new ArrayList<>();
+    private final List<PacketLink> in_packets = new ArrayList<>();
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public FluidSubdomainProcess(AbstractFluidModel model,NetworkPartition partition,InterfaceSubdomainTransport transport) throws OTMException {
+        this.model = model;
+        this.partition = partition;
+        this.transport = transport;
+        this.part = transport.get_part();
+
+        if(partition.link2part.size()!=model.links.size() || !model.links.stream().allMatch(link->partition.link2part.containsKey(link.getId())))
+            throw new OTMException("The partition does not match the links of model " + model.name);
+        if(transport.get_num_parts()!=partition.num_parts || part<0 || part>=partition.num_parts)
+            throw new OTMException(String.format("Transport of subdomain %d of %d does not match a partition with %d subdomains",part,transport.get_num_parts(),partition.num_parts));
+
+        network = model.links.iterator().next().network;
+        links = partition.part_links.get(part);
+        sources = links.stream().filter(model.source_links::contains).collect(toList());
+        sinks = links.stream().filter(model.sink_links::contains).collect(toList());
+
+        nodes = new ArrayList<>();
+        for(NodeModel node_model : model.node_models.values()){
+            Integer p = partition.node2part.get(node_model.node.getId());
+            if(p==null)
+                throw new OTMException("Node " + node_model.node.getId() + " is not in a subdomain of model " + model.name);
+            for(UpLaneGroup ulg : node_model.ulgs.values())
+                if(ulg.lg.get_link().get_model()!=model)
+                    throw new OTMException("Node " + node_model.node.getId() + " connects links of another model to model " + model.name);
+            for(RoadConnection rc : node_model.rcs.values())
+                if(rc.rc.get_end_link().get_model()!=model)
+                    throw new OTMException("Node " + node_model.node.getId() + " connects links of another model to model " + model.name);
+            if(p==part)
+                nodes.add(node_model);
+        }
+        nodes.sort(Comparator.comparing(x->x.node.getId()));
+
+        // boundary links, visited by id in every subdomain
+        demand_out = new HashMap<>();
+        supply_out = new HashMap<>();
+        demand_in = new HashMap<>();
+        supply_in = new HashMap<>();
+        for(List<Link> part_links : partition.part_links)
+            for(Link link : part_links){
+                int a = partition.link2part.get(link.getId());
+                if(model.node_models.containsKey(link.end_node.getId()))
+                    add_boundary(link,a,partition.node2part.get(link.end_node.getId()),demand_out,demand_in);
+                if(model.node_models.containsKey(link.start_node.getId()))
+                    add_boundary(link,a,partition.node2part.get(link.start_node.getId()),supply_out,supply_in);
+            }
+        Set<Integer> x = new TreeSet<>();
+        x.addAll(demand_out.keySet());
+        x.addAll(supply_out.keySet());
+        x.addAll(demand_in.keySet());
+        x.addAll(supply_in.keySet());
+        neighbors = x.stream().mapToInt(i->i).toArray();
+    }
+
+    // link in subdomain a with a node in subdomain b
+    private void add_boundary(Link link,int a,int b,Map<Integer,List<Link>> out,Map<Integer,List<Link>> in){
+        if(a==b)
+            return;
+        if(a==part)
+            out.computeIfAbsent(b,k->new ArrayList<>()).add(link);
+        if(b==part)
+            in.computeIfAbsent(a,k->new ArrayList<>()).add(link);
+    }
+
+    public int [] get_neighbors(){
+        return neighbors.clone();
+    }
+
+    @Override
+    public NetworkPartition get_partition() {
+        return partition;
+    }
+
+    // the transport belongs to the caller
+    @Override
+    public void close() {
+    }
+
+    ///////////////////////////////////////////////////
+    // update
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void update_flow_I(float timestamp) throws OTMException {
+
+        for(Link link : links)
+            model.update_demand_supply(link,timestamp);
+
+        // boundary demands and supplies
+        exchange((q,out)->{
+            for(Link link : demand_out.getOrDefault(q,Collections.emptyList())){
+                out.writeLong(link.getId());
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    write_flows(out,((FluidLaneGroup) lg).get_demand());
+            }
+            for(Link link : supply_out.getOrDefault(q,Collections.emptyList())){
+                out.writeLong(link.getId());
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    out.writeDouble(lg.get_long_supply());
+            }
+        },(q,in)->{
+            for(Link link : demand_in.getOrDefault(q,Collections.emptyList())){
+                check_link(in.readLong(),link);
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    read_flows(in,((FluidLaneGroup) lg).get_demand());
+            }
+            for(Link link : supply_in.getOrDefault(q,Collections.emptyList())){
+                check_link(in.readLong(),link);
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    lg.longitudinal_supply = in.readDouble();
+            }
+        });
+
+        DispatcherProfiler profiler = model.dispatcher==null ? null : model.dispatcher.profiler;
+        long start = profiler==null ? 0L : System.nanoTime();
+        for(NodeModel node_model : nodes)
+            node_model.update_flow(timestamp);
+        if(profiler!=null)
+            profiler.add_section("NodeModel " + model.name,System.nanoTime()-start);
+
+        // node flows into links of other subdomains
+        in_release_lgs.clear();
+        in_release_flows.clear();
+        in_packet_links.clear();
+        in_packets.clear();
+        exchange((q,out)->{
+            List<UpLaneGroup> ulgs = new ArrayList<>();
+            List<RoadConnection> rcs = new ArrayList<>();
+            for(NodeModel node_model : nodes){
+                for(UpLaneGroup ulg : node_model.ulgs.values())
+                    if(partition.link2part.get(ulg.lg.get_link().getId())==q)
+                        ulgs.add(ulg);
+                for(RoadConnection rc : node_model.rcs.values())
+                    if(partition.link2part.get(rc.rc.get_end_link().getId())==q)
+                        rcs.add(rc);
+            }
+            out.writeInt(ulgs.size());
+            for(UpLaneGroup ulg : ulgs){
+                Link link = ulg.lg.get_link();
+                out.writeLong(link.getId());
+                out.writeInt(link.get_lgs().indexOf(ulg.lg));
+                write_flows(out,ulg.f_gs);
+            }
+            out.writeInt(rcs.size());
+            for(RoadConnection rc : rcs){
+                out.writeLong(rc.rc.getId());
+                out.writeLong(rc.rc.get_end_link().getId());
+                write_flows(out,rc.f_rs);
+            }
+        },(q,in)->{
+            int n = in.readInt();
+            for(int i=0;i<n;i++){
+                Link link = get_own_link(in.readLong());
+                FluidLaneGroup lg = (FluidLaneGroup) link.get_lgs().get(in.readInt());
+                Map<State,Double> flow = new HashMap<>();
+                read_flows(in,flow);
+                in_release_lgs.add(lg);
+                in_release_flows.add(flow);
+            }
+            n = in.readInt();
+            for(int i=0;i<n;i++){
+                core.RoadConnection rc = network.road_connections.get(in.readLong());
+                Link link = get_own_link(in.readLong());
+                if(rc==null || rc.get_end_link()!=link)
+                    throw new OTMException("Subdomain " + part + " received a packet for an unknown road connection into link " + link.getId());
+                Map<State,Double> flow = new HashMap<>();
+                read_flows(in,flow);
+                in_packet_links.add(link);
+                in_packets.add(new PacketLink(flow,rc));
+            }
+        });
+    }
+
+    @Override
+    public void update_flow_II(float timestamp) throws OTMException {
+
+        KPIAccumulator kpis = model.dispatcher==null ? null : model.dispatcher.scenario.kpis;
+
+        // release
+        for(Link link : sinks)
+            model.release_sink_flow(link);
+        for(NodeModel node_model : nodes)
+            for(UpLaneGroup ulg : node_model.ulgs.values())
+                if(partition.link2part.get(ulg.lg.get_link().getId())==part)
+                    model.release_lanegroup_flow(ulg.lg,ulg.f_gs);
+        for(int i=0;i<in_release_lgs.size();i++)
+            model.release_lanegroup_flow(in_release_lgs.get(i),in_release_flows.get(i));
+
+        // arrive
+        for(Link link : sources)
+            model.add_source_flow(link,kpis,timestamp);
+        for(NodeModel node_model : nodes)
+            for(RoadConnection rc : node_model.rcs.values()) {
+                Link link = rc.rc.get_end_link();
+                if(partition.link2part.get(link.getId())==part)
+                    model.add_vehicle_packet(link,timestamp,new PacketLink(rc.f_rs,rc.rc));
+            }
+        for(int i=0;i<in_packets.size();i++)
+            model.add_vehicle_packet(in_packet_links.get(i),timestamp,in_packets.get(i));
+    }
+
+    @Override
+    public void update_fluid_state(float timestamp) throws OTMException {
+        for(Link link : links)
+            model.update_state(link,timestamp);
+    }
+
+    ///////////////////////////////////////////////////
+    // outputs
+    ///////////////////////////////////////////////////
+
+    /**
+     * Copy the columns of the in-memory link and lanegroup outputs that belong to each subdomain into
+     * the outputs of subdomain 0. Every process must call this after the run, with the same outputs.
+     * @throws OTMException If the outputs of the subdomains do not match.
+     */
+    public void gather_outputs() throws OTMException {
+
+        Scenario scenario = links.get(0).get_scenario();
+        List<AbstractOutputTimed> outputs = new ArrayList<>();
+        Map<AbstractOutputTimed,String> keys = new HashMap<>();
+        for(AbstractOutput output : scenario.outputs){
+            if(output instanceof AbstractOutputTimedLink && ((AbstractOutputTimedLink) output).store!=null){
+                AbstractOutputTimedLink x = (AbstractOutputTimedLink) output;
+                outputs.add(x);
+                keys.put(x,get_key(x,Arrays.stream(x.ordered_ids).boxed().collect(toList())));
+            }
+            if(output instanceof AbstractOutputTimedLanegroup && ((AbstractOutputTimedLanegroup) output).store!=null){
+                AbstractOutputTimedLanegroup x = (AbstractOutputTimedLanegroup) output;
+                outputs.add(x);
+                keys.put(x,get_key(x,x.ordered_lgs.stream().map(lg->lg.get_link().getId()).collect(toList())));
+            }
+        }
+        outputs.sort(Comparator.comparing(keys::get));
+
+        if(part!=0){
+            transport.send(0,encode(0,(q,out)->{
+                out.writeInt(outputs.size());
+                for(AbstractOutputTimed output : outputs){
+                    OutputStore store = get_store(output);
+                    out.writeUTF(keys.get(output));
+                    out.writeInt(store.get_num_rows());
+                    List<long []> cols = get_own_columns(output);
+                    out.writeInt(cols.size());
+                    for(long [] c : cols){
+                        out.writeLong(c[0]);
+                        out.writeInt((int) c[1]);
+                        for(int row=0;row<store.get_num_rows();row++)
+                            out.writeDouble(store.get(row,(int) c[2]));
+                    }
+                }
+            }));
+            return;
+        }
+
+        for(int q=1;q<partition.num_parts;q++)
+            decode(q,transport.receive(q),(q1,in)->{
+                if(in.readInt()!=outputs.size())
+                    throw new OTMException("Subdomain " + q1 + " has different outputs than subdomain 0");
+                for(AbstractOutputTimed output : outputs){
+                    OutputStore store = get_store(output);
+                    String key = in.readUTF();
+                    int num_rows = in.readInt();
+                    if(!key.equals(keys.get(output)) || num_rows!=store.get_num_rows())
+                        throw new OTMException("Subdomain " + q1 + " has different outputs than subdomain 0");
+                    int num_cols = in.readInt();
+                    for(int i=0;i<num_cols;i++){
+                        long link_id = in.readLong();
+                        int lg_index = in.readInt();
+                        int col = get_column(output,link_id,lg_index);
+                        for(int row=0;row<num_rows;row++)
+                            store.set(row,col,in.readDouble());
+                    }
+                }
+            });
+    }
+
+    private static String get_key(AbstractOutputTimed output,List<Long> link_ids){
+        List<Long> ids = new ArrayList<>(link_ids);
+        Collections.sort(ids);
+        return String.format("%s %s %s %s",output.getClass().getName(),output.get_commodity_id(),output.outDt,ids);
+    }
+
+    private static OutputStore get_store(AbstractOutputTimed output){
+        return output instanceof AbstractOutputTimedLink ?
+                ((AbstractOutputTimedLink) output).store :
+                ((AbstractOutputTimedLanegroup) output).store;
+    }
+
+    // {link id, lanegroup index (-1 for links), column} of own links
+    private List<long []> get_own_columns(AbstractOutputTimed output){
+        List<long []> cols = new ArrayList<>();
+        if(output instanceof AbstractOutputTimedLink){
+            AbstractOutputTimedLink x = (AbstractOutputTimedLink) output;
+            for(long link_id : x.ordered_ids)
+                if(Objects.equals(partition.link2part.get(link_id),part))
+                    cols.add(new long[]{link_id,-1,x.linkprofiles.get(link_id).col});
+        } else {
+            AbstractOutputTimedLanegroup x = (AbstractOutputTimedLanegroup) output;
+            for(AbstractLaneGroup lg : x.ordered_lgs){
+                Link link = lg.get_link();
+                if(Objects.equals(partition.link2part.get(link.getId()),part))
+                    cols.add(new long[]{link.getId(),link.get_lgs().indexOf(lg),x.lgprofiles.get(lg.getId()).col});
+            }
+        }
+        return cols;
+    }
+
+    private int get_column(AbstractOutputTimed output,long link_id,int lg_index) throws OTMException {
+        Link link = network.links.get(link_id);
+        if(link!=null && output instanceof AbstractOutputTimedLink){
+            AbstractOutputTimedLink.LinkProfile profile = ((AbstractOutputTimedLink) output).linkprofiles.get(link_id);
+            if(profile!=null && lg_index<0)
+                return profile.col;
+        }
+        if(link!=null && output instanceof AbstractOutputTimedLanegroup && lg_index>=0 && lg_index<link.get_lgs().size()){
+            AbstractOutputTimedLanegroup.LaneGroupProfile profile = ((AbstractOutputTimedLanegroup) output).lgprofiles.get(link.get_lgs().get(lg_index).getId());
+            if(profile!=null)
+                return profile.col;
+        }
+        throw new OTMException("Link " + link_id + " is not in output " + output.getClass().getSimpleName());
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    // send to and receive from every neighbor. Pairs are visited in the same order by every subdomain,
+    // and the lower subdomain of each pair sends first, so blocking transports cannot deadlock.
+    private void exchange(Encoder encoder,Decoder decoder) throws OTMException {
+        for(int q : neighbors){
+            if(part<q){
+                transport.send(q,encode(q,encoder));
+                decode(q,transport.receive(q),decoder);
+            } else {
+                byte [] message = transport.receive(q);
+                transport.send(q,encode(q,encoder));
+                decode(q,message,decoder);
+            }
+        }
+    }
+
+    private static byte [] encode(int to,Encoder encoder) throws OTMException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            encoder.write(to,out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    private void decode(int from,byte [] message,Decoder decoder) throws OTMException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            decoder.read(from,in);
+            if(in.available()>0)
+                throw new OTMException(String.format("Subdomain %d received a longer message than expected from subdomain %d",part,from));
+        } catch (EOFException e) {
+            throw new OTMException(String.format("Subdomain %d received a shorter message than expected from subdomain %d",part,from));
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    private void check_link(long link_id,Link link) throws OTMException {
+        if(link_id!=link.getId())
+            throw new OTMException(String.format("Subdomain %d expected link %d, received link %d",part,link.getId(),link_id));
+    }
+
+    private Link get_own_link(long link_id) throws OTMException {
+        if(!Objects.equals(partition.link2part.get(link_id),part))
+            throw new OTMException(String.format("Subdomain %d received a flow for link %d, which is not in it",part,link_id));
+        return network.links.get(link_id);
+    }
+
+    private static void write_flows(DataOutputStream out,Map<State,Double> flows) throws IOException {
+        out.writeInt(flows.size());
+        for(Map.Entry<State,Double> e : flows.entrySet()){
+            State state = e.getKey();
+            out.writeLong(state.commodity_id);
+            out.writeLong(state.pathOrlink_id);
+            out.writeBoolean(state.isPath);
+            out.writeDouble(e.getValue());
+        }
+    }
+
+    private static void read_flows(DataInputStream in,Map<State,Double> flows) throws IOException {
+        int n = in.readInt();
+        for(int i=0;i<n;i++)
+            flows.put(new State(in.readLong(),in.readLong(),in.readBoolean()),in.readDouble());
+    }
+
+}
@@ -0,0 +1,178 @@
+package core;
+
+import dispatch.DispatcherProfiler;
+import error.OTMException;
+import models.fluid.nodemodel.NodeModel;
+import models.fluid.nodemodel.RoadConnection;
+import core.packet.PacketLink;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Updates a fluid model as a set of subdomains, one worker thread each. Every phase of the update runs
+ * on all subdomains and ends with a barrier, which is where boundary information is exchanged:
+ * <ol>
+ * <li>demands and supplies of the links in each subdomain,</li>
+ * <li>node flows of the nodes in each subdomain,</li>
+ * <li>release of flows from links (nodes release from their incoming links, sinks from themselves),</li>
+ * <li>arrival of flows to links (nodes send to their outgoing links, sources to themselves),</li>
+ * <li>intra link state update.</li>
+ * </ol>
+ * A link is written by only one subdomain in each phase, so there are no locks. Flows into links of
+ * other models are sent from the dispatcher thread after phase 4. Results agree with the serial update
+ * up to round-off.
+ * <p>
+ * Subdomains are threads of one JVM that share the network, so boundary information is exchanged through
+ * memory and outputs need no reassembly. FluidSubdomainProcess runs one subdomain per process instead.
+ */
+public class FluidSubdomainRunner implements InterfaceFluidSubdomains {
+
+    private interface Task {
+        void run(int part) throws OTMException;
+    }
+
+    public final AbstractFluidModel model;
+    public final NetworkPartition partition;
+
+    private final List<List<Link>> links;
+    private final List<List<Link>> sources;
+    private final List<List<Link>> sinks;
+    private final List<List<NodeModel>> nodes;
+    private final ExecutorService executor;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public FluidSubdomainRunner(AbstractFluidModel model,NetworkPartition partition) throws OTMException {
+        this.model = model;
+        this.partition = partition;
+        int n = partition.num_parts;
+
+        if(partition.link2part.size()!=model.links.size() || !model.links.stream().allMatch(link->partition.link2part.containsKey(link.getId())))
+            throw new OTMException("The partition does not match the links of model " + model.name);
+
+        links = new ArrayList<>();
+        sources = new ArrayList<>();
+        sinks = new ArrayList<>();
+        nodes = new ArrayList<>();
+        for(int p=0;p<n;p++){
+            List<Link> x = partition.part_links.get(p);
+            links.add(x);
+            sources.add(x.stream().filter(model.source_links::contains).collect(toList()));
+            sinks.add(x.stream().filter(model.sink_links::contains).collect(toList()));
+            nodes.add(new ArrayList<>());
+        }
+        for(NodeModel node_model : model.node_models.values()){
+            Integer p = partition.node2part.get(node_model.node.getId());
+            if(p==null)
+                throw new OTMException("Node " + node_model.node.getId() + " is not in a subdomain of model " + model.name);
+            nodes.get(p).add(node_model);
+        }
+
+        executor = Executors.newFixedThreadPool(n,r->{
+            Thread t = new Thread(r,"otm-subdomain-" + model.name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public NetworkPartition get_partition() {
+        return partition;
+    }
+
+    @Override
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    ///////////////////////////////////////////////////
+    // update
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void update_flow_I(float timestamp) throws OTMException {
+
+        run_all(p->{
+            for(Link link : links.get(p))
+                model.update_demand_supply(link,timestamp);
+        });
+
+        DispatcherProfiler profiler = model.dispatcher==null ? null : model.dispatcher.profiler;
+        long start = profiler==null ? 0L : System.nanoTime();
+        run_all(p->{
+            for(NodeModel node_model : nodes.get(p))
+                node_model.update_flow(timestamp);
+        });
+        if(profiler!=null)
+            profiler.add_section("NodeModel " + model.name,System.nanoTime()-start);
+    }
+
+    @Override
+    public void update_flow_II(float timestamp) throws OTMException {
+
+        KPIAccumulator kpis = model.dispatcher==null ? null : model.dispatcher.scenario.kpis;
+
+        run_all(p->{
+            for(Link link : sinks.get(p))
+                model.release_sink_flow(link);
+            for(NodeModel node_model : nodes.get(p))
+                model.release_node_flows(node_model);
+        });
+
+        run_all(p->{
+            for(Link link : sources.get(p))
+                model.add_source_flow(link,kpis,timestamp);
+            for(NodeModel node_model : nodes.get(p))
+                model.send_node_flows(node_model,timestamp,true);
+        });
+
+        // flows into other models
+        for(NodeModel node_model : model.node_models.values())
+            for(RoadConnection rc : node_model.rcs.values()) {
+                Link link = rc.rc.get_end_link();
+                if(link.get_model()!=model)
+                    link.get_model().add_vehicle_packet(link,timestamp,new PacketLink(rc.f_rs,rc.rc));
+            }
+    }
+
+    @Override
+    public void update_fluid_state(float timestamp) throws OTMException {
+        run_all(p->{
+            for(Link link : links.get(p))
+                model.update_state(link,timestamp);
+        });
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    // run the task on every subdomain and wait for all of them
+    private void run_all(Task task) throws OTMException {
+        List<Callable<Void>> calls = new ArrayList<>();
+        for(int p=0;p<partition.num_parts;p++){
+            final int part = p;
+            calls.add(()->{
+                task.run(part);
+                return null;
+            });
+        }
+        try {
+            for(Future<Void> f : executor.invokeAll(calls))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause().getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package core;
+
+import error.OTMException;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport between subdomains that run in one JVM, for example one thread each, each with its own
+ * copy of the scenario. It stands in for SocketSubdomainTransport in tests. Messages are copied, so
+ * the subdomains share nothing but the queues.
+ */
+public class InMemorySubdomainTransport implements InterfaceSubdomainTransport {
+
+    public final long timeout_ms;
+
+    private final int part;
+    private final BlockingQueue<byte[]> [][] queues;    // [from][to]
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * @param num_parts Number of subdomains.
+     * @param timeout_ms Longest wait for a message [msec].
+     * @return One transport per subdomain.
+     */
+    public static InMemorySubdomainTransport [] create(int num_parts,long timeout_ms){
+        BlockingQueue<byte[]> [][] queues = new BlockingQueue[num_parts][num_parts];
+        for(int i=0;i<num_parts;i++)
+            for(int j=0;j<num_parts;j++)
+                queues[i][j] = new LinkedBlockingQueue<>();
+        InMemorySubdomainTransport [] x = new InMemorySubdomainTransport[num_parts];
+        for(int p=0;p<num_parts;p++)
+            x[p] = new InMemorySubdomainTransport(p,queues,timeout_ms);
+        return x;
+    }
+
+    private InMemorySubdomainTransport(int part,BlockingQueue<byte[]> [][] queues,long timeout_ms){
+        this.part = part;
+        this.queues = queues;
+        this.timeout_ms = timeout_ms;
+    }
+
+    ///////////////////////////////////////////////////
+    // InterfaceSubdomainTransport
+    ///////////////////////////////////////////////////
+
+    @Override
+    public int get_part() {
+        return part;
+    }
+
+    @Override
+    public int get_num_parts() {
+        return queues.length;
+    }
+
+    @Override
+    public void send(int to, byte[] message) {
+        queues[part][to].add(message.clone());
+    }
+
+    @Override
+    public byte[] receive(int from) throws OTMException {
+        try {
+            byte [] message = queues[from][part].poll(timeout_ms,TimeUnit.MILLISECONDS);
+            if(message==null)
+                throw new OTMException(String.format("Subdomain %d received nothing from subdomain %d in %d msec",part,from,timeout_ms));
+            return message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,21 @@
+package core;
+
+import error.OTMException;
+
+/**
+ * Update of a fluid model that is split into subdomains. FluidSubdomainRunner updates all subdomains
+ * on threads of this JVM, FluidSubdomainProcess updates one of them in a process of its own.
+ */
+public interface InterfaceFluidSubdomains {
+
+    NetworkPartition get_partition();
+
+    void update_flow_I(float timestamp) throws OTMException;
+
+    void update_flow_II(float timestamp) throws OTMException;
+
+    void update_fluid_state(float timestamp) throws OTMException;
+
+    void close();
+
+}
@@ -0,0 +1,34 @@
+package core;
+
+import error.OTMException;
+
+/**
+ * Messages between the processes that run the subdomains of a fluid model, see FluidSubdomainProcess.
+ * Each process holds the transport of its own subdomain. Messages from one subdomain to another arrive
+ * in the order in which they were sent.
+ */
+public interface InterfaceSubdomainTransport {
+
+    int get_part();
+
+    int get_num_parts();
+
+    /**
+     * May block until the other subdomain receives.
+     * @param to Destination subdomain.
+     * @param message Message. It is not used after the call returns.
+     * @throws OTMException If the message cannot be sent.
+     */
+    void send(int to,byte [] message) throws OTMException;
+
+    /**
+     * Blocks until the next message from the other subdomain arrives.
+     * @param from Source subdomain.
+     * @return Message.
+     * @throws OTMException If the message does not arrive within the transport's timeout.
+     */
+    byte [] receive(int from) throws OTMException;
+
+    void close();
+
+}
@@ -0,0 +1,232 @@
+package core;
+
+import core.packet.PacketLink;
+
+import java.util.*;
+
+/**
+ * Network performance measures integrated while the simulation runs, per link and commodity.
+ * The number of vehicles on each link is updated whenever vehicles enter or leave it, and vehicle-hours
+ * are the exact time integral of that number. Vehicle-km, free flow vehicle-hours, and exits are credited
+ * when vehicles leave a link. Delay is vehicle-hours minus free flow vehicle-hours, hence it includes the
+ * time spent by vehicles that are still on a link.
+ */
+public class KPIAccumulator {
+
+    private final Map<Long,Integer> link_index = new HashMap<>();
+    private final Map<Long,Integer> comm_index = new HashMap<>();
+    private final Link [] links;
+    private final double [] length_km;
+    private final double [] ff_time_hr;
+    private final float [] last_time;
+
+    // [link][commodity]
+    private final double [][] veh;
+    private final double [][] vht;
+    private final double [][] vkt;
+    private final double [][] ff_vht;
+    private final double [][] exits;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public KPIAccumulator(Scenario scenario,float start_time){
+
+        List<Long> comm_ids = new ArrayList<>(scenario.commodities.keySet());
+        for(int c=0;c<comm_ids.size();c++)
+            comm_index.put(comm_ids.get(c),c);
+
+        int num_links = scenario.network.links.size();
+        int num_comms = comm_ids.size();
+        links = new Link[num_links];
+        length_km = new double[num_links];
+        ff_time_hr = new double[num_links];
+        last_time = new float[num_links];
+        veh = new double[num_links][num_comms];
+        vht = new double[num_links][num_comms];
+        vkt = new double[num_links][num_comms];
+        ff_vht = new double[num_links][num_comms];
+        exits = new double[num_links][num_comms];
+
+        int l = 0;
+        for(Link link : scenario.network.links.values()){
+            link_index.put(link.getId(),l);
+            links[l] = link;
+            length_km[l] = link.get_full_length()/1000d;
+            double speed_kph = 0d;
+            for(AbstractLaneGroup lg : link.get_lgs())
+                if(lg.roadparam_orig!=null)
+                    speed_kph = Math.max(speed_kph,lg.roadparam_orig.getSpeed());
+            // fluid source links are queues with no travel time
+            boolean is_queue = link.is_source() && link.get_model() instanceof AbstractFluidModel;
+            ff_time_hr[l] = speed_kph>0 && !is_queue ? length_km[l]/speed_kph : 0d;
+            last_time[l] = start_time;
+            for(int c=0;c<num_comms;c++)
+                veh[l][c] = link.get_veh_for_commodity(comm_ids.get(c));
+            l++;
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // update
+    ///////////////////////////////////////////////////
+
+    public void enter(Link link,PacketLink vp,float time){
+        if(vp.vehicles!=null)
+            for(AbstractVehicle vehicle : vp.vehicles)
+                enter(link,vehicle.get_commodity_id(),1d,time);
+        if(vp.state2vehicles!=null)
+            enter(link,vp.state2vehicles,time);
+    }
+
+    public void enter(Link link,Map<State,Double> state2vehicles,float time){
+        for(Map.Entry<State,Double> e : state2vehicles.entrySet())
+            enter(link,e.getKey().commodity_id,e.getValue(),time);
+    }
+
+    public void enter(Link link,long comm_id,double num_vehicles,float time){
+        Integer l = link_index.get(link.getId());
+        Integer c = comm_index.get(comm_id);
+        if(l==null || c==null || num_vehicles==0d)
+            return;
+        integrate(l,time);
+        veh[l][c] += num_vehicles;
+    }
+
+    public void exit(Link link,long comm_id,double num_vehicles,float time){
+        Integer l = link_index.get(link.getId());
+        Integer c = comm_index.get(comm_id);
+        if(l==null || c==null || num_vehicles==0d)
+            return;
+        integrate(l,time);
+        veh[l][c] -= num_vehicles;
+        exits[l][c] += num_vehicles;
+        vkt[l][c] += num_vehicles*length_km[l];
+        ff_vht[l][c] += num_vehicles*ff_time_hr[l];
+    }
+
+    ///////////////////////////////////////////////////
+    // query
+    ///////////////////////////////////////////////////
+
+    /**
+     * Vehicle-hours up to the given time.
+     * @param comm_id Commodity id. null means all commodities.
+     * @param link_ids Link ids. null means all links.
+     * @param time Current simulation time.
+     * @return [veh.hr]
+     */
+    public double get_vht(Long comm_id,Collection<Long> link_ids,float time){
+        for(int l : indices(link_ids))
+            integrate(l,time);
+        return sum(vht,comm_id,link_ids);
+    }
+
+    /**
+     * Vehicle-km of vehicles that have left the links.
+     * @param comm_id Commodity id. null means all commodities.
+     * @param link_ids Link ids. null means all links.
+     * @return [veh.km]
+     */
+    public double get_vkt(Long comm_id,Collection<Long> link_ids){
+        return sum(vkt,comm_id,link_ids);
+    }
+
+    /**
+     * Vehicle-hours in excess of free flow travel time, up to the given time.
+     * @param comm_id Commodity id. null means all commodities.
+     * @param link_ids Link ids. null means all links.
+     * @param time Current simulation time.
+     * @return [veh.hr]
+     */
+    public double get_delay(Long comm_id,Collection<Long> link_ids,float time){
+        return get_vht(comm_id,link_ids,time) - sum(ff_vht,comm_id,link_ids);
+    }
+
+    /**
+     * Vehicles that have left the set of links. These are the exits from links that are sinks or that
+     * do not feed another link in the set.
+     * @param comm_id Commodity id. null means all commodities.
+     * @param link_ids Link ids. null means all links.
+     * @return [veh]
+     */
+    public double get_throughput(Long comm_id,Collection<Long> link_ids){
+        Set<Long> set = link_ids==null ? link_index.keySet() : new HashSet<>(link_ids);
+        List<Long> boundary = new ArrayList<>();
+        for(Long link_id : set){
+            Integer l = link_index.get(link_id);
+            if(l==null)
+                continue;
+            Link link = links[l];
+            if(link.is_sink() || link.get_end_node().get_out_links().stream().noneMatch(x->set.contains(x.getId())))
+                boundary.add(link_id);
+        }
+        return sum(exits,comm_id,boundary);
+    }
+
+    /**
+     * @param link_id Link id.
+     * @return Position of the link in the accumulator, or -1 if it is not there.
+     */
+    public int link_index(long link_id){
+        Integer l = link_index.get(link_id);
+        return l==null ? -1 : l;
+    }
+
+    /**
+     * Vehicles currently in a link, all commodities. Kept up to date by enter and exit, so it is
+     * cheaper than Link.get_veh.
+     * @param l Link position, from link_index.
+     * @return [veh]
+     */
+    public double get_veh(int l){
+        double s = 0d;
+        for(double x : veh[l])
+            s += x;
+        return s;
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private void integrate(int l,float time){
+        double dt_hr = (time-last_time[l])/3600d;
+        if(dt_hr<=0d)
+            return;
+        double [] v = veh[l];
+        double [] h = vht[l];
+        for(int c=0;c<v.length;c++)
+            h[c] += v[c]*dt_hr;
+        last_time[l] = time;
+    }
+
+    private List<Integer> indices(Collection<Long> link_ids){
+        List<Integer> x = new ArrayList<>();
+        if(link_ids==null)
+            for(int l=0;l<links.length;l++)
+                x.add(l);
+        else
+            for(Long link_id : link_ids)
+                if(link_index.containsKey(link_id))
+                    x.add(link_index.get(link_id));
+        return x;
+    }
+
+    private double sum(double [][] X,Long comm_id,Collection<Long> link_ids){
+        Integer c = comm_id==null ? null : comm_index.get(comm_id);
+        if(comm_id!=null && c==null)
+            return 0d;
+        double s = 0d;
+        for(int l : indices(link_ids)){
+            if(c!=null)
+                s += X[l][c];
+            else
+                for(double x : X[l])
+                    s += x;
+        }
+        return s;
+    }
+
+}
@@ -200,7 +200,7 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
                 else
                     comm2act = acts_flowToLinks.get(rcid);
 
-                if(comm2act.containsKey(commid))
+                if(comm2act.containsKey(commid) && comm2act.get(commid)!=actf2l)
                     throw new OTMException("This link already has a flowtolinks actuator for this commodity");
 
                 comm2act.put(commid,actf2l);
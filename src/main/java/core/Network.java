@@ -31,6 +31,8 @@ public class Network {
     /** Map of road connections **/
     public Map<Long,RoadConnection> road_connections;
 
+    protected NetworkGraph graph;
+
     ///////////////////////////////////////////
     // construction
     ///////////////////////////////////////////
@@ -79,6 +81,7 @@ public class Network {
     /////////////////////////////////////////////////
 
     protected void initialize(Scenario scenario,float start_time) throws OTMException {
+        graph = new NetworkGraph(this);
         for(Link link : links.values())
             link.initialize(scenario,start_time);
     }
@@ -138,6 +141,15 @@ public class Network {
         return links;
     }
 
+    /** Get the compressed sparse row view of the network. It is rebuilt when the scenario is initialized.
+     * @return The network graph
+     * **/
+    public NetworkGraph get_graph(){
+        if(graph==null)
+            graph = new NetworkGraph(this);
+        return graph;
+    }
+
     /** Get map of road connections
      * @return A hashmap of road connections
      * **/
@@ -0,0 +1,291 @@
+package core;
+
+import java.util.*;
+
+/**
+ * Immutable compressed sparse row view of the network. Nodes, links and lanegroups are indexed by
+ * position in ascending id order, and adjacency is held in flat int arrays: arcs of vertex v are
+ * [begin(v),end(v)). Link arcs are the allowed movements between links, and lanegroup arcs are
+ * given by road connections. Built by Network.initialize, so it reflects the current models.
+ */
+public class NetworkGraph {
+
+    public final Node [] nodes;
+    public final Link [] links;
+    public final AbstractLaneGroup [] lanegroups;
+
+    private final long [] node_ids;
+    private final long [] link_ids;
+    private final long [] lg_ids;
+
+    private final int [] link_start;            // link -> node
+    private final int [] link_end;              // link -> node
+    private final int [] lg_link;               // lanegroup -> link
+
+    // node -> out links, node -> in links
+    private final int [] node_out_offsets;
+    private final int [] node_out;
+    private final int [] node_in_offsets;
+    private final int [] node_in;
+
+    // link -> next links, link -> previous links
+    private final int [] link_out_offsets;
+    private final int [] link_out;
+    private final int [] link_in_offsets;
+    private final int [] link_in;
+
+    // lanegroup -> downstream lanegroups, with the road connection of each arc
+    private final int [] lg_out_offsets;
+    private final int [] lg_out;
+    private final long [] lg_out_rc;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public NetworkGraph(Network network){
+
+        // vertices
+        nodes = network.nodes.values().stream().sorted(Comparator.comparing(Node::getId)).toArray(Node[]::new);
+        links = network.links.values().stream().sorted(Comparator.comparing(Link::getId)).toArray(Link[]::new);
+        lanegroups = Arrays.stream(links)
+                .filter(link->link.lgs!=null)
+                .flatMap(link->link.lgs.stream())
+                .sorted(Comparator.comparing(AbstractLaneGroup::getId))
+                .toArray(AbstractLaneGroup[]::new);
+        node_ids = Arrays.stream(nodes).mapToLong(Node::getId).toArray();
+        link_ids = Arrays.stream(links).mapToLong(Link::getId).toArray();
+        lg_ids = Arrays.stream(lanegroups).mapToLong(AbstractLaneGroup::getId).toArray();
+
+        int num_nodes = nodes.length;
+        int num_links = links.length;
+        int num_lgs = lanegroups.length;
+
+        link_start = new int[num_links];
+        link_end = new int[num_links];
+        for(int l=0;l<num_links;l++){
+            link_start[l] = node_index(links[l].start_node.getId());
+            link_end[l] = node_index(links[l].end_node.getId());
+        }
+        lg_link = new int[num_lgs];
+        for(int g=0;g<num_lgs;g++)
+            lg_link[g] = link_index(lanegroups[g].link.getId());
+
+        // node adjacency
+        int [][] x = new int[num_nodes][];
+        for(int n=0;n<num_nodes;n++)
+            x[n] = nodes[n].out_links.stream().mapToInt(link->link_index(link.getId())).toArray();
+        node_out_offsets = new int[num_nodes+1];
+        node_out = compress(x,node_out_offsets);
+        for(int n=0;n<num_nodes;n++)
+            x[n] = nodes[n].in_links.values().stream().mapToInt(link->link_index(link.getId())).toArray();
+        node_in_offsets = new int[num_nodes+1];
+        node_in = compress(x,node_in_offsets);
+
+        // link adjacency
+        x = new int[num_links][];
+        for(int l=0;l<num_links;l++)
+            x[l] = links[l].outlink2lanegroups==null ? new int[0] :
+                    links[l].outlink2lanegroups.keySet().stream().mapToInt(this::link_index).filter(i->i>=0).toArray();
+        link_out_offsets = new int[num_links+1];
+        link_out = compress(x,link_out_offsets);
+        link_in_offsets = new int[num_links+1];
+        link_in = transpose(link_out_offsets,link_out,link_in_offsets);
+
+        // lanegroup adjacency
+        List<TreeMap<Integer,Long>> lg_arcs = new ArrayList<>();    // downstream lanegroup -> road connection
+        int num_lg_arcs = 0;
+        for(AbstractLaneGroup lg : lanegroups){
+            TreeMap<Integer,Long> arcs = new TreeMap<>();
+            if(lg.outlink2roadconnection!=null)
+                for(RoadConnection rc : lg.outlink2roadconnection.values())
+                    for(AbstractLaneGroup out : rc.out_lanegroups){
+                        int i = lanegroup_index(out.getId());
+                        if(i>=0)
+                            arcs.put(i,rc.getId());
+                    }
+            lg_arcs.add(arcs);
+            num_lg_arcs += arcs.size();
+        }
+        lg_out_offsets = new int[num_lgs+1];
+        lg_out = new int[num_lg_arcs];
+        lg_out_rc = new long[num_lg_arcs];
+        int a = 0;
+        for(int g=0;g<num_lgs;g++){
+            lg_out_offsets[g] = a;
+            for(Map.Entry<Integer,Long> e : lg_arcs.get(g).entrySet()){
+                lg_out[a] = e.getKey();
+                lg_out_rc[a] = e.getValue();
+                a++;
+            }
+        }
+        lg_out_offsets[num_lgs] = a;
+    }
+
+    ///////////////////////////////////////////////////
+    // index
+    ///////////////////////////////////////////////////
+
+    public int num_nodes(){
+        return nodes.length;
+    }
+
+    public int num_links(){
+        return links.length;
+    }
+
+    public int num_lanegroups(){
+        return lanegroups.length;
+    }
+
+    // index of the id, or -1 if it is not in the network
+    public int node_index(long node_id){
+        int i = Arrays.binarySearch(node_ids,node_id);
+        return i<0 ? -1 : i;
+    }
+
+    public int link_index(long link_id){
+        int i = Arrays.binarySearch(link_ids,link_id);
+        return i<0 ? -1 : i;
+    }
+
+    public int lanegroup_index(long lg_id){
+        int i = Arrays.binarySearch(lg_ids,lg_id);
+        return i<0 ? -1 : i;
+    }
+
+    public int link_start_node(int l){
+        return link_start[l];
+    }
+
+    public int link_end_node(int l){
+        return link_end[l];
+    }
+
+    public int lanegroup_link(int g){
+        return lg_link[g];
+    }
+
+    ///////////////////////////////////////////////////
+    // adjacency
+    ///////////////////////////////////////////////////
+
+    public int node_out_begin(int n){ return node_out_offsets[n]; }
+    public int node_out_end(int n){ return node_out_offsets[n+1]; }
+    public int node_out_link(int a){ return node_out[a]; }
+
+    public int node_in_begin(int n){ return node_in_offsets[n]; }
+    public int node_in_end(int n){ return node_in_offsets[n+1]; }
+    public int node_in_link(int a){ return node_in[a]; }
+
+    public int link_out_begin(int l){ return link_out_offsets[l]; }
+    public int link_out_end(int l){ return link_out_offsets[l+1]; }
+    public int link_out_link(int a){ return link_out[a]; }
+
+    public int link_in_begin(int l){ return link_in_offsets[l]; }
+    public int link_in_end(int l){ return link_in_offsets[l+1]; }
+    public int link_in_link(int a){ return link_in[a]; }
+
+    public int lanegroup_out_begin(int g){ return lg_out_offsets[g]; }
+    public int lanegroup_out_end(int g){ return lg_out_offsets[g+1]; }
+    public int lanegroup_out_lanegroup(int a){ return lg_out[a]; }
+    public long lanegroup_out_road_connection(int a){ return lg_out_rc[a]; }
+
+    ///////////////////////////////////////////////////
+    // queries
+    ///////////////////////////////////////////////////
+
+    /**
+     * @param from_link_id Upstream link id.
+     * @param to_link_id Downstream link id.
+     * @return True if vehicles can move directly from one link to the other.
+     */
+    public boolean is_link_arc(long from_link_id,long to_link_id){
+        int a = link_index(from_link_id);
+        int b = link_index(to_link_id);
+        if(a<0 || b<0)
+            return false;
+        int i = Arrays.binarySearch(link_out,link_out_offsets[a],link_out_offsets[a+1],b);
+        return i>=0;
+    }
+
+    /**
+     * @param link_ids Ordered link ids.
+     * @return True if each link is followed by one of its next links.
+     */
+    public boolean is_path(List<Long> link_ids){
+        for(int i=0;i<link_ids.size()-1;i++)
+            if(!is_link_arc(link_ids.get(i),link_ids.get(i+1)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Links that can be reached from a link, including itself.
+     * @param link_id Origin link id.
+     * @return Indexed by link index. All false if the link is not in the network.
+     */
+    public boolean [] get_reachable_links(long link_id){
+        boolean [] visited = new boolean[links.length];
+        int o = link_index(link_id);
+        if(o<0)
+            return visited;
+        int [] queue = new int[links.length];
+        int head = 0, tail = 0;
+        queue[tail++] = o;
+        visited[o] = true;
+        while(head<tail){
+            int l = queue[head++];
+            for(int a=link_out_offsets[l];a<link_out_offsets[l+1];a++){
+                int w = link_out[a];
+                if(!visited[w]){
+                    visited[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return visited;
+    }
+
+    public boolean is_reachable(long from_link_id,long to_link_id){
+        int b = link_index(to_link_id);
+        return b>=0 && get_reachable_links(from_link_id)[b];
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    // rows are sorted and concatenated. offsets has one more entry than rows.
+    private static int [] compress(int [][] rows,int [] offsets){
+        int n = 0;
+        for(int v=0;v<rows.length;v++){
+            offsets[v] = n;
+            n += rows[v].length;
+        }
+        offsets[rows.length] = n;
+        int [] targets = new int[n];
+        for(int v=0;v<rows.length;v++){
+            int [] row = rows[v].clone();
+            Arrays.sort(row);
+            System.arraycopy(row,0,targets,offsets[v],row.length);
+        }
+        return targets;
+    }
+
+    // reverse arcs, sorted by source
+    private static int [] transpose(int [] offsets,int [] targets,int [] t_offsets){
+        int n = offsets.length-1;
+        for(int a=0;a<targets.length;a++)
+            t_offsets[targets[a]+1]++;
+        for(int v=0;v<n;v++)
+            t_offsets[v+1] += t_offsets[v];
+        int [] fill = Arrays.copyOf(t_offsets,n);
+        int [] t_targets = new int[targets.length];
+        for(int v=0;v<n;v++)
+            for(int a=offsets[v];a<offsets[v+1];a++)
+                t_targets[fill[targets[a]]++] = v;
+        return t_targets;
+    }
+
+}
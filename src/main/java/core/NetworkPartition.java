@@ -0,0 +1,477 @@
+package core;
+
+import error.OTMException;
+import models.fluid.FluidLaneGroup;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Partition of a set of links into subdomains. Links are weighted by their work (see get_cost), and
+ * road connections between links in different subdomains are cut. A node belongs to the subdomain of
+ * its heaviest incoming link in the set, or of its heaviest outgoing link if it has none.
+ *
+ * create() is a multilevel partitioner. The link graph is coarsened by heavy edge matching, the coarsest
+ * graph is cut into pieces of equal weight along a breadth first order, and the cut is improved by greedy
+ * boundary moves on the way back to the links. There are no random choices, so the same network always
+ * gives the same partition. Partitions can be written to and read from a text file.
+ */
+public class NetworkPartition {
+
+    public static float max_imbalance = 1.03f;  // boundary moves keep subdomains below this times the mean weight
+
+    public final int num_parts;
+    public final List<List<Link>> part_links = new ArrayList<>();   // part -> links, by id
+    public final Map<Long,Integer> link2part = new HashMap<>();
+    public final Map<Long,Integer> node2part = new HashMap<>();
+    public final double [] part_weights;
+    private final int edge_cut;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * Multilevel partition.
+     * @param network Network.
+     * @param links Links to partition.
+     * @param num_parts Requested number of subdomains. At most one per link.
+     * @param weight Work per link. See get_cost.
+     * @return Partition
+     * @throws OTMException Undocumented
+     */
+    public static NetworkPartition create(Network network,Collection<Link> links,int num_parts,ToDoubleFunction<Link> weight) throws OTMException {
+        List<Link> sorted = sort(links);
+        int k = Math.max(1,Math.min(num_parts,sorted.size()));
+        int [] part = new LinkGraph(network,sorted,weight).partition(k);
+        Map<Long,Integer> link2part = new HashMap<>();
+        for(int i=0;i<sorted.size();i++)
+            link2part.put(sorted.get(i).getId(),part[i]);
+        return new NetworkPartition(network,links,link2part,weight);
+    }
+
+    /**
+     * Partition with a given assignment of links.
+     * @param network Network.
+     * @param links Links in the partition.
+     * @param link2part Subdomain of every link, numbered from 0.
+     * @param weight Work per link.
+     * @throws OTMException If a link is not assigned or a subdomain is empty.
+     */
+    public NetworkPartition(Network network,Collection<Link> links,Map<Long,Integer> link2part,ToDoubleFunction<Link> weight) throws OTMException {
+
+        List<Link> sorted = sort(links);
+        int k = 0;
+        for(Link link : sorted){
+            Integer p = link2part.get(link.getId());
+            if(p==null || p<0)
+                throw new OTMException("Link " + link.getId() + " is not assigned to a subdomain");
+            k = Math.max(k,p+1);
+        }
+        this.num_parts = k;
+        this.part_weights = new double[k];
+        for(int p=0;p<k;p++)
+            part_links.add(new ArrayList<>());
+        for(Link link : sorted){
+            int p = link2part.get(link.getId());
+            part_links.get(p).add(link);
+            this.link2part.put(link.getId(),p);
+            part_weights[p] += weight.applyAsDouble(link);
+        }
+        for(int p=0;p<k;p++)
+            if(part_links.get(p).isEmpty())
+                throw new OTMException("Subdomain " + p + " is empty");
+
+        // nodes, visiting links by id so that ties are resolved the same way every time
+        Map<Long,Double> node_weight = new HashMap<>();
+        for(Link link : sorted){
+            long node_id = link.end_node.getId();
+            double x = weight.applyAsDouble(link);
+            if(!node_weight.containsKey(node_id) || x>node_weight.get(node_id)){
+                node_weight.put(node_id,x);
+                node2part.put(node_id,this.link2part.get(link.getId()));
+            }
+        }
+        for(Link link : sorted){
+            long node_id = link.start_node.getId();
+            if(!node2part.containsKey(node_id))
+                node2part.put(node_id,this.link2part.get(link.getId()));
+        }
+
+        // cut road connections
+        int cut = 0;
+        if(network.road_connections!=null)
+            for(RoadConnection rc : network.road_connections.values()){
+                if(rc.start_link==null || rc.end_link==null)
+                    continue;
+                Integer a = this.link2part.get(rc.start_link.getId());
+                Integer b = this.link2part.get(rc.end_link.getId());
+                if(a!=null && b!=null && !a.equals(b))
+                    cut++;
+            }
+        this.edge_cut = cut;
+    }
+
+    /**
+     * Work per link, for load balancing.
+     * @param cell_cost Cost of each cell of a fluid lanegroup.
+     * @param road_connection_cost Node model cost of each road connection leaving the link.
+     * @param vehicle_cost Cost of each vehicle currently on the link.
+     * @return Cost function. At least 1 for every link.
+     */
+    public static ToDoubleFunction<Link> get_cost(double cell_cost,double road_connection_cost,double vehicle_cost){
+        return link->{
+            double x = 0d;
+            for(AbstractLaneGroup lg : link.get_lgs())
+                if(lg instanceof FluidLaneGroup)
+                    x += cell_cost*((FluidLaneGroup) lg).cells.size();
+            if(link.end_node.road_connections!=null)
+                for(RoadConnection rc : link.end_node.road_connections)
+                    if(rc.start_link==link)
+                        x += road_connection_cost;
+            if(vehicle_cost!=0d)
+                x += vehicle_cost*link.get_veh();
+            return Math.max(1d,x);
+        };
+    }
+
+    ///////////////////////////////////////////////////
+    // file
+    ///////////////////////////////////////////////////
+
+    /**
+     * Write the partition as one "link_id part" line per link, after a comment line with its metrics.
+     * @param filename File name.
+     * @throws OTMException Undocumented
+     */
+    public void write(String filename) throws OTMException {
+        try(Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write(String.format("# parts %d, edge cut %d, imbalance %.4f\n",num_parts,edge_cut,get_imbalance()));
+            for(int p=0;p<num_parts;p++)
+                for(Link link : part_links.get(p))
+                    writer.write(String.format("%d %d\n",link.getId(),p));
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    /**
+     * Read a partition written by write().
+     * @param network Network.
+     * @param links Links in the partition.
+     * @param filename File name.
+     * @param weight Work per link.
+     * @return Partition
+     * @throws OTMException If the file cannot be read or does not assign all of the links.
+     */
+    public static NetworkPartition read(Network network,Collection<Link> links,String filename,ToDoubleFunction<Link> weight) throws OTMException {
+        Map<Long,Integer> link2part = new HashMap<>();
+        try(BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while((line=reader.readLine())!=null){
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String [] x = line.split("\\s+");
+                if(x.length!=2)
+                    throw new OTMException("Bad line in partition file " + filename + ": " + line);
+                link2part.put(Long.parseLong(x[0]),Integer.parseInt(x[1]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new OTMException(e.getMessage());
+        }
+        return new NetworkPartition(network,links,link2part,weight);
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    /**
+     * @return Number of road connections between links in different subdomains.
+     */
+    public int get_edge_cut(){
+        return edge_cut;
+    }
+
+    /**
+     * Links that receive flow from a node in another subdomain. Their inflows are exchanged across
+     * the boundary at every step.
+     * @return Number of links
+     */
+    public int get_num_boundary_links(){
+        int n = 0;
+        for(int p=0;p<num_parts;p++)
+            for(Link link : part_links.get(p))
+                if(node2part.get(link.start_node.getId())!=p)
+                    n++;
+        return n;
+    }
+
+    /**
+     * @return Ratio of the heaviest subdomain to the mean. 1 is perfect balance.
+     */
+    public double get_imbalance(){
+        double max = 0d, sum = 0d;
+        for(double x : part_weights){
+            max = Math.max(max,x);
+            sum += x;
+        }
+        return sum>0d ? max*num_parts/sum : 1d;
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private static List<Link> sort(Collection<Link> links){
+        List<Link> sorted = new ArrayList<>(links);
+        sorted.sort(Comparator.comparing(Link::getId));
+        return sorted;
+    }
+
+    // undirected weighted graph in compressed sparse row form. Arcs of v are [xadj[v],xadj[v+1]).
+    private static class LinkGraph {
+
+        final int n;
+        final int [] xadj;
+        final int [] adj;
+        final double [] ew;     // arc weights
+        final double [] vw;     // vertex weights
+
+        LinkGraph(int n,int [] xadj,int [] adj,double [] ew,double [] vw){
+            this.n = n;
+            this.xadj = xadj;
+            this.adj = adj;
+            this.ew = ew;
+            this.vw = vw;
+        }
+
+        // vertices are the sorted links. Arc weights are numbers of road connections in either direction.
+        LinkGraph(Network network,List<Link> links,ToDoubleFunction<Link> weight){
+            n = links.size();
+            Map<Long,Integer> index = new HashMap<>();
+            for(int i=0;i<n;i++)
+                index.put(links.get(i).getId(),i);
+            vw = new double[n];
+            for(int i=0;i<n;i++)
+                vw[i] = Math.max(0d,weight.applyAsDouble(links.get(i)));
+
+            List<TreeMap<Integer,Double>> nbrs = new ArrayList<>();
+            for(int i=0;i<n;i++)
+                nbrs.add(new TreeMap<>());
+            if(network.road_connections!=null)
+                for(RoadConnection rc : network.road_connections.values()){
+                    if(rc.start_link==null || rc.end_link==null)
+                        continue;
+                    Integer a = index.get(rc.start_link.getId());
+                    Integer b = index.get(rc.end_link.getId());
+                    if(a==null || b==null || a.equals(b))
+                        continue;
+                    nbrs.get(a).merge(b,1d,Double::sum);
+                    nbrs.get(b).merge(a,1d,Double::sum);
+                }
+            xadj = new int[n+1];
+            for(int i=0;i<n;i++)
+                xadj[i+1] = xadj[i] + nbrs.get(i).size();
+            adj = new int[xadj[n]];
+            ew = new double[xadj[n]];
+            for(int i=0;i<n;i++){
+                int a = xadj[i];
+                for(Map.Entry<Integer,Double> e : nbrs.get(i).entrySet()){
+                    adj[a] = e.getKey();
+                    ew[a] = e.getValue();
+                    a++;
+                }
+            }
+        }
+
+        int [] partition(int k){
+            if(k==1 || n==0)
+                return new int[n];
+
+            double total = Arrays.stream(vw).sum();
+            int coarsen_to = 20*k;
+            double max_vertex = 1.5d*total/coarsen_to;
+
+            // coarsen
+            List<LinkGraph> graphs = new ArrayList<>();
+            List<int[]> maps = new ArrayList<>();
+            LinkGraph g = this;
+            graphs.add(g);
+            while(g.n>coarsen_to){
+                int [] cmap = new int[g.n];
+                LinkGraph c = g.coarsen(cmap,max_vertex);
+                if(c.n>0.95d*g.n)
+                    break;
+                maps.add(cmap);
+                graphs.add(c);
+                g = c;
+            }
+
+            // cut the coarsest graph
+            int [] part = g.cut_breadth_first(k,total);
+            g.refine(part,k,total);
+
+            // project and refine
+            for(int level=maps.size()-1;level>=0;level--){
+                int [] cmap = maps.get(level);
+                LinkGraph fine = graphs.get(level);
+                int [] fine_part = new int[fine.n];
+                for(int v=0;v<fine.n;v++)
+                    fine_part[v] = part[cmap[v]];
+                part = fine_part;
+                fine.refine(part,k,total);
+            }
+            return part;
+        }
+
+        // heavy edge matching. cmap receives the coarse vertex of each vertex.
+        LinkGraph coarsen(int [] cmap,double max_vertex){
+            Arrays.fill(cmap,-1);
+            int nc = 0;
+            for(int u=0;u<n;u++){
+                if(cmap[u]>=0)
+                    continue;
+                int best = -1;
+                for(int a=xadj[u];a<xadj[u+1];a++){
+                    int v = adj[a];
+                    if(cmap[v]>=0 || vw[u]+vw[v]>max_vertex)
+                        continue;
+                    if(best<0 || ew[a]>ew[best] || (ew[a]==ew[best] && vw[v]<vw[adj[best]]))
+                        best = a;
+                }
+                cmap[u] = nc;
+                if(best>=0)
+                    cmap[adj[best]] = nc;
+                nc++;
+            }
+
+            double [] cvw = new double[nc];
+            int [][] members = new int[nc][];
+            for(int u=n-1;u>=0;u--){
+                int c = cmap[u];
+                cvw[c] += vw[u];
+                members[c] = members[c]==null ? new int[]{u} : new int[]{u,members[c][0]};
+            }
+
+            // merge the arcs of the members. slot[d] is the position of the arc to d in the current row.
+            int [] cxadj = new int[nc+1];
+            int [] cadj = new int[adj.length];
+            double [] cew = new double[adj.length];
+            int [] slot = new int[nc];
+            Arrays.fill(slot,-1);
+            int m = 0;
+            for(int c=0;c<nc;c++){
+                cxadj[c] = m;
+                for(int u : members[c])
+                    for(int a=xadj[u];a<xadj[u+1];a++){
+                        int d = cmap[adj[a]];
+                        if(d==c)
+                            continue;
+                        if(slot[d]<cxadj[c]){
+                            slot[d] = m;
+                            cadj[m] = d;
+                            m++;
+                        }
+                        cew[slot[d]] += ew[a];
+                    }
+            }
+            cxadj[nc] = m;
+            return new LinkGraph(nc,cxadj,Arrays.copyOf(cadj,m),Arrays.copyOf(cew,m),cvw);
+        }
+
+        // breadth first order, starting from a peripheral vertex of each component, cut into pieces of equal weight
+        int [] cut_breadth_first(int k,double total){
+            int [] order = new int[n];
+            int [] tmp = new int[n];
+            boolean [] visited = new boolean[n];
+            int num = 0;
+            for(int v=0;v<n;v++){
+                if(visited[v])
+                    continue;
+                int t = bfs(v,new boolean[n],tmp,0);
+                num = bfs(tmp[t-1],visited,order,num);
+            }
+            double target = total/k;
+            int [] part = new int[n];
+            double cum = 0d;
+            for(int i=0;i<n;i++){
+                int v = order[i];
+                part[v] = target>0d ? Math.min(k-1,(int) ((cum + vw[v]/2d)/target)) : i*k/n;
+                cum += vw[v];
+            }
+            return part;
+        }
+
+        // appends the vertices reached from start to order, and returns its new length
+        int bfs(int start,boolean [] visited,int [] order,int num){
+            int head = num;
+            order[num++] = start;
+            visited[start] = true;
+            while(head<num){
+                int u = order[head++];
+                for(int a=xadj[u];a<xadj[u+1];a++)
+                    if(!visited[adj[a]]){
+                        visited[adj[a]] = true;
+                        order[num++] = adj[a];
+                    }
+            }
+            return num;
+        }
+
+        // greedy boundary refinement. A boundary vertex moves to the neighboring part with the largest
+        // reduction of the cut, if that part stays within the balance limit. Vertices of a part that is
+        // over the limit may also move to a lighter part at the expense of the cut.
+        void refine(int [] part,int k,double total){
+            double limit = max_imbalance*total/k;
+            double [] pw = new double[k];
+            int [] count = new int[k];
+            for(int v=0;v<n;v++){
+                pw[part[v]] += vw[v];
+                count[part[v]]++;
+            }
+            double [] conn = new double[k];
+            for(int pass=0;pass<10;pass++){
+                int moves = 0;
+                for(int u=0;u<n;u++){
+                    int from = part[u];
+                    if(count[from]==1)
+                        continue;
+                    for(int a=xadj[u];a<xadj[u+1];a++)
+                        conn[part[adj[a]]] += ew[a];
+                    int best = from;
+                    double best_gain = Double.NEGATIVE_INFINITY;
+                    for(int a=xadj[u];a<xadj[u+1];a++){
+                        int to = part[adj[a]];
+                        if(to==from)
+                            continue;
+                        double gain = conn[to]-conn[from];
+                        boolean improves = gain>0d && pw[to]+vw[u]<=limit;
+                        boolean balances = pw[from]>limit && pw[to]+vw[u]<pw[from];
+                        if(!improves && !balances)
+                            continue;
+                        if(gain>best_gain || (gain==best_gain && pw[to]<pw[best])){
+                            best = to;
+                            best_gain = gain;
+                        }
+                    }
+                    for(int a=xadj[u];a<xadj[u+1];a++)
+                        conn[part[adj[a]]] = 0d;
+                    if(best!=from){
+                        part[u] = best;
+                        pw[from] -= vw[u];
+                        pw[best] += vw[u];
+                        count[from]--;
+                        count[best]++;
+                        moves++;
+                    }
+                }
+                if(moves==0)
+                    break;
+            }
+        }
+    }
+
+}
@@ -113,7 +113,7 @@ public class Node implements InterfaceScenarioElement, InterfaceTarget {
 
 
         if(act instanceof ActuatorSignal){
-            if(!override && signal !=null)
+            if(!override && signal !=null && signal!=act)
                 throw new OTMException("Node already has an actuator");
             this.signal = (ActuatorSignal) act;
         }
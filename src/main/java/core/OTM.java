@@ -1,6 +1,9 @@
 package core;
 
 import dispatch.Dispatcher;
+import dispatch.DispatcherProfiler;
+import dispatch.EventPoke;
+import dispatch.Telemetry;
 import dispatch.EventStopSimulation;
 import error.OTMException;
 import jaxb.OutputRequests;
@@ -10,6 +13,7 @@ import cmd.RunParameters;
 import utils.OTMUtils;
 import xml.JaxbLoader;
 import xml.JaxbWriter;
+import xml.ScenarioGenerator;
 
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
@@ -40,6 +44,9 @@ public class OTM {
      */
     public core.Output output;
 
+    private DispatcherProfiler profiler;
+    private Telemetry telemetry;
+
     ////////////////////////////////////////////////////////
     // construction
     ////////////////////////////////////////////////////////
@@ -73,6 +80,18 @@ public class OTM {
         return new OTM(JaxbLoader.load_test_scenario(testname),true);
     }
 
+    /** Generate and load a synthetic scenario.
+     * @throws OTMException Undocumented
+     * @param topology One of line, grid, freeway.
+     * @param size Number of links (line), nodes per side (grid), or on/off-ramp sections (freeway).
+     * @param options Comma separated key=value pairs. See xml.ScenarioGenerator. May be null.
+     * @param validate Validate
+     * @return An OTM instance
+     * **/
+    public static OTM load_synthetic(String topology,int size,String options,boolean validate) throws OTMException  {
+        return new OTM(new ScenarioGenerator(topology,size).set_options(options).generate(),validate);
+    }
+
     /** Get the output object
      * @return Output object
      * **/
@@ -154,6 +173,7 @@ public class OTM {
 
         // build and attach dispatcher
         Dispatcher dispatcher = new Dispatcher();
+        dispatcher.profiler = profiler;
 
         // append outputs from output request file ..................
         if(output_requests_file!=null && !output_requests_file.isEmpty()) {
@@ -164,6 +184,9 @@ public class OTM {
         // initialize
         RunParameters runParams = new RunParameters(prefix,output_requests_file,output_folder,start_time);
         scenario.initialize(dispatcher,runParams,validate_post_init);
+
+        if(telemetry!=null)
+            telemetry.start(dispatcher);
     }
 
     /**
@@ -207,9 +230,190 @@ public class OTM {
     /**
      *  Complete the simulation by closing output files. This should be called explicitly if the simulation is
      *  executed with calls to "advance". The "run" method already calls it internally.
+     * @throws OTMException If an output could not be written or closed.
+     */
+    public void terminate() throws OTMException {
+        try {
+            scenario.terminate();
+        } finally {
+            if(telemetry!=null) {
+                telemetry.close();
+                telemetry = null;
+            }
+            if(profiler!=null)
+                profiler.unregister_mbean();
+        }
+    }
+
+    ////////////////////////////////////////////////////////
+    // profiling
+    ////////////////////////////////////////////////////////
+
+    /**
+     * Turn dispatcher profiling on or off. When on, the dispatcher collects counts, times and queue depths
+     * for each event type and recipient model. These are available through get_profiler, through JMX under
+     * otm:type=DispatcherProfiler, and as a table from get_profile_summary. Turning profiling on again resets the statistics.
+     * @param enable True to turn on profiling.
+     */
+    public void set_profiling(boolean enable){
+        if(profiler!=null)
+            profiler.unregister_mbean();
+        profiler = enable ? new DispatcherProfiler() : null;
+        if(profiler!=null)
+            profiler.register_mbean(Integer.toString(System.identityHashCode(this)));
+        if(scenario.dispatcher!=null)
+            scenario.dispatcher.profiler = profiler;
+    }
+
+    /**
+     * Get the dispatcher profiler.
+     * @return The profiler, or null if profiling is off.
+     */
+    public DispatcherProfiler get_profiler(){
+        return profiler;
+    }
+
+    /**
+     * Get a table of the profiling results.
+     * @return Summary string, or null if profiling is off.
      */
-    public void terminate() {
-        scenario.terminate();
+    public String get_profile_summary(){
+        return profiler==null ? null : profiler.get_summary();
+    }
+
+    /**
+     * Time step and cell counts of the fluid models, with an estimate of their computational cost.
+     * Available after loading, before running.
+     * @return One line per fluid model.
+     */
+    public String get_discretization_summary(){
+        StringBuilder str = new StringBuilder();
+        for(AbstractModel model : scenario.models.values())
+            if(model instanceof AbstractFluidModel)
+                str.append(((AbstractFluidModel) model).get_discretization_summary()).append("\n");
+        return str.toString();
+    }
+
+    ////////////////////////////////////////////////////////
+    // bulk data
+    ////////////////////////////////////////////////////////
+
+    public static final String [] links_table_columns = {"id","length_meter","lanes","start_node","end_node","is_source","is_sink"};
+
+    /**
+     * Column names of get_links_table_array. py4j does not expose fields, so python uses this.
+     * @return Column names.
+     */
+    public String [] get_links_table_columns(){
+        return links_table_columns.clone();
+    }
+
+    /**
+     * Link attributes as one row major [link][column] array, with links sorted by id.
+     * Columns are given by links_table_columns.
+     * @return Links table.
+     */
+    public double [] get_links_table_array(){
+        List<Link> links = sorted_links();
+        int n = links_table_columns.length;
+        double [] x = new double[links.size()*n];
+        int i = 0;
+        for(Link link : links){
+            x[i++] = link.getId();
+            x[i++] = link.get_full_length();
+            x[i++] = link.get_full_lanes();
+            x[i++] = link.get_start_node().getId();
+            x[i++] = link.get_end_node().getId();
+            x[i++] = link.is_source() ? 1d : 0d;
+            x[i++] = link.is_sink() ? 1d : 0d;
+        }
+        return x;
+    }
+
+    /**
+     * Current number of vehicles in each link, with links sorted by id.
+     * @return Vehicles per link.
+     */
+    public double [] get_link_vehicles_array(){
+        List<Link> links = sorted_links();
+        double [] x = new double[links.size()];
+        for(int i=0;i<x.length;i++)
+            x[i] = links.get(i).get_veh();
+        return x;
+    }
+
+    /**
+     * get_links_table_array packed as little endian float64, for numpy.frombuffer.
+     * @return Packed links table.
+     */
+    public byte[] get_links_table_bytes(){
+        return OTMUtils.to_bytes(get_links_table_array());
+    }
+
+    /**
+     * get_link_vehicles_array packed as little endian float64, for numpy.frombuffer.
+     * @return Packed vehicles per link.
+     */
+    public byte[] get_link_vehicles_bytes(){
+        return OTMUtils.to_bytes(get_link_vehicles_array());
+    }
+
+    private List<Link> sorted_links(){
+        List<Link> links = new ArrayList<>(scenario.network.links.values());
+        links.sort(Comparator.comparing(Link::getId));
+        return links;
+    }
+
+    ////////////////////////////////////////////////////////
+    // telemetry
+    ////////////////////////////////////////////////////////
+
+    /**
+     * Report progress every dt simulated seconds: simulated/wall time ratio, events per second, number of
+     * vehicles, heap usage and wall time spent in each model. This turns on profiling if it is off.
+     * Telemetry stops at terminate().
+     * @param dt Reporting interval in simulated seconds.
+     * @param echo Print each sample to standard output.
+     * @param filename File to which samples are appended as json lines. May be null.
+     * @param port Local UDP port to which samples are sent as json datagrams. May be null.
+     * @throws OTMException Undocumented
+     */
+    public void set_telemetry(float dt,boolean echo,String filename,Integer port) throws OTMException {
+        stop_telemetry();
+        if(profiler==null)
+            set_profiling(true);
+        telemetry = new Telemetry(scenario,dt,echo,filename,port);
+        if(scenario.dispatcher!=null)
+            telemetry.start(scenario.dispatcher);
+    }
+
+    /**
+     * Stop reporting progress.
+     */
+    public void stop_telemetry(){
+        if(telemetry==null)
+            return;
+        if(scenario.dispatcher!=null)
+            scenario.dispatcher.remove_events_for_recipient(EventPoke.class,telemetry);
+        telemetry.close();
+        telemetry = null;
+    }
+
+    /**
+     * Get the latest telemetry sample.
+     * @return The sample, or null if there is none.
+     */
+    public Telemetry.Sample get_telemetry(){
+        return telemetry==null ? null : telemetry.last_sample;
+    }
+
+    /**
+     * Get the latest telemetry sample as an array, for use through the gateway.
+     * @return [sim_time, wall_time, sim_wall_ratio, events, events_per_sec, vehicles, heap_used_mb], or null.
+     */
+    public double [] get_telemetry_array(){
+        Telemetry.Sample s = get_telemetry();
+        return s==null ? null : s.to_array();
     }
 
     ////////////////////////////////////////////////////////
@@ -396,6 +600,12 @@ public class OTM {
                 output = model.create_output(scenario,prefix,output_folder,jaxb_or);
             }
 
+            else if(jaxb_or.getWindow()!=null || jaxb_or.getStatistic()!=null || jaxb_or.getAggregate()!=null) {
+                Collection<Long> subnetwork_ids = jaxb_or.getSubnetwork()==null ? null : Collections.singletonList(jaxb_or.getSubnetwork());
+                output = new OutputAggregate(scenario, prefix, output_folder, jaxb_or.getQuantity(), commodity_id, null, outDt,
+                        jaxb_or.getWindow(), jaxb_or.getStatistic(), jaxb_or.getPercentile(), jaxb_or.getAggregate(), subnetwork_ids);
+            }
+
             else {
 
                 switch (jaxb_or.getQuantity()) {
@@ -442,8 +652,11 @@ public class OTM {
 
             }
 
-            if(output!=null)
+            if(output!=null) {
+                if(jaxb_or.getCompression()!=null)
+                    output.compression = AbstractOutput.Compression.valueOf(jaxb_or.getCompression().value());
                 outputs.add(output);
+            }
         }
         return outputs;
     }
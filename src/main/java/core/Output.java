@@ -3,6 +3,7 @@ package core;
 import error.OTMException;
 import models.vehicle.spatialq.OutputLinkQueues;
 import output.*;
+import utils.OTMUtils;
 
 import java.util.*;
 
@@ -45,6 +46,31 @@ public class Output {
         return x;
     }
 
+    /**
+     * Number of background threads that format and write file outputs. 0 writes on the simulation thread.
+     * Applies from the next initialization.
+     * @param num_threads Number of writer threads.
+     */
+    public void set_writer_threads(int num_threads){
+        myapi.scenario.output_threads = num_threads;
+    }
+
+    /**
+     * Write output data files gzip compressed, with a .gz extension. Applies from the next initialization.
+     * @param compress true to compress.
+     */
+    public void set_compress(boolean compress){
+        myapi.scenario.compress_outputs = compress;
+    }
+
+    /**
+     * Keep in-memory outputs off the java heap. Applies to outputs initialized after this call.
+     * @param off_heap true for off-heap storage.
+     */
+    public void set_off_heap(boolean off_heap){
+        myapi.scenario.off_heap_outputs = off_heap;
+    }
+
     /**
      * Get the set of all output file names.
      * @return Set of all output file names
@@ -316,8 +342,21 @@ public class Output {
      * @param outDt Output sampling time in seconds.
      */
     public void request_path_travel_time(String prefix,String output_folder,Number subnetwork_id,Float outDt){
+        request_path_travel_time(prefix,output_folder,subnetwork_id,outDt,true);
+    }
+
+    /**
+     * Request the travel times on a given path.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param subnetwork_id Id of the requested subnetwork. null means the entire network.
+     * @param outDt Output sampling time in seconds.
+     * @param instantaneous true for the sum of current link travel times, false for the travel time experienced by a vehicle entering the path.
+     */
+    public void request_path_travel_time(String prefix,String output_folder,Number subnetwork_id,Float outDt,boolean instantaneous){
         try {
             OutputPathTravelTime path_tt = new OutputPathTravelTime(myapi.scenario,prefix,output_folder,to_long(subnetwork_id),outDt);
+            path_tt.instantaneous = instantaneous;
             this.myapi.scenario.outputs.add(path_tt);
             this.myapi.scenario.add_path_travel_time(path_tt);
         } catch (OTMException e) {
@@ -341,6 +380,32 @@ public class Output {
         }
     }
 
+    // ----------------------------------------------
+    // aggregated
+    // ----------------------------------------------
+
+    /**
+     * Request a link, lanegroup or cell output that is reduced in space and time as it is sampled.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param quantity One of link_veh, link_flw, lanegroup_veh, lanegroup_flw, cell_veh, cell_flw. Flows are reported in veh/hr.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids. null means all links.
+     * @param outDt Sampling time in seconds.
+     * @param window Reporting window in seconds, a multiple of outDt. null means outDt.
+     * @param statistic One of mean, min, max, percentile. null means mean.
+     * @param percentile Percentile in [0,100] when statistic is percentile. null means 50.
+     * @param aggregate One of none, all, subnetwork, road_type. Values are summed within a group. null means none.
+     * @param subnetwork_ids Subnetworks when aggregate is subnetwork. null means all subnetworks.
+     */
+    public void request_aggregate(String prefix,String output_folder,String quantity,Number commodity_id,Collection<? extends Number> link_ids,Float outDt,Float window,String statistic,Float percentile,String aggregate,Collection<? extends Number> subnetwork_ids){
+        try {
+            this.myapi.scenario.outputs.add(new OutputAggregate(myapi.scenario,prefix,output_folder,quantity,to_long(commodity_id),to_long(link_ids),outDt,window,statistic,percentile,aggregate,to_long(subnetwork_ids)));
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
     // ----------------------------------------------
     // vehicle events
     // ----------------------------------------------
@@ -395,10 +460,100 @@ public class Output {
         }
     }
 
+    // ----------------------------------------------
+    // performance measures
+    // ----------------------------------------------
+
+    /**
+     * Vehicle-hours traveled since initialization. These and the other performance measures are always
+     * computed and can be queried at any time after initialization.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @param subnetwork_id Subnetwork id. null means the entire network.
+     * @return [veh.hr]
+     * @throws OTMException Undocumented
+     */
+    public double get_vht(Number commodity_id,Number subnetwork_id) throws OTMException {
+        return kpis().get_vht(to_long(commodity_id),kpi_links(subnetwork_id),myapi.scenario.dispatcher.current_time);
+    }
+
+    /**
+     * Vehicle-km traveled since initialization, credited when vehicles leave a link.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @param subnetwork_id Subnetwork id. null means the entire network.
+     * @return [veh.km]
+     * @throws OTMException Undocumented
+     */
+    public double get_vkt(Number commodity_id,Number subnetwork_id) throws OTMException {
+        return kpis().get_vkt(to_long(commodity_id),kpi_links(subnetwork_id));
+    }
+
+    /**
+     * Vehicle-hours in excess of free flow travel time since initialization.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @param subnetwork_id Subnetwork id. null means the entire network.
+     * @return [veh.hr]
+     * @throws OTMException Undocumented
+     */
+    public double get_delay(Number commodity_id,Number subnetwork_id) throws OTMException {
+        return kpis().get_delay(to_long(commodity_id),kpi_links(subnetwork_id),myapi.scenario.dispatcher.current_time);
+    }
+
+    /**
+     * Number of vehicles that have left the subnetwork since initialization.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @param subnetwork_id Subnetwork id. null means the entire network.
+     * @return [veh]
+     * @throws OTMException Undocumented
+     */
+    public double get_throughput(Number commodity_id,Number subnetwork_id) throws OTMException {
+        return kpis().get_throughput(to_long(commodity_id),kpi_links(subnetwork_id));
+    }
+
+    // ----------------------------------------------
+    // bulk data
+    // ----------------------------------------------
+
+    /**
+     * Link ids of a link output, packed as little endian int64.
+     * @param output A link output held in memory.
+     * @return Packed link ids, in the row order of get_values_bytes.
+     */
+    public byte[] get_link_ids_bytes(AbstractOutputTimedLink output){
+        return OTMUtils.to_bytes(output.get_link_ids());
+    }
+
+    /**
+     * Time vector of a link output, packed as little endian float64.
+     * @param output A link output held in memory.
+     * @return Packed time vector.
+     */
+    public byte[] get_time_bytes(AbstractOutputTimedLink output){
+        return OTMUtils.to_bytes(output.get_time_array());
+    }
+
+    /**
+     * Values of a link output, packed as little endian float64 in row major [link][time] order.
+     * @param output A link output held in memory.
+     * @return Packed values.
+     */
+    public byte[] get_values_bytes(AbstractOutputTimedLink output){
+        return OTMUtils.to_bytes(output.get_values_array());
+    }
+
     // ==================================================
     // Integer-based interface for Python connection
     // ==================================================
 
+    private KPIAccumulator kpis() throws OTMException {
+        if(myapi.scenario.kpis==null)
+            throw new OTMException("Performance measures are available after initialization.");
+        return myapi.scenario.kpis;
+    }
+
+    private Collection<Long> kpi_links(Number subnetwork_id) throws OTMException {
+        return subnetwork_id==null ? null : myapi.scenario.get_subnetwork(subnetwork_id.longValue()).get_link_ids();
+    }
+
     private Long to_long(Number x){
         return x==null ? null : Long.valueOf(x.longValue());
     }
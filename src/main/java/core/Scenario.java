@@ -10,6 +10,7 @@ import events.AbstractScenarioEvent;
 import output.animation.AnimationInfo;
 import traveltime.LinkTravelTimeManager;
 import control.AbstractController;
+import control.sigint.SignalPlanEngine;
 import error.OTMErrorLog;
 import error.OTMException;
 import dispatch.Dispatcher;
@@ -17,6 +18,9 @@ import jaxb.Split;
 import jaxb.Model;
 import output.AbstractOutput;
 import output.OutputPathTravelTime;
+import output.OutputPipeline;
+import output.OutputStore;
+import plugin.PluginControllerBatch;
 import profiles.*;
 import sensor.AbstractSensor;
 import utils.OTMUtils;
@@ -42,6 +46,28 @@ public class Scenario {
     public Dispatcher dispatcher;
     public Set<AbstractOutput> outputs = new HashSet<>();
 
+    // file output writers
+    public int output_threads = 1;          // 0 writes on the simulation thread
+    public int output_queue_size = 256;     // per thread
+    public boolean compress_outputs = false;
+    public int output_file_block_size = AbstractOutput.default_block_size;     // [bytes]
+    public OutputPipeline output_pipeline;
+
+    // in-memory outputs, see OutputStore
+    public boolean off_heap_outputs = false;
+    public int output_block_size = OutputStore.default_block_size;             // values per block
+    public int output_max_rows_per_block = OutputStore.default_max_rows_per_block;
+
+    // pretimed signals run from compiled plans, see SignalPlanEngine
+    public boolean compile_signals = false;
+    public SignalPlanEngine signal_engine;
+
+    // plugin controllers updated together, see PluginControllerBatch
+    public List<PluginControllerBatch> controller_batches = new ArrayList<>();
+
+    /** Always-on performance measures **/
+    public KPIAccumulator kpis;
+
     /** Container for the network **/
     public Network network;
 
@@ -142,6 +168,10 @@ public class Scenario {
             dispatcher.initialize();
 
         // initialize and register outputs
+        if(output_pipeline!=null)
+            output_pipeline.close();
+        output_pipeline = output_threads>0 && outputs.stream().anyMatch(x->x.write_to_file) ?
+                new OutputPipeline(output_threads,output_queue_size) : null;
         for(AbstractOutput x : outputs)
             x.initialize(this);
 
@@ -154,13 +184,26 @@ public class Scenario {
         for(AbstractModel model : models.values())
             model.initialize(this,runParams.start_time);
 
+        kpis = new KPIAccumulator(this,runParams.start_time);
+
         for(AbstractSensor x : sensors.values())
             x.initialize(this);
 
+        // actuators are initialized by their controllers, once per run
+        for(AbstractActuator x : actuators.values())
+            x.initialized = false;
+
+        signal_engine = compile_signals ? new SignalPlanEngine(this) : null;
         for(AbstractController x : controllers.values()) {
             float start_time = Math.max( x.start_time , runParams.start_time );
+            if(signal_engine!=null && signal_engine.add_controller(x,start_time))
+                continue;
             dispatcher.register_event(new EventInitializeController(dispatcher, start_time, x));
         }
+        if(signal_engine!=null)
+            signal_engine.register(dispatcher);
+        for(PluginControllerBatch x : controller_batches)
+            x.initialize(dispatcher,runParams.start_time);
 
         for(AbstractScenarioEvent event: events.values())
             event.initialize(this);
@@ -377,13 +420,26 @@ public class Scenario {
     // teminate
     ///////////////////////////////////////////////////
 
-    protected void terminate() {
+    // files are closed even if a writer failed. The first error is thrown.
+    protected void terminate() throws OTMException {
+        OTMException error = null;
         try {
-            for(AbstractOutput or : outputs)
-                or.close();
+            if(output_pipeline!=null)
+                output_pipeline.close();
         } catch (OTMException e) {
-            e.printStackTrace();
+            error = e;
+        } finally {
+            output_pipeline = null;
         }
+        for(AbstractOutput or : outputs)
+            try {
+                or.close();
+            } catch (OTMException e) {
+                if(error==null)
+                    error = e;
+            }
+        if(error!=null)
+            throw error;
     }
 
     ///////////////////////////////////////////////////
@@ -397,6 +453,13 @@ public class Scenario {
         path_tt_manager.add_path_travel_time_writer(path_tt_writer);
     }
 
+    public void add_link_travel_timers(Collection<Link> links,float dt) throws OTMException {
+        if(path_tt_manager==null)
+            path_tt_manager = new LinkTravelTimeManager(this);
+
+        path_tt_manager.add_links(links,dt);
+    }
+
     /** Get a scenario element by type and id
      * @param type Scenario element type
      * @param id Id of the scenario element
@@ -81,7 +81,12 @@ public class ScenarioFactory {
 
     public static AbstractController create_controller_from_jaxb(Scenario scenario, jaxb.Controller jaxb_controller) throws OTMException {
         AbstractController controller;
-        AbstractController.Algorithm type = AbstractController.Algorithm.valueOf(jaxb_controller.getType());
+        AbstractController.Algorithm type;
+        try {
+            type = AbstractController.Algorithm.valueOf(jaxb_controller.getType());
+        } catch (IllegalArgumentException e) {
+            type = AbstractController.Algorithm.plugin;
+        }
         switch(type){
             case schedule:
                 controller = new ControllerSchedule(scenario,jaxb_controller);
@@ -95,6 +100,9 @@ public class ScenarioFactory {
             case rm_alinea:
                 controller = new ControllerAlinea(scenario,jaxb_controller);
                 break;
+            case rm_alinea_bank:
+                controller = new ControllerAlineaBank(scenario,jaxb_controller);
+                break;
             case rm_fixed_rate:
                 controller = new ControllerFixedRate(scenario,jaxb_controller);
                 break;
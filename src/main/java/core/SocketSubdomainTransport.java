@@ -0,0 +1,179 @@
+package core;
+
+import error.OTMException;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+/**
+ * Transport between subdomains that run in separate JVMs, on one or several machines, over one TCP
+ * connection per pair of subdomains. Each subdomain listens on its own address. It connects to the
+ * subdomains with a lower index and accepts connections from those with a higher one, so the
+ * constructors of all subdomains must run at about the same time. Messages are length prefixed.
+ */
+public class SocketSubdomainTransport implements InterfaceSubdomainTransport {
+
+    public final int timeout_ms;
+
+    private final int part;
+    private final int num_parts;
+    private final Socket [] sockets;
+    private final DataOutputStream [] out;
+    private final DataInputStream [] in;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * @param part This subdomain.
+     * @param addresses Address of every subdomain.
+     * @param timeout_ms Longest wait for a connection or a message [msec].
+     * @throws OTMException If the connections cannot be made.
+     */
+    public SocketSubdomainTransport(int part,List<InetSocketAddress> addresses,int timeout_ms) throws OTMException {
+        this(part,bind(addresses.get(part)),addresses,timeout_ms);
+    }
+
+    /**
+     * @param part This subdomain.
+     * @param server Socket bound to the address of this subdomain. It is closed once all connections are made.
+     * @param addresses Address of every subdomain.
+     * @param timeout_ms Longest wait for a connection or a message [msec].
+     * @throws OTMException If the connections cannot be made.
+     */
+    public SocketSubdomainTransport(int part,ServerSocket server,List<InetSocketAddress> addresses,int timeout_ms) throws OTMException {
+        this.part = part;
+        this.num_parts = addresses.size();
+        this.timeout_ms = timeout_ms;
+        sockets = new Socket[num_parts];
+        out = new DataOutputStream[num_parts];
+        in = new DataInputStream[num_parts];
+
+        try {
+            server.setSoTimeout(timeout_ms);
+
+            // connect to lower subdomains, retrying until they listen
+            for(int q=0;q<part;q++){
+                long deadline = System.currentTimeMillis() + timeout_ms;
+                while(sockets[q]==null){
+                    try {
+                        Socket s = new Socket();
+                        s.connect(addresses.get(q),timeout_ms);
+                        sockets[q] = s;
+                    } catch (IOException e) {
+                        if(System.currentTimeMillis()>deadline)
+                            throw e;
+                        Thread.sleep(50);
+                    }
+                }
+                open(q);
+                out[q].writeInt(part);
+                out[q].flush();
+            }
+
+            // accept higher subdomains, which identify themselves
+            for(int k=part+1;k<num_parts;k++){
+                Socket s = server.accept();
+                DataInputStream din = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                s.setSoTimeout(timeout_ms);
+                int q = din.readInt();
+                if(q<=part || q>=num_parts || sockets[q]!=null)
+                    throw new OTMException(String.format("Subdomain %d was contacted by unexpected subdomain %d",part,q));
+                sockets[q] = s;
+                in[q] = din;
+                out[q] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                s.setTcpNoDelay(true);
+            }
+        } catch (IOException e) {
+            close();
+            throw new OTMException("Subdomain " + part + " could not connect",e);
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (OTMException e) {
+            close();
+            throw e;
+        } finally {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // the connections are made
+            }
+        }
+    }
+
+    private static ServerSocket bind(InetSocketAddress address) throws OTMException {
+        try {
+            ServerSocket server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(address);
+            return server;
+        } catch (IOException e) {
+            throw new OTMException("Could not listen on " + address,e);
+        }
+    }
+
+    private void open(int q) throws IOException {
+        Socket s = sockets[q];
+        s.setSoTimeout(timeout_ms);
+        s.setTcpNoDelay(true);
+        out[q] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        in[q] = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+    }
+
+    ///////////////////////////////////////////////////
+    // InterfaceSubdomainTransport
+    ///////////////////////////////////////////////////
+
+    @Override
+    public int get_part() {
+        return part;
+    }
+
+    @Override
+    public int get_num_parts() {
+        return num_parts;
+    }
+
+    @Override
+    public void send(int to, byte[] message) throws OTMException {
+        try {
+            out[to].writeInt(message.length);
+            out[to].write(message);
+            out[to].flush();
+        } catch (IOException e) {
+            throw new OTMException(String.format("Subdomain %d could not send to subdomain %d",part,to),e);
+        }
+    }
+
+    @Override
+    public byte[] receive(int from) throws OTMException {
+        try {
+            byte [] message = new byte[in[from].readInt()];
+            in[from].readFully(message);
+            return message;
+        } catch (SocketTimeoutException e) {
+            throw new OTMException(String.format("Subdomain %d received nothing from subdomain %d in %d msec",part,from,timeout_ms),e);
+        } catch (IOException e) {
+            throw new OTMException(String.format("Subdomain %d could not receive from subdomain %d",part,from),e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for(Socket s : sockets)
+            if(s!=null)
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // nothing left to do with this connection
+                }
+    }
+
+}
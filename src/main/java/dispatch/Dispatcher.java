@@ -15,6 +15,7 @@ public  class Dispatcher {
     public PriorityQueue<AbstractEvent> events;
     private boolean continue_simulation;
     public boolean verbose = false;
+    public DispatcherProfiler profiler = null;     // null when profiling is off
 
     public Map<Long,Integer> lg2deltalanes;    // tracks the total change in lane count caused by EventLaneGroupLane events.
 
@@ -75,10 +76,25 @@ public  class Dispatcher {
     }
 
     public void dispatch_events_to_stop() throws OTMException {
+        if(profiler!=null) {
+            dispatch_events_to_stop_profiled();
+            return;
+        }
+        while( !events.isEmpty() && continue_simulation ) {
+            AbstractEvent event = events.poll();
+            current_time = event.timestamp;
+            event.action();
+        }
+    }
+
+    private void dispatch_events_to_stop_profiled() throws OTMException {
         while( !events.isEmpty() && continue_simulation ) {
+            int queue_depth = events.size();
             AbstractEvent event = events.poll();
             current_time = event.timestamp;
+            long start = System.nanoTime();
             event.action();
+            profiler.record(event,System.nanoTime()-start,queue_depth);
         }
     }
 
@@ -0,0 +1,180 @@
+package dispatch;
+
+import core.AbstractLaneGroup;
+import core.AbstractModel;
+import core.AbstractVehicle;
+import core.Link;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Per event type and per recipient statistics collected by the dispatcher. The dispatcher only
+ * uses the profiled loop when a profiler is attached, so there is no cost when profiling is off.
+ * Model sections that run inside a single event (e.g. the node model inside EventFluidModelUpdate)
+ * are reported separately with add_section. Methods that touch the tables are synchronized so that
+ * the MBean can be read while the simulation runs.
+ */
+public class DispatcherProfiler implements DispatcherProfilerMBean {
+
+    public static class Stat {
+        public long count;
+        public long nanos;
+        public long max_nanos;
+
+        void add(long dt){
+            count++;
+            nanos += dt;
+            if(dt>max_nanos)
+                max_nanos = dt;
+        }
+
+        public double mean_micros(){
+            return count==0 ? 0d : nanos/1000d/count;
+        }
+    }
+
+    public final Map<Class<? extends AbstractEvent>,Stat> event_stats = new HashMap<>();
+    public final Map<String,Stat> recipient_stats = new HashMap<>();
+    public final Map<String,Stat> section_stats = new HashMap<>();
+
+    // queue depth sampled before every event
+    public long queue_samples;
+    public long queue_depth_sum;
+    public int queue_depth_max;
+
+    public long total_nanos;
+
+    private javax.management.ObjectName mbean_name;
+
+    ///////////////////////////////////////////////////
+    // collect
+    ///////////////////////////////////////////////////
+
+    public synchronized void record(AbstractEvent event, long nanos, int queue_depth){
+        total_nanos += nanos;
+        event_stats.computeIfAbsent(event.getClass(),c->new Stat()).add(nanos);
+        recipient_stats.computeIfAbsent(recipient_name(event.recipient),c->new Stat()).add(nanos);
+        queue_samples++;
+        queue_depth_sum += queue_depth;
+        if(queue_depth>queue_depth_max)
+            queue_depth_max = queue_depth;
+    }
+
+    public synchronized void add_section(String name, long nanos){
+        section_stats.computeIfAbsent(name,c->new Stat()).add(nanos);
+    }
+
+    // events are grouped by the model of their recipient, when there is one
+    private static String recipient_name(Object recipient){
+        if(recipient==null)
+            return "none";
+        if(recipient instanceof AbstractModel)
+            return "model " + ((AbstractModel) recipient).name;
+        if(recipient instanceof AbstractLaneGroup)
+            return model_name(((AbstractLaneGroup) recipient).get_link());
+        if(recipient instanceof AbstractVehicle && ((AbstractVehicle) recipient).get_lanegroup()!=null)
+            return model_name(((AbstractVehicle) recipient).get_lanegroup().get_link());
+        return recipient.getClass().getSimpleName();
+    }
+
+    private static String model_name(Link link){
+        return link==null || link.get_model()==null ? "none" : "model " + link.get_model().name;
+    }
+
+    ///////////////////////////////////////////////////
+    // report
+    ///////////////////////////////////////////////////
+
+    public synchronized String get_summary(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Dispatcher profile: %d events, %.1f ms, queue depth mean %.1f max %d\n",
+                getTotalEvents(),total_nanos/1e6,getMeanQueueDepth(),queue_depth_max));
+
+        Map<String,Stat> by_event = new HashMap<>();
+        for(Map.Entry<Class<? extends AbstractEvent>,Stat> e : event_stats.entrySet())
+            by_event.put(e.getKey().getSimpleName(),e.getValue());
+
+        append_table(sb,"event",by_event);
+        append_table(sb,"recipient",recipient_stats);
+        if(!section_stats.isEmpty())
+            append_table(sb,"section",section_stats);
+        return sb.toString();
+    }
+
+    private void append_table(StringBuilder sb,String title,Map<String,Stat> stats){
+        sb.append(String.format("%-40s %12s %12s %8s %12s %12s\n",title,"count","total ms","%","mean us","max us"));
+        List<Map.Entry<String,Stat>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort((a,b)->Long.compare(b.getValue().nanos,a.getValue().nanos));
+        for(Map.Entry<String,Stat> e : entries){
+            Stat s = e.getValue();
+            sb.append(String.format("%-40s %12d %12.2f %8.2f %12.2f %12.2f\n",
+                    e.getKey(),s.count,s.nanos/1e6,total_nanos==0 ? 0d : 100d*s.nanos/total_nanos,s.mean_micros(),s.max_nanos/1e3));
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // JMX
+    ///////////////////////////////////////////////////
+
+    public void register_mbean(String name){
+        try {
+            mbean_name = new javax.management.ObjectName("otm:type=DispatcherProfiler,name=" + name);
+            javax.management.MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(mbean_name))
+                server.unregisterMBean(mbean_name);
+            server.registerMBean(this,mbean_name);
+        } catch (Exception e) {
+            System.err.println("Could not register profiler MBean: " + e.getMessage());
+            mbean_name = null;
+        }
+    }
+
+    public void unregister_mbean(){
+        if(mbean_name==null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean_name);
+        } catch (Exception e) {
+            System.err.println("Could not unregister profiler MBean: " + e.getMessage());
+        }
+        mbean_name = null;
+    }
+
+    @Override
+    public long getTotalEvents() {
+        return queue_samples;
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return total_nanos/1e6;
+    }
+
+    @Override
+    public double getMeanQueueDepth() {
+        return queue_samples==0 ? 0d : ((double)queue_depth_sum)/queue_samples;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return queue_depth_max;
+    }
+
+    @Override
+    public String getSummary() {
+        return get_summary();
+    }
+
+    @Override
+    public synchronized void reset() {
+        event_stats.clear();
+        recipient_stats.clear();
+        section_stats.clear();
+        queue_samples = 0;
+        queue_depth_sum = 0;
+        queue_depth_max = 0;
+        total_nanos = 0;
+    }
+
+}
@@ -0,0 +1,21 @@
+package dispatch;
+
+/**
+ * JMX view of a DispatcherProfiler. Registered under otm:type=DispatcherProfiler. The getters follow the
+ * JMX naming convention so that they are exposed as attributes.
+ */
+public interface DispatcherProfilerMBean {
+
+    long getTotalEvents();
+
+    double getTotalMillis();
+
+    double getMeanQueueDepth();
+
+    int getMaxQueueDepth();
+
+    String getSummary();
+
+    void reset();
+
+}
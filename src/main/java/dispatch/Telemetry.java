@@ -0,0 +1,216 @@
+package dispatch;
+
+import core.Link;
+import core.Scenario;
+import error.OTMException;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Periodic progress report. Every dt simulated seconds a Sample is taken and sent to the
+ * enabled sinks: standard output, a metrics file (one json object per line), and a UDP
+ * datagram to a local port. Event counts and per model times come from the dispatcher profiler,
+ * which must be attached while telemetry is running.
+ */
+public class Telemetry implements Pokable {
+
+    public static class Sample {
+        public float sim_time;          // [sec]
+        public double wall_time;        // [sec] since start
+        public double sim_wall_ratio;   // over the last interval
+        public long events;             // since start
+        public double events_per_sec;   // over the last interval
+        public double vehicles;
+        public double heap_used_mb;
+        public Map<String,Double> model_ms = new HashMap<>();   // wall time spent by each model over the last interval
+
+        public double [] to_array(){
+            return new double[]{sim_time,wall_time,sim_wall_ratio,events,events_per_sec,vehicles,heap_used_mb};
+        }
+
+        // numbers are written with Locale.ROOT, and as null when they are not finite
+        public String to_json(){
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"sim_time\":").append(json_number(sim_time,1))
+                    .append(",\"wall_time\":").append(json_number(wall_time,3))
+                    .append(",\"sim_wall_ratio\":").append(json_number(sim_wall_ratio,3))
+                    .append(",\"events\":").append(events)
+                    .append(",\"events_per_sec\":").append(json_number(events_per_sec,1))
+                    .append(",\"vehicles\":").append(json_number(vehicles,1))
+                    .append(",\"heap_used_mb\":").append(json_number(heap_used_mb,1))
+                    .append(",\"model_ms\":{");
+            boolean first = true;
+            for(Map.Entry<String,Double> e : model_ms.entrySet()){
+                sb.append(first ? "" : ",").append(json_string(e.getKey())).append(":").append(json_number(e.getValue(),3));
+                first = false;
+            }
+            return sb.append("}}").toString();
+        }
+
+        private static String json_number(double x,int decimals){
+            return Double.isFinite(x) ? String.format(Locale.ROOT,"%." + decimals + "f",x) : "null";
+        }
+
+        private static String json_string(String x){
+            return "\"" + x.replace("\\","\\\\").replace("\"","\\\"") + "\"";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("t=%.0f wall=%.1fs ratio=%.1f events=%d (%.0f/s) vehicles=%.0f heap=%.0fMB %s",
+                    sim_time,wall_time,sim_wall_ratio,events,events_per_sec,vehicles,heap_used_mb,model_ms);
+        }
+    }
+
+    public final float dt;
+    private final Scenario scenario;
+
+    // sinks
+    private final boolean echo;
+    private PrintWriter file_writer;
+    private DatagramSocket socket;
+    private InetAddress address;
+    private int port;
+
+    public Sample last_sample;
+
+    private long start_wall;
+    private long prev_wall;
+    private float prev_sim;
+    private long prev_events;
+    private Map<String,Long> prev_model_nanos = new HashMap<>();
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * @param scenario The scenario
+     * @param dt Reporting interval in simulated seconds.
+     * @param echo Print samples to standard output.
+     * @param filename Metrics file, or null.
+     * @param port Local UDP port, or null.
+     */
+    public Telemetry(Scenario scenario,float dt,boolean echo,String filename,Integer port) throws OTMException {
+        if(dt<=0)
+            throw new OTMException("Telemetry interval must be positive.");
+        this.scenario = scenario;
+        this.dt = dt;
+        this.echo = echo;
+        try {
+            if(filename!=null)
+                file_writer = new PrintWriter(new FileWriter(filename,true));
+            if(port!=null) {
+                socket = new DatagramSocket();
+                address = InetAddress.getLoopbackAddress();
+                this.port = port;
+            }
+        } catch (IOException e) {
+            close();
+            throw new OTMException(e);
+        }
+    }
+
+    public void start(Dispatcher dispatcher){
+        start_wall = System.nanoTime();
+        prev_wall = start_wall;
+        prev_sim = dispatcher.current_time;
+        prev_events = dispatcher.profiler==null ? 0 : dispatcher.profiler.getTotalEvents();
+        prev_model_nanos.clear();
+        dispatcher.register_event(new EventPoke(dispatcher,99,dispatcher.current_time+dt,this));
+    }
+
+    public void close(){
+        if(file_writer!=null)
+            file_writer.close();
+        if(socket!=null)
+            socket.close();
+        file_writer = null;
+        socket = null;
+    }
+
+    ///////////////////////////////////////////////////
+    // Pokable
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void poke(Dispatcher dispatcher, float timestamp) throws OTMException {
+        last_sample = take_sample(dispatcher,timestamp);
+        emit(last_sample);
+        dispatcher.register_event(new EventPoke(dispatcher,99,timestamp+dt,this));
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private Sample take_sample(Dispatcher dispatcher,float timestamp){
+
+        long now = System.nanoTime();
+        double interval_sec = (now-prev_wall)/1e9;
+
+        Sample s = new Sample();
+        s.sim_time = timestamp;
+        s.wall_time = (now-start_wall)/1e9;
+        s.sim_wall_ratio = interval_sec>0 ? (timestamp-prev_sim)/interval_sec : Double.NaN;
+
+        DispatcherProfiler profiler = dispatcher.profiler;
+        if(profiler!=null){
+            synchronized (profiler) {
+                s.events = profiler.getTotalEvents();
+                for (Map.Entry<String, DispatcherProfiler.Stat> e : profiler.recipient_stats.entrySet()) {
+                    if (!e.getKey().startsWith("model "))
+                        continue;
+                    String model = e.getKey().substring(6);
+                    long nanos = e.getValue().nanos;
+                    s.model_ms.put(model, (nanos - prev_model_nanos.getOrDefault(model, 0L)) / 1e6);
+                    prev_model_nanos.put(model, nanos);
+                }
+            }
+            s.events_per_sec = interval_sec>0 ? (s.events-prev_events)/interval_sec : Double.NaN;
+        }
+
+        double vehicles = 0d;
+        for(Link link : scenario.network.links.values())
+            vehicles += link.get_veh();
+        s.vehicles = vehicles;
+
+        Runtime rt = Runtime.getRuntime();
+        s.heap_used_mb = (rt.totalMemory()-rt.freeMemory())/1e6;
+
+        prev_wall = now;
+        prev_sim = timestamp;
+        prev_events = s.events;
+        return s;
+    }
+
+    private void emit(Sample s){
+        if(echo)
+            System.out.println(s.toString());
+        if(file_writer==null && socket==null)
+            return;
+        String json = s.to_json();
+        if(file_writer!=null) {
+            file_writer.println(json);
+            file_writer.flush();
+        }
+        if(socket!=null){
+            byte [] bytes = json.getBytes(StandardCharsets.UTF_8);
+            try {
+                socket.send(new DatagramPacket(bytes,bytes.length,address,port));
+            } catch (IOException e) {
+                System.err.println("Telemetry: " + e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package dta;
+
+import commodity.Path;
+import core.AbstractDemandGenerator;
+import core.Link;
+import core.OTM;
+import error.OTMException;
+import profiles.Profile1D;
+import traveltime.LinkTravelTimeManager;
+import traveltime.LinkTravelTimer;
+
+import java.util.*;
+
+/**
+ * Iterative dynamic traffic assignment on a loaded scenario. The demand of each pathfull commodity is
+ * pooled over the paths that share an origin and a destination link. Each iteration re-initializes and
+ * simulates the scenario, evaluates the travel time experienced on every path for every demand interval
+ * from the recorded link travel times, and moves demand towards the fastest path with the method of
+ * successive averages. The scenario is loaded only once.
+ * <p>
+ * The relative gap is measured against the time dependent shortest path through the whole network.
+ * Paths cannot be added to a scenario once it is loaded, so demand only moves among the given paths.
+ * An OD whose shortest path is not among them is flagged with unpooled_path.
+ */
+public class DTA {
+
+    public static class OD {
+        public final long commodity_id;
+        public final long origin_id;
+        public final long destination_id;
+        public final List<AbstractDemandGenerator> generators = new ArrayList<>();   // one per path
+        public float start_time;
+        public Float dt;                // demand interval [sec], null for a constant demand
+        public double [] demand;        // total over paths, per interval
+        public double [][] share;       // [path][interval]
+        public List<Long> unpooled_path;    // faster than every path of the od in the last iteration, or null
+
+        public OD(long commodity_id,long origin_id,long destination_id){
+            this.commodity_id = commodity_id;
+            this.origin_id = origin_id;
+            this.destination_id = destination_id;
+        }
+
+        public List<Long> get_path_ids(){
+            List<Long> x = new ArrayList<>();
+            for(AbstractDemandGenerator gen : generators)
+                x.add(gen.get_path().getId());
+            return x;
+        }
+    }
+
+    public final OTM otm;
+    public final float dt;              // link travel time sampling [sec]
+    public final List<OD> ods = new ArrayList<>();
+    public final LinkGraph graph;
+    public final List<Double> relative_gap = new ArrayList<>();
+
+    private float start_time;
+    private float end_time;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    /**
+     * @param otm Loaded scenario, with pathfull demands.
+     * @param dt Link travel time sampling [sec].
+     * @throws OTMException Undocumented
+     */
+    public DTA(OTM otm,float dt) throws OTMException {
+        if(dt<=0)
+            throw new OTMException("DTA sampling time must be positive.");
+        this.otm = otm;
+        this.dt = dt;
+
+        // group pathfull demands by commodity, origin, and destination
+        Map<String,OD> key2od = new TreeMap<>();
+        for(Link link : otm.scenario.network.links.values()){
+            if(!link.has_demands())
+                continue;
+            for(AbstractDemandGenerator gen : link.get_demandGenerators()){
+                Path path = gen.get_path();
+                if(path==null)
+                    continue;
+                long o = path.get_origin().getId();
+                long d = path.get_destination().getId();
+                String key = String.format("%d_%d_%d",gen.get_commodity_id(),o,d);
+                key2od.computeIfAbsent(key,k->new OD(gen.get_commodity_id(),o,d)).generators.add(gen);
+            }
+        }
+        if(key2od.isEmpty())
+            throw new OTMException("DTA requires demands for pathfull commodities.");
+
+        for(OD od : key2od.values()){
+            od.generators.sort(Comparator.comparing(g->g.get_path().getId()));
+            Profile1D first = od.generators.get(0).get_profile();
+            od.start_time = first.start_time;
+            od.dt = first.dt;
+            int n = 0;
+            for(AbstractDemandGenerator gen : od.generators){
+                Profile1D p = gen.get_profile();
+                if(p.start_time!=od.start_time || !Objects.equals(p.dt,od.dt))
+                    throw new OTMException(String.format("Demands for commodity %d from link %d to link %d must have the same start time and dt.",od.commodity_id,od.origin_id,od.destination_id));
+                n = Math.max(n,p.get_length());
+            }
+
+            int num_paths = od.generators.size();
+            od.demand = new double[n];
+            od.share = new double[num_paths][n];
+            for(int p=0;p<num_paths;p++){
+                List<Double> values = od.generators.get(p).get_profile().values;
+                for(int i=0;i<values.size();i++)
+                    od.demand[i] += values.get(i);
+            }
+            for(int p=0;p<num_paths;p++){
+                List<Double> values = od.generators.get(p).get_profile().values;
+                for(int i=0;i<n;i++)
+                    od.share[p][i] = od.demand[i]>0 ? (i<values.size() ? values.get(i) : 0d)/od.demand[i] : 1d/num_paths;
+            }
+            ods.add(od);
+        }
+
+        otm.scenario.add_link_travel_timers(otm.scenario.network.links.values(),dt);
+        graph = new LinkGraph(otm.scenario.network);
+    }
+
+    ///////////////////////////////////////////////////
+    // run
+    ///////////////////////////////////////////////////
+
+    /**
+     * Run the assignment. After the last iteration the demands are those of the last simulation.
+     * @param iterations Number of simulations.
+     * @param start_time Initial time in seconds.
+     * @param duration Duration of each simulation in seconds.
+     * @throws OTMException Undocumented
+     */
+    public void run(int iterations,float start_time,float duration) throws OTMException {
+        this.start_time = start_time;
+        this.end_time = start_time + duration;
+        LinkTravelTimeManager manager = otm.scenario.path_tt_manager;
+        manager.history_size = Math.max(manager.history_size,(int) Math.ceil(duration/dt)+1);
+        relative_gap.clear();
+        for(int k=1;k<=iterations;k++){
+            apply_shares();
+            otm.run(start_time,duration);
+            relative_gap.add(update_shares(k<iterations ? 1d/(k+1) : 0d));
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    /**
+     * Shortest path through the whole network using the link travel times of the last simulation.
+     * @param origin_id Id of the first link.
+     * @param destination_id Id of the last link.
+     * @param departure Time of entry to the first link [sec].
+     * @return Ordered link ids, or null if the destination cannot be reached.
+     */
+    public List<Long> get_shortest_path(long origin_id,long destination_id,float departure){
+        return graph.get_shortest_path(origin_id,destination_id,departure,DTA::get_link_travel_time);
+    }
+
+    /**
+     * Share of the origin-destination demand assigned to a path, per demand interval.
+     * @param path_id Path id.
+     * @return Shares, or null if the path carries no pathfull demand.
+     */
+    public double [] get_shares(long path_id){
+        for(OD od : ods)
+            for(int p=0;p<od.generators.size();p++)
+                if(od.generators.get(p).get_path().getId()==path_id)
+                    return od.share[p].clone();
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private static double get_link_travel_time(Link link,double time){
+        return link.link_tt==null ? 0d : link.link_tt.get_travel_time_for_time(time);
+    }
+
+    private void apply_shares(){
+        for(OD od : ods)
+            for(int p=0;p<od.generators.size();p++){
+                List<Double> values = od.generators.get(p).get_profile().values;
+                values.clear();
+                for(int i=0;i<od.demand.length;i++)
+                    values.add(od.demand[i]*od.share[p][i]);
+            }
+    }
+
+    // evaluate experienced path travel times for each demand interval, averaged over departures every dt.
+    // returns the relative gap to the network shortest paths and moves a fraction step of each interval's
+    // demand to its fastest path.
+    private double update_shares(double step){
+        double total = 0d;
+        double best = 0d;
+        for(OD od : ods){
+            int num_paths = od.generators.size();
+            LinkTravelTimer [][] timers = new LinkTravelTimer[num_paths][];
+            List<List<Long>> pool = new ArrayList<>();
+            for(int p=0;p<num_paths;p++){
+                List<Link> links = od.generators.get(p).get_path().get_ordered_links();
+                timers[p] = new LinkTravelTimer[links.size()];
+                List<Long> link_ids = new ArrayList<>();
+                for(int j=0;j<links.size();j++) {
+                    timers[p][j] = links.get(j).link_tt;
+                    link_ids.add(links.get(j).getId());
+                }
+                pool.add(link_ids);
+            }
+            od.unpooled_path = null;
+
+            double [] tt = new double[num_paths];
+            for(int i=0;i<od.demand.length;i++){
+
+                // interval, the last one extends to the end of the simulation
+                float a = od.dt==null ? start_time : Math.max(start_time,od.start_time + i*od.dt);
+                float b = od.dt==null || i==od.demand.length-1 ? end_time : Math.min(end_time,od.start_time + (i+1)*od.dt);
+                if(b<=a)
+                    continue;
+
+                int num_departures = Math.max(1,(int) Math.floor((b-a)/dt));
+                Arrays.fill(tt,0d);
+                double shortest = 0d;
+                for(int j=0;j<num_departures;j++){
+                    float departure = a+(j+0.5f)*(b-a)/num_departures;
+                    double min_tt = Double.POSITIVE_INFINITY;
+                    for(int p=0;p<num_paths;p++){
+                        double x = LinkTravelTimeManager.get_predictive_travel_time(timers[p],departure);
+                        tt[p] += x/num_departures;
+                        min_tt = Math.min(min_tt,x);
+                    }
+
+                    // the shortest path may leave the pool. Link costs sampled every dt are not strictly
+                    // FIFO, so the pool is kept as a bound.
+                    List<Long> sp = graph.get_shortest_path(od.origin_id,od.destination_id,departure,DTA::get_link_travel_time);
+                    if(sp!=null){
+                        double x = graph.get_travel_time(sp,departure,DTA::get_link_travel_time);
+                        if(x<min_tt-1e-6){
+                            min_tt = x;
+                            if(!pool.contains(sp))
+                                od.unpooled_path = sp;
+                        }
+                    }
+                    shortest += min_tt/num_departures;
+                }
+
+                int fastest = 0;
+                for(int p=1;p<num_paths;p++)
+                    if(tt[p]<tt[fastest])
+                        fastest = p;
+
+                for(int p=0;p<num_paths;p++)
+                    total += od.demand[i]*od.share[p][i]*tt[p];
+                best += od.demand[i]*shortest;
+
+                if(step>0d && num_paths>1)
+                    for(int p=0;p<num_paths;p++)
+                        od.share[p][i] = (1d-step)*od.share[p][i] + (p==fastest ? step : 0d);
+            }
+        }
+        return best>0d ? total/best-1d : 0d;
+    }
+
+}
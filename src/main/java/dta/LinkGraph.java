@@ -0,0 +1,155 @@
+package dta;
+
+import core.Link;
+import core.Network;
+import core.NetworkGraph;
+
+import java.util.*;
+
+/**
+ * Shortest paths over the link to link arcs of the network graph. Arcs are the movements allowed by
+ * road connections, so turn restrictions are respected. Shortest paths are time dependent: the cost
+ * of a link depends on the time at which it is entered.
+ */
+public class LinkGraph {
+
+    public interface LinkCost {
+        // travel time [sec] of a link entered at the given time
+        double get(Link link,double time);
+    }
+
+    public final NetworkGraph graph;
+
+    // work arrays
+    private final double [] arrival;
+    private final int [] parent;
+    private final boolean [] done;
+    private double [] heap_key;
+    private int [] heap_vertex;
+    private int heap_size;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public LinkGraph(Network network){
+        graph = network.get_graph();
+        int n = graph.num_links();
+        arrival = new double[n];
+        parent = new int[n];
+        done = new boolean[n];
+        heap_key = new double[n+1];
+        heap_vertex = new int[heap_key.length];
+    }
+
+    ///////////////////////////////////////////////////
+    // shortest path
+    ///////////////////////////////////////////////////
+
+    /**
+     * Time dependent Dijkstra, assuming that link costs are FIFO (entering later never means leaving earlier).
+     * @param origin_id Id of the first link.
+     * @param destination_id Id of the last link.
+     * @param departure Time of entry to the first link [sec].
+     * @param cost Link cost function.
+     * @return Ordered link ids from origin to destination, or null if the destination cannot be reached.
+     */
+    public List<Long> get_shortest_path(long origin_id,long destination_id,float departure,LinkCost cost){
+        int o = graph.link_index(origin_id);
+        int d = graph.link_index(destination_id);
+        if(o<0 || d<0)
+            return null;
+
+        Arrays.fill(arrival,Double.POSITIVE_INFINITY);
+        Arrays.fill(parent,-1);
+        Arrays.fill(done,false);
+        heap_size = 0;
+
+        arrival[o] = departure;
+        push(o,departure);
+        while(heap_size>0){
+            int u = pop();
+            if(done[u])
+                continue;
+            done[u] = true;
+            if(u==d)
+                break;
+            double exit = arrival[u] + cost.get(graph.links[u],arrival[u]);
+            for(int a=graph.link_out_begin(u);a<graph.link_out_end(u);a++){
+                int w = graph.link_out_link(a);
+                if(!done[w] && exit<arrival[w]){
+                    arrival[w] = exit;
+                    parent[w] = u;
+                    push(w,exit);
+                }
+            }
+        }
+
+        if(!done[d])
+            return null;
+        LinkedList<Long> path = new LinkedList<>();
+        for(int v=d;v>=0;v=parent[v])
+            path.addFirst(graph.links[v].getId());
+        return path;
+    }
+
+    /**
+     * Travel time along a sequence of links, each entered when the previous one is left.
+     * @param link_ids Ordered link ids.
+     * @param departure Time of entry to the first link [sec].
+     * @param cost Link cost function.
+     * @return [sec]
+     */
+    public double get_travel_time(List<Long> link_ids,float departure,LinkCost cost){
+        double time = departure;
+        for(Long link_id : link_ids)
+            time += cost.get(graph.links[graph.link_index(link_id)],time);
+        return time-departure;
+    }
+
+    ///////////////////////////////////////////////////
+    // binary heap with lazy deletion
+    ///////////////////////////////////////////////////
+
+    private void push(int v,double key){
+        if(heap_size==heap_key.length){
+            heap_key = Arrays.copyOf(heap_key,2*heap_size);
+            heap_vertex = Arrays.copyOf(heap_vertex,2*heap_size);
+        }
+        int i = heap_size++;
+        while(i>0){
+            int p = (i-1)/2;
+            if(heap_key[p]<=key)
+                break;
+            heap_key[i] = heap_key[p];
+            heap_vertex[i] = heap_vertex[p];
+            i = p;
+        }
+        heap_key[i] = key;
+        heap_vertex[i] = v;
+    }
+
+    private int pop(){
+        int top = heap_vertex[0];
+        heap_size--;
+        double key = heap_key[heap_size];
+        int v = heap_vertex[heap_size];
+        int i = 0;
+        while(true){
+            int c = 2*i+1;
+            if(c>=heap_size)
+                break;
+            if(c+1<heap_size && heap_key[c+1]<heap_key[c])
+                c++;
+            if(key<=heap_key[c])
+                break;
+            heap_key[i] = heap_key[c];
+            heap_vertex[i] = heap_vertex[c];
+            i = c;
+        }
+        heap_key[i] = key;
+        heap_vertex[i] = v;
+        return top;
+    }
+
+}
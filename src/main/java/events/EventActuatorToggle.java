@@ -35,6 +35,10 @@ public class EventActuatorToggle extends AbstractScenarioEvent {
 
     }
 
+    public Set<AbstractActuator> get_actuators(){
+        return actuators;
+    }
+
     @Override
     public void validate_pre_init(OTMErrorLog errorLog) {
         super.validate_pre_init(errorLog);
@@ -35,6 +35,9 @@ public abstract class AbstractCell {
     public abstract double get_veh_out_for_commodity(Long comm_id);
     public abstract double get_veh_for_commodity(Long comm_id);
 
+    // add this cell's vehicles to a commodity -> {dwn,in,out} map
+    public abstract void add_veh_per_commodity(Map<Long,double[]> x);
+
     public AbstractCell(FluidLaneGroup laneGroup) {
         this.am_upstrm = false;
         this.am_dnstrm = false;
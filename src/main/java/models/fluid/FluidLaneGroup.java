@@ -31,6 +31,12 @@ public class FluidLaneGroup extends AbstractLaneGroup {
 
     public List<AbstractCell> cells;     // sequence of cells
 
+    // skip idle links: the link is empty and its cached demands and supplies are current
+    public boolean asleep = false;
+
+    // commodity -> {dwn,in,out} vehicles, shared by all state queries until the cell state changes
+    private Map<Long,double[]> veh_per_comm;
+
     ////////////////////////////////////////////
     // construction
     ///////////////////////////////////////////
@@ -92,6 +98,7 @@ public class FluidLaneGroup extends AbstractLaneGroup {
 
     @Override
     public void set_road_params(jaxb.Roadparam r) throws OTMException {
+        wake_link();
 
         float dt_sec = ((AbstractFluidModel)link.get_model()).dt_sec;
         if(Float.isNaN(dt_sec))
@@ -145,12 +152,14 @@ public class FluidLaneGroup extends AbstractLaneGroup {
     public void set_actuator_capacity_vps(double rate_vps) {
         double act_capacity_veh_per_dt = rate_vps * ((AbstractFluidModel)link.get_model()).dt_sec;
         this.capacity_veh_per_dt = Math.min(act_capacity_veh_per_dt,nom_capacity_veh_per_dt);
+        wake_link();
         update_long_supply();
     }
 
     @Override
     public void set_to_nominal_capacity() {
         this.capacity_veh_per_dt = nom_capacity_veh_per_dt;
+        wake_link();
     }
 
     @Override
@@ -159,6 +168,7 @@ public class FluidLaneGroup extends AbstractLaneGroup {
         float dt_sec = ((AbstractFluidModel)link.get_model()).dt_sec;
         float act_ffspeed_veh = ((float)speed_mps) * dt_sec / cell_length;
         this.ffspeed_cell_per_dt = Math.min(act_ffspeed_veh,nom_ffspeed_cell_per_dt);
+        wake_link();
 
         // set w
         double critical_vehperlane = capacity_veh_per_dt / ffspeed_cell_per_dt;
@@ -170,6 +180,7 @@ public class FluidLaneGroup extends AbstractLaneGroup {
     @Override
     public void allocate_state() {
         cells.forEach(c -> c.allocate_state());
+        invalidate_veh_per_comm();
     }
 
     @Override
@@ -185,6 +196,8 @@ public class FluidLaneGroup extends AbstractLaneGroup {
     @Override
     public void add_vehicle_packet(float timestamp, PacketLaneGroup vp, Long nextlink_id) throws OTMException {
 
+        wake_link();
+
         // When the link is a model source, then the core.packet first goes into a buffer.
         // From there it is "processed", meaning that some part goes into the upstream cell.
         if(link.is_model_source_link()) {
@@ -246,19 +259,43 @@ public class FluidLaneGroup extends AbstractLaneGroup {
 
     @Override
     public float vehs_dwn_for_comm(Long comm_id) {
-        return (float) cells.stream().mapToDouble(c->c.get_veh_dwn_for_commodity(comm_id)).sum();
+        if(comm_id==null)
+            return (float) cells.stream().mapToDouble(c->c.get_veh_dwn_for_commodity(null)).sum();
+        return (float) get_veh_per_comm(comm_id)[0];
     }
 
     @Override
     public float vehs_in_for_comm(Long comm_id) {
-        return (float) cells.stream().mapToDouble(c->c.get_veh_in_for_commodity(comm_id)).sum();
+        if(comm_id==null)
+            return (float) cells.stream().mapToDouble(c->c.get_veh_in_for_commodity(null)).sum();
+        return (float) get_veh_per_comm(comm_id)[1];
     }
 
     @Override
     public float vehs_out_for_comm(Long comm_id) {
-        return (float) cells.stream().mapToDouble(c->c.get_veh_out_for_commodity(comm_id)).sum();
+        if(comm_id==null)
+            return (float) cells.stream().mapToDouble(c->c.get_veh_out_for_commodity(null)).sum();
+        return (float) get_veh_per_comm(comm_id)[2];
     }
 
+    // cells must call this whenever their vehicles change
+    public void invalidate_veh_per_comm(){
+        veh_per_comm = null;
+    }
+
+    // all commodities are aggregated in one pass over the cells
+    private double [] get_veh_per_comm(long comm_id){
+        if(veh_per_comm==null){
+            veh_per_comm = new HashMap<>();
+            for(AbstractCell cell : cells)
+                cell.add_veh_per_commodity(veh_per_comm);
+        }
+        double [] x = veh_per_comm.get(comm_id);
+        return x==null ? no_vehicles : x;
+    }
+
+    private static final double [] no_vehicles = new double[3];
+
     ////////////////////////////////////////////
     // lane change model
     ////////////////////////////////////////////
@@ -405,6 +442,14 @@ public class FluidLaneGroup extends AbstractLaneGroup {
 
     }
 
+    // lane changes couple the lanegroups of a link, so they sleep and wake together
+    public void wake_link(){
+        asleep = false;
+        if(link.get_lgs()!=null)
+            for(AbstractLaneGroup lg : link.get_lgs())
+                ((FluidLaneGroup) lg).asleep = false;
+    }
+
     public void compute_lcw(){
         lc_w = .9d * (1d - wspeed_cell_per_dt) / wspeed_cell_per_dt;
     }
@@ -81,13 +81,18 @@ public class CTMCell extends AbstractCell {
 
     @Override
     public void update_supply(){
+        update_supply(1d);
+    }
+
+    // supply over dt_factor model time steps
+    public void update_supply(double dt_factor){
 
         if(laneGroup.get_link().is_source())
             return;
 
         // update supply ..............................................
         if (laneGroup.get_link().is_sink())
-            supply = laneGroup.capacity_veh_per_dt;
+            supply = dt_factor * laneGroup.capacity_veh_per_dt;
         else {
 
 
@@ -97,11 +102,11 @@ public class CTMCell extends AbstractCell {
 //                case ctm:
             double total_vehicles = get_vehicles();
             if(am_dnstrm)
-                supply = Math.min(laneGroup.wspeed_cell_per_dt * (laneGroup.jam_density_veh_per_cell - total_vehicles), laneGroup.capacity_veh_per_dt);
+                supply = dt_factor * Math.min(laneGroup.wspeed_cell_per_dt * (laneGroup.jam_density_veh_per_cell - total_vehicles), laneGroup.capacity_veh_per_dt);
             else {
                 if(am_upstrm && laneGroup.get_link().is_model_source_link())
                     total_vehicles += laneGroup.buffer.get_total_veh();
-                supply = laneGroup.wspeed_cell_per_dt * (laneGroup.jam_density_veh_per_cell - total_vehicles);
+                supply = dt_factor * laneGroup.wspeed_cell_per_dt * (laneGroup.jam_density_veh_per_cell - total_vehicles);
             }
 
         }
@@ -109,6 +114,11 @@ public class CTMCell extends AbstractCell {
 
     @Override
     public void update_demand(){
+        update_demand(1d);
+    }
+
+    // demand over dt_factor model time steps
+    public void update_demand(double dt_factor){
 
         double total_vehicles = total_vehs_dwn + total_vehs_out + total_vehs_in;
 
@@ -127,16 +137,16 @@ public class CTMCell extends AbstractCell {
         boolean block = ((ModelCTM) laneGroup.get_link().get_model()).block;
         if (laneGroup.get_link().is_source()) {
             // sources discharge at capacity
-            total_demand = Math.min(total_vehicles, laneGroup.capacity_veh_per_dt);
+            total_demand = Math.min(total_vehicles, dt_factor * laneGroup.capacity_veh_per_dt);
         }
         else {
             if(am_dnstrm)
                 if ( block && total_vehs_out + total_vehs_in > OTMUtils.epsilon)
                     total_demand = 0d;
                 else
-                    total_demand = Math.min(laneGroup.ffspeed_cell_per_dt * total_vehicles, laneGroup.capacity_veh_per_dt);
+                    total_demand = dt_factor * Math.min(laneGroup.ffspeed_cell_per_dt * total_vehicles, laneGroup.capacity_veh_per_dt);
             else
-                total_demand = laneGroup.ffspeed_cell_per_dt * total_vehicles;
+                total_demand = dt_factor * laneGroup.ffspeed_cell_per_dt * total_vehicles;
         }
 
         // no blocking strategy: lane change demand is converted to dwn demand to an alternative link
@@ -149,6 +159,7 @@ public class CTMCell extends AbstractCell {
             Long alt_next_link = laneGroup.get_link().alt_next_link;
 
             if(alt_next_link!=null) {
+                laneGroup.invalidate_veh_per_comm();
                 double vcl, vclout, vclin;
                 for (State state : laneGroup.get_link().states) {
                     // this cannot be done for pathfull commodities
@@ -206,6 +217,8 @@ public class CTMCell extends AbstractCell {
         if(vehs<=0)
             return;
 
+        laneGroup.invalidate_veh_per_comm();
+
         for(Map.Entry<Maneuver,Double> e : maneuver2prob.entrySet()){
             Maneuver side = e.getKey();
 
@@ -242,6 +255,8 @@ public class CTMCell extends AbstractCell {
     @Override
     public void add_vehicles(Map<State, Double> dwn, Map<State, Double> in, Map<State, Double> out) {
 
+        laneGroup.invalidate_veh_per_comm();
+
         if (dwn != null) {
             for (Map.Entry<State, Double> e : dwn.entrySet()) {
                 State state = e.getKey();
@@ -279,6 +294,8 @@ public class CTMCell extends AbstractCell {
     @Override
     public void subtract_vehicles(Map<State, Double> dwn, Map<State, Double> in, Map<State, Double> out) {
 
+        laneGroup.invalidate_veh_per_comm();
+
         if (dwn != null) {
             for (Map.Entry<State, Double> e : dwn.entrySet()) {
                 State state = e.getKey();
@@ -358,9 +375,23 @@ public class CTMCell extends AbstractCell {
         return get_veh_dwn_for_commodity(comm_id) + get_veh_in_for_commodity(comm_id) + get_veh_out_for_commodity(comm_id);
     }
 
+    @Override
+    public void add_veh_per_commodity(Map<Long,double[]> x) {
+        add_veh_per_commodity(x,veh_dwn,0);
+        add_veh_per_commodity(x,veh_in,1);
+        add_veh_per_commodity(x,veh_out,2);
+    }
+
     @Override
     public double get_vehicles() {
         return total_vehs_dwn + total_vehs_in + total_vehs_out;
     }
 
+    private static void add_veh_per_commodity(Map<Long,double[]> x,Map<State,Double> vehs,int index){
+        if(vehs==null)
+            return;
+        for(Map.Entry<State,Double> e : vehs.entrySet())
+            x.computeIfAbsent(e.getKey().commodity_id,c->new double[3])[index] += e.getValue();
+    }
+
 }
@@ -21,6 +21,12 @@ public class ModelCTM extends AbstractFluidModel {
     public boolean block = false;   // determines behavior of lane changing vehicles
                                     // that reach the end of the lanegroup before completing
                                     // their lane change maneuvers.
+
+    // multi-rate: links whose interior cells are updated once every 'rate' time steps
+    protected int max_rate = 1;
+    protected Map<Long,Integer> link_rate = new HashMap<>();
+    private float start_time;
+
     public ModelCTM(String name, Set<Link> links, StochasticProcess process, jaxb.ModelParams param) throws OTMException     {
         super(name,links,param.getSimDt()==null ? -1 : param.getSimDt(),process,param);
     }
@@ -40,6 +46,19 @@ public class ModelCTM extends AbstractFluidModel {
 
     }
 
+    @Override
+    public void initialize(Scenario scenario, float start_time) throws OTMException {
+        super.initialize(scenario,start_time);
+        this.start_time = start_time;
+        link_rate.clear();
+        if(max_rate>1)
+            for(Link link : links){
+                int rate = get_rate(link);
+                if(rate>1)
+                    link_rate.put(link.getId(),rate);
+            }
+    }
+
     @Override
     public AbstractOutput create_output(Scenario scenario, String prefix, String output_folder, OutputRequest jaxb_or)  throws OTMException {
         AbstractOutput output = null;
@@ -74,6 +93,12 @@ public class ModelCTM extends AbstractFluidModel {
         // TODO: should update_flux I and II be passed the link as in update_state?
         // TODO What is the point of that?
 
+        Integer rate = link_rate.get(link.getId());
+        if(rate!=null){
+            compute_multirate_demand_supply(link,rate,timestamp);
+            return;
+        }
+
         // TODO cache this?
         update_supply_for_all_cells(link,timestamp);
 
@@ -86,6 +111,12 @@ public class ModelCTM extends AbstractFluidModel {
     @Override
     public void update_link_state(Link link,float timestamp) throws OTMException {
 
+        Integer rate = link_rate.get(link.getId());
+        if(rate!=null){
+            update_multirate_link_state(link,rate,timestamp);
+            return;
+        }
+
         for(AbstractLaneGroup alg : link.get_lgs()) {
 
             FluidLaneGroup lg = (FluidLaneGroup) alg;
@@ -93,53 +124,7 @@ public class ModelCTM extends AbstractFluidModel {
             if(lg.get_link().states.isEmpty())
                 continue;
 
-            double total_travel_time = 0d;
-
-            for(int i=0;i<lg.cells.size()-1;i++) {
-
-                CTMCell upcell = (CTMCell) lg.cells.get(i);
-                CTMCell dncell = (CTMCell) lg.cells.get(i + 1);
-
-                Map<State, Double> dem_dwn = upcell.demand_dwn;
-                Map<State, Double> dem_out = upcell.demand_out;
-                Map<State, Double> dem_in = upcell.demand_in;
-
-                // total demand
-                double total_demand = OTMUtils.sum(dem_dwn);
-                total_demand += dem_out == null ? 0d : OTMUtils.sum(dem_out);
-                total_demand += dem_in == null ? 0d : OTMUtils.sum(dem_in);
-
-                if (total_demand > OTMUtils.epsilon) {
-                    double total_flow = Math.min(total_demand, dncell.supply);
-                    double gamma = total_flow / total_demand;
-
-                    Map<State, Double> flow_dwn = OTMUtils.times(dem_dwn, gamma);
-                    Map<State, Double> flow_in = OTMUtils.times(dem_in, gamma);
-                    Map<State, Double> flow_out = OTMUtils.times(dem_out, gamma);
-
-                    // travel time computation
-                    if(lg.travel_timer!=null){
-                        double veh = upcell.get_vehicles();
-                        double tt;
-                        if(veh>0) {
-
-                            double out_flow = flow_dwn==null ? 0d : flow_dwn.values().stream().mapToDouble(x->x).sum();
-
-                            if(out_flow==0)
-                                tt = link.is_source() ? dt_sec : dt_sec / lg.ffspeed_cell_per_dt;
-                            else
-                                tt = dt_sec * veh / out_flow;
-
-                        } else
-                            tt = link.is_source() ? dt_sec : dt_sec / lg.ffspeed_cell_per_dt;
-                        total_travel_time += tt;
-                    }
-
-                    dncell.add_vehicles(flow_dwn,flow_in,flow_out);
-                    upcell.subtract_vehicles(flow_dwn,flow_in,flow_out);
-                }
-
-            }
+            double total_travel_time = move_cell_flows(link,lg);
 
             // travel time computation
             if(lg.travel_timer!=null)
@@ -166,10 +151,150 @@ public class ModelCTM extends AbstractFluidModel {
         return new CTMCell(lg);
     }
 
+    //////////////////////////////////////////////////////////////
+    // multi-rate
+    //////////////////////////////////////////////////////////////
+
+    /**
+     * Update the interior cells of slow links less often than dt. Each link gets the largest power of
+     * two rate, up to max_rate, at which its cells satisfy the CFL condition, and its interior cells
+     * then move vehicles once every 'rate' time steps, over rate*dt. The upstream cell supply and
+     * downstream cell demand are still updated every time step, so flows through nodes are
+     * synchronized at dt with all other links. Only links with a single lanegroup, that are not
+     * sources or sinks, and have no travel timer or flow actuator are slowed down. Rates are chosen
+     * at initialization. If road parameters change later, a slow link catches up in substeps that
+     * satisfy the CFL condition.
+     * @param max_rate Largest rate. 1 updates every link at dt.
+     */
+    public void set_max_rate(int max_rate){
+        this.max_rate = Math.max(1,max_rate);
+    }
+
+    /**
+     * @return link id -> rate, for links that are updated less often than dt.
+     */
+    public Map<Long,Integer> get_link_rates(){
+        return Collections.unmodifiableMap(link_rate);
+    }
+
+    private int get_rate(Link link){
+        if(link.is_source() || link.is_sink() || link.is_model_source_link() || link.get_lgs().size()!=1)
+            return 1;
+        if(link.unique_acts_flowToLinks!=null && !link.unique_acts_flowToLinks.isEmpty())
+            return 1;
+        FluidLaneGroup lg = (FluidLaneGroup) link.get_lgs().get(0);
+        if(lg.travel_timer!=null || lg.cells.size()<2)
+            return 1;
+        return get_stable_factor(lg,max_rate);
+    }
+
+    // largest power of two, up to max, for which the cells of the lanegroup satisfy the CFL condition
+    private static int get_stable_factor(FluidLaneGroup lg,int max){
+        double c = Math.max(lg.ffspeed_cell_per_dt,lg.wspeed_cell_per_dt);
+        int m = 1;
+        while(2*m<=max && 2*m*c<=1d)
+            m *= 2;
+        return m;
+    }
+
+    private boolean is_sync_step(int rate,float timestamp){
+        return Math.round((timestamp-start_time)/dt_sec) % rate == 0;
+    }
+
+    // boundary cells every time step, interior cells on synchronization steps
+    private void compute_multirate_demand_supply(Link link,int rate,float timestamp){
+        if(link.states.isEmpty())
+            return;
+        FluidLaneGroup lg = (FluidLaneGroup) link.get_lgs().get(0);
+        List<AbstractCell> cells = lg.cells;
+        int n = cells.size();
+        cells.get(0).update_supply();
+        cells.get(n-1).update_demand();
+        if(is_sync_step(rate,timestamp))
+            update_interior_demand_supply(lg,((double) rate) / (rate / get_stable_factor(lg,rate)));
+    }
+
+    private void update_multirate_link_state(Link link,int rate,float timestamp){
+        FluidLaneGroup lg = (FluidLaneGroup) link.get_lgs().get(0);
+        if(!link.states.isEmpty() && is_sync_step(rate,timestamp)){
+            int substeps = rate / get_stable_factor(lg,rate);
+            double dt_factor = ((double) rate) / substeps;
+            for(int k=0;k<substeps;k++){
+                if(k>0)
+                    update_interior_demand_supply(lg,dt_factor);
+                move_cell_flows(link,lg);
+            }
+        }
+        lg.update_long_supply();
+    }
+
+    // supplies of cells that receive from an upstream cell, demands of cells that send to a downstream cell
+    private static void update_interior_demand_supply(FluidLaneGroup lg,double dt_factor){
+        int n = lg.cells.size();
+        for(int i=1;i<n;i++)
+            ((CTMCell) lg.cells.get(i)).update_supply(dt_factor);
+        for(int i=0;i<n-1;i++)
+            ((CTMCell) lg.cells.get(i)).update_demand(dt_factor);
+    }
+
     ///////////////////////////////////////////
     // private
     ///////////////////////////////////////////
 
+    // flows between consecutive cells of a lanegroup. Returns the sum of cell travel times.
+    private double move_cell_flows(Link link,FluidLaneGroup lg){
+
+        double total_travel_time = 0d;
+
+        for(int i=0;i<lg.cells.size()-1;i++) {
+
+            CTMCell upcell = (CTMCell) lg.cells.get(i);
+            CTMCell dncell = (CTMCell) lg.cells.get(i + 1);
+
+            Map<State, Double> dem_dwn = upcell.demand_dwn;
+            Map<State, Double> dem_out = upcell.demand_out;
+            Map<State, Double> dem_in = upcell.demand_in;
+
+            // total demand
+            double total_demand = OTMUtils.sum(dem_dwn);
+            total_demand += dem_out == null ? 0d : OTMUtils.sum(dem_out);
+            total_demand += dem_in == null ? 0d : OTMUtils.sum(dem_in);
+
+            if (total_demand > OTMUtils.epsilon) {
+                double total_flow = Math.min(total_demand, dncell.supply);
+                double gamma = total_flow / total_demand;
+
+                Map<State, Double> flow_dwn = OTMUtils.times(dem_dwn, gamma);
+                Map<State, Double> flow_in = OTMUtils.times(dem_in, gamma);
+                Map<State, Double> flow_out = OTMUtils.times(dem_out, gamma);
+
+                // travel time computation
+                if(lg.travel_timer!=null){
+                    double veh = upcell.get_vehicles();
+                    double tt;
+                    if(veh>0) {
+
+                        double out_flow = flow_dwn==null ? 0d : flow_dwn.values().stream().mapToDouble(x->x).sum();
+
+                        if(out_flow==0)
+                            tt = link.is_source() ? dt_sec : dt_sec / lg.ffspeed_cell_per_dt;
+                        else
+                            tt = dt_sec * veh / out_flow;
+
+                    } else
+                        tt = link.is_source() ? dt_sec : dt_sec / lg.ffspeed_cell_per_dt;
+                    total_travel_time += tt;
+                }
+
+                dncell.add_vehicles(flow_dwn,flow_in,flow_out);
+                upcell.subtract_vehicles(flow_dwn,flow_in,flow_out);
+            }
+
+        }
+
+        return total_travel_time;
+    }
+
     private void perform_lane_changes(Link link,float timestamp) {
 
         if(link.get_lgs().size()<2)
@@ -181,6 +306,9 @@ public class ModelCTM extends AbstractFluidModel {
 
         int cells_in_full_lg = ((FluidLaneGroup)link.get_lgs().iterator().next()).cells.size();
 
+        for(AbstractLaneGroup lg : link.get_lgs())
+            ((FluidLaneGroup) lg).invalidate_veh_per_comm();
+
         // scan cross section from upstream to downstream
         for (int i = 0; i < cells_in_full_lg; i++) {
 
@@ -21,6 +21,13 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
         vehicle_scheduled = false;
     }
 
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        // a vehicle scheduled in a previous run is never created
+        vehicle_scheduled = false;
+        super.initialize(scenario);
+    }
+
     @Override
     public void set_demand_vps(Dispatcher dispatcher,float time,double value) throws OTMException {
         super.set_demand_vps(dispatcher,time,value);
@@ -66,6 +73,10 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
         // package and add to joinlanegroup
         join_lanegroup.add_vehicle_packet(timestamp,new PacketLaneGroup(vehicle),next_link);
 
+        KPIAccumulator kpis = link.get_scenario().kpis;
+        if(kpis!=null)
+            kpis.enter(link,vehicle.get_commodity_id(),1d,timestamp);
+
         // this scheduled vehicle has been created
         vehicle_scheduled = false;
     }
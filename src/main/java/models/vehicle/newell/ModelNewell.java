@@ -63,13 +63,20 @@ public class ModelNewell extends AbstractVehicleModel implements Pokable {
     public AbstractVehicle translate_vehicle(AbstractVehicle that){
         if(that instanceof NewellVehicle)
             return that;
-        else
+        NewellVehicle vehicle = (NewellVehicle) reuse_vehicle();
+        if(vehicle==null)
             return new NewellVehicle(that);
+        vehicle.reset(that);
+        return vehicle;
     }
 
     @Override
     public AbstractVehicle create_vehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners) {
-        return new NewellVehicle(comm_id,event_listeners);
+        NewellVehicle vehicle = (NewellVehicle) reuse_vehicle();
+        if(vehicle==null)
+            return new NewellVehicle(comm_id,event_listeners);
+        vehicle.reset(comm_id,event_listeners);
+        return vehicle;
     }
 
     //////////////////////////////////////////////////
@@ -166,6 +166,8 @@ public class NewellLaneGroup extends VehicleLaneGroup {
 
     @Override
     public float vehs_dwn_for_comm(Long comm_id) {
+        if(vehicles==null)
+            return 0f;
         return comm_id==null ?
                 vehicles.size() :
                 vehicles.stream().filter(v->v.get_commodity_id()==comm_id).count();
@@ -229,6 +231,10 @@ public class NewellLaneGroup extends VehicleLaneGroup {
             if(next_link!=null && rc!=null)
                 next_link.get_model().add_vehicle_packet(next_link,timestamp,new PacketLink(vehicle,rc));
 
+            // the vehicle has left the network
+            if(next_link==null)
+                ((AbstractVehicleModel) link.get_model()).recycle_vehicle(vehicle);
+
             update_long_supply();
 
             return true;
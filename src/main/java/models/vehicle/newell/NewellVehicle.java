@@ -36,6 +36,26 @@ public class NewellVehicle extends AbstractVehicle {
         this.follower = null;
     }
 
+    @Override
+    public void reset(Long comm_id, Set<InterfaceVehicleListener> event_listeners){
+        super.reset(comm_id,event_listeners);
+        clear_position();
+    }
+
+    @Override
+    public void reset(AbstractVehicle that){
+        super.reset(that);
+        clear_position();
+    }
+
+    private void clear_position(){
+        this.pos = 0d;
+        this.new_pos = 0d;
+        this.headway = Double.NaN;
+        this.leader = null;
+        this.follower = null;
+    }
+
 //    public static double initialize_headway(Vehicle leader,Vehicle follower){
 //
 //        if(leader==null)
@@ -303,6 +303,10 @@ public class MesoLaneGroup extends VehicleLaneGroup {
                     ev.move_from_to_queue(timestamp, vehicle, waiting_queue, null);
             }
 
+            // the vehicle has left the network
+            if(next_link==null)
+                ((AbstractVehicleModel) link.get_model()).recycle_vehicle(vehicle);
+
             update_long_supply();
 
         }
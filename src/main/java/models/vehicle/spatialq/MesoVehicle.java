@@ -25,6 +25,20 @@ public class MesoVehicle extends AbstractVehicle {
         this.waiting_for_lane_change = false;
     }
 
+    @Override
+    public void reset(Long comm_id, Set<InterfaceVehicleListener> event_listeners){
+        super.reset(comm_id,event_listeners);
+        this.my_queue = null;
+        this.waiting_for_lane_change = false;
+    }
+
+    @Override
+    public void reset(AbstractVehicle that){
+        super.reset(that);
+        this.my_queue = null;
+        this.waiting_for_lane_change = false;
+    }
+
     ///////////////////////////////////////////////////
     // update
     ///////////////////////////////////////////////////
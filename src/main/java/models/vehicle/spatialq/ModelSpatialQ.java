@@ -79,13 +79,20 @@ public class ModelSpatialQ extends AbstractVehicleModel {
     public AbstractVehicle translate_vehicle(AbstractVehicle that){
         if(that instanceof MesoVehicle)
             return that;
-        else
+        MesoVehicle vehicle = (MesoVehicle) reuse_vehicle();
+        if(vehicle==null)
             return new MesoVehicle(that);
+        vehicle.reset(that);
+        return vehicle;
     }
 
     @Override
     public AbstractVehicle create_vehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners) {
-        return new MesoVehicle(comm_id,event_listeners);
+        MesoVehicle vehicle = (MesoVehicle) reuse_vehicle();
+        if(vehicle==null)
+            return new MesoVehicle(comm_id,event_listeners);
+        vehicle.reset(comm_id,event_listeners);
+        return vehicle;
     }
 
     //////////////////////////////////////////////////////////////
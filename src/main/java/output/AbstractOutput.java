@@ -16,6 +16,7 @@ import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.io.*;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 public abstract class AbstractOutput implements InterfaceOutput {
 
@@ -42,6 +43,13 @@ public abstract class AbstractOutput implements InterfaceOutput {
         sensor
     }
 
+    public enum Compression {
+        none,
+        gzip
+    }
+
+    public static final int default_block_size = 1<<16;   // bytes buffered before each write or compressed block, see Scenario.output_file_block_size
+
     public Scenario scenario;
     public Type type;
 
@@ -51,6 +59,12 @@ public abstract class AbstractOutput implements InterfaceOutput {
     public final String prefix;
     public final boolean write_to_file;
 
+    public Compression compression;     // null for the scenario default
+
+    // background writer, null for synchronous writes
+    public OutputPipeline pipeline;
+    private int lane;
+
     //////////////////////////////////////////////////////
     // construction
     //////////////////////////////////////////////////////
@@ -77,10 +91,9 @@ public abstract class AbstractOutput implements InterfaceOutput {
             return;
         try {
             String filename = get_output_file();
-            if( filename!=null && !filename.isEmpty() ) {
-                writer = new OutputStreamWriter(new FileOutputStream(filename));
-            }
-        } catch (FileNotFoundException exc) {
+            if( filename!=null && !filename.isEmpty() )
+                writer = open_writer(filename);
+        } catch (IOException exc) {
             throw new OTMException(exc);
         }
     }
@@ -112,6 +125,9 @@ public abstract class AbstractOutput implements InterfaceOutput {
         if(write_to_file) {
             this.close();
             this.open();
+            pipeline = scenario.output_pipeline;
+            if(pipeline!=null)
+                lane = pipeline.assign_lane();
         }
     }
 
@@ -127,6 +143,33 @@ public abstract class AbstractOutput implements InterfaceOutput {
         return type;
     }
 
+    public final Compression get_compression(){
+        if(compression!=null)
+            return compression;
+        return scenario.compress_outputs ? Compression.gzip : Compression.none;
+    }
+
+    // all files of an output are opened here. Compressed files get a .gz extension.
+    protected final Writer open_writer(String filename) throws IOException {
+        OutputStream out = new FileOutputStream(get_compression()==Compression.gzip ? filename + ".gz" : filename);
+        out = get_compression()==Compression.gzip ?
+                new GZIPOutputStream(out,scenario.output_file_block_size) :
+                new BufferedOutputStream(out,scenario.output_file_block_size);
+        return new OutputStreamWriter(out);
+    }
+
+    // write on the pipeline thread if there is one, otherwise here
+    protected final void submit(OutputPipeline.Task task) throws OTMException {
+        if(pipeline==null){
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else
+            pipeline.submit(lane,task);
+    }
+
     //////////////////////////////////////////////////////
     // static
     //////////////////////////////////////////////////////
@@ -4,7 +4,6 @@ import output.events.AbstractEventWrapper;
 import error.OTMException;
 import core.Scenario;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -45,11 +44,8 @@ public abstract class AbstractOutputEvent extends AbstractOutput implements Inte
 
     public final void write(AbstractEventWrapper event) throws OTMException {
         if(write_to_file){
-            try {
-                writer.write(event.timestamp+"\t"+event.asString()+"\n");
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
+            String line = event.timestamp+"\t"+event.asString()+"\n";
+            submit(() -> writer.write(line));
         } else {
             events.add(event);
         }
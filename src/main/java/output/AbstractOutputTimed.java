@@ -9,6 +9,8 @@ import cmd.RunParameters;
 import core.Scenario;
 
 import java.io.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public abstract class AbstractOutputTimed extends AbstractOutput implements InterfacePlottable {
 
@@ -18,6 +20,9 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
     public Writer time_writer;
     public static String delim = ",";
 
+    // snapshots handed to the pipeline are recycled
+    private final Queue<double[]> free_buffers = new ConcurrentLinkedQueue<>();
+
     //////////////////////////////////////////////////////
     // construction
     //////////////////////////////////////////////////////
@@ -51,9 +56,9 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
                 String filename = get_output_file();
                 if(filename!=null) {
                     String subfilename = filename.substring(0,filename.length()-4);
-                    time_writer = new OutputStreamWriter(new FileOutputStream(subfilename+"_time.txt"));
+                    time_writer = open_writer(subfilename+"_time.txt");
                 }
-            } catch (FileNotFoundException exc) {
+            } catch (IOException exc) {
                 throw new OTMException(exc);
             }
 
@@ -93,13 +98,8 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
     }
 
     public void write(float timestamp) throws OTMException {
-        if(write_to_file) {
-            try {
-                time_writer.write(timestamp + "\n");
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
-        }
+        if(write_to_file)
+            submit(() -> time_writer.write(timestamp + "\n"));
     }
 
     //////////////////////////////////////////////////////
@@ -114,4 +114,13 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
         return this.outDt;
     }
 
+    protected final double [] take_buffer(int size){
+        double [] x = free_buffers.poll();
+        return x!=null && x.length==size ? x : new double[size];
+    }
+
+    protected final void release_buffer(double [] x){
+        free_buffers.offer(x);
+    }
+
 }
@@ -22,6 +22,7 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
     public List<Long> link_ids;
     public ArrayList<FluidLaneGroup> ordered_lgs;
     public Map<Long, List<CellProfile>> lgprofiles;  // lgid -> list<profiles>
+    public OutputStore store;
     abstract protected double[] get_value_for_lanegroup(FluidLaneGroup lg);
 
     //////////////////////////////////////////////////////
@@ -52,20 +53,19 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
     public final void write(float timestamp) throws OTMException {
         super.write(timestamp);
         if(write_to_file){
-            try {
-                boolean isfirst=true;
-                for(FluidLaneGroup lg : ordered_lgs){
-                    if(!isfirst)
+            double [][] values = new double[ordered_lgs.size()][];
+            for(int i=0;i<values.length;i++)
+                values[i] = get_value_for_lanegroup(ordered_lgs.get(i));
+            submit(() -> {
+                for(int i=0;i<values.length;i++){
+                    if(i>0)
                         writer.write(AbstractOutputTimed.delim);
-                    isfirst = false;
-                    String str = OTMUtils.format_delim(get_value_for_lanegroup(lg),",");
-                    writer.write(str);  // TODO THIS WILL FAIL
+                    writer.write(OTMUtils.format_delim(values[i],","));  // TODO THIS WILL FAIL
                 }
                 writer.write("\n");
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
+            });
         } else {
+            store.new_row();
             for(FluidLaneGroup lg : ordered_lgs){
                 List<CellProfile> cellprofs = lgprofiles.get(lg.getId());
                 double [] values = get_value_for_lanegroup(lg);
@@ -116,7 +116,7 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
                 String filename = get_output_file();
                 if(filename!=null) {
                     String subfilename = filename.substring(0,filename.length()-4);
-                    Writer cells_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_cols.txt"));
+                    Writer cells_writer = open_writer(subfilename + "_cols.txt");
                     for(FluidLaneGroup lg: ordered_lgs)
                         for(int i=0;i<lg.cells.size();i++)
                             cells_writer.write(i+","+lg.getId()+","+lg.get_link().getId() + "," + lg.get_start_lane_dn()+ "," + (lg.get_start_lane_dn()+lg.get_num_lanes()-1) +"\n"); // start/end dn lanes
@@ -128,8 +128,12 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
                 throw new OTMException(e);
             }
         } else {
-            for(List<CellProfile> cellprofs : lgprofiles.values())
-                cellprofs.forEach(p->p.initialize(outDt));
+            int col = 0;
+            for(FluidLaneGroup lg : ordered_lgs)
+                for(CellProfile cellprof : lgprofiles.get(lg.getId()))
+                    cellprof.initialize(col++);
+            store = new OutputStore(0f,outDt,col,scenario.off_heap_outputs,
+                    scenario.output_block_size,scenario.output_max_rows_per_block);
         }
 
     }
@@ -143,7 +147,7 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
         try {
             List<CellProfile> cellprofs = lgprofiles.get(lg.getId());
             for(int i=0;i<cellprofs.size();i++)
-                X.add_entry(i,cellprofs.get(i).profile.values);
+                X.add_entry(i,cellprofs.get(i).get_profile().values);
         } catch (OTMException e) {
             e.printStackTrace();
         }
@@ -156,7 +160,7 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
         for(int i=0;i<cellprofs.size();i++){
             CellProfile cellprof = cellprofs.get(i);
             String label = String.format("%d (%d-%d) cell %d",lg.get_link().getId(),lg.get_start_lane_dn(),lg.get_start_lane_dn()+lg.get_num_lanes()-1,i);
-            X.add(cellprof.profile.get_series(label));
+            X.add(cellprof.get_profile().get_series(label));
         }
         return X;
     }
@@ -192,12 +196,15 @@ public abstract class AbstractOutputTimedCell extends AbstractOutputTimed {
     //////////////////////////////////////////////////////
 
     public class CellProfile {
-        public Profile1D profile;
-        public void initialize(float outDt){
-            this.profile = new Profile1D(null, outDt);
+        public int col;     // column in store
+        public void initialize(int col){
+            this.col = col;
         }
         public void add_value(double value){
-            profile.add_entry(value);
+            store.set(col,value);
+        }
+        public Profile1D get_profile(){
+            return store.get_profile(col);
         }
     }
 
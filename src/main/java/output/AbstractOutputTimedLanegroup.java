@@ -18,6 +18,7 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
     public Collection<Long> link_ids;
     public ArrayList<AbstractLaneGroup> ordered_lgs;
     public Map<Long, LaneGroupProfile> lgprofiles;
+    public OutputStore store;
     abstract protected double get_value_for_lanegroup(AbstractLaneGroup lg);
 
     //////////////////////////////////////////////////////
@@ -53,19 +54,20 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
     public final void write(float timestamp) throws OTMException {
         super.write(timestamp);
         if(write_to_file){
-            try {
-                boolean isfirst=true;
-                for(AbstractLaneGroup lg : ordered_lgs){
-                    if(!isfirst)
+            double [] values = take_buffer(ordered_lgs.size());
+            for(int i=0;i<values.length;i++)
+                values[i] = get_value_for_lanegroup(ordered_lgs.get(i));
+            submit(() -> {
+                for(int i=0;i<values.length;i++){
+                    if(i>0)
                         writer.write(AbstractOutputTimed.delim);
-                    isfirst = false;
-                    writer.write(String.format("%f",get_value_for_lanegroup(lg)));
+                    writer.write(String.format("%f",values[i]));
                 }
                 writer.write("\n");
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
+                release_buffer(values);
+            });
         } else {
+            store.new_row();
             for(AbstractLaneGroup lg : ordered_lgs){
                 LaneGroupProfile lgProfile = lgprofiles.get(lg.getId());
                 lgProfile.add_value(get_value_for_lanegroup(lg));
@@ -96,7 +98,7 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
                 String filename = get_output_file();
                 if(filename!=null) {
                     String subfilename = filename.substring(0,filename.length()-4);
-                    Writer lanegroups_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_cols.txt"));
+                    Writer lanegroups_writer = open_writer(subfilename + "_cols.txt");
                     for(LaneGroupProfile lgprof: lgprofiles.values()){
                         AbstractLaneGroup lg = lgprof.lg;
                         lanegroups_writer.write(lg.getId()+","+lg.get_link().getId() + "," + lg.get_start_lane_dn()+ "," + (lg.get_start_lane_dn()+lg.get_num_lanes()-1) +"\n"); // start/end dn lanes
@@ -109,8 +111,10 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
                 throw new OTMException(e);
             }
         } else {
-            for(LaneGroupProfile lgProfile : lgprofiles.values())
-                lgProfile.initialize(outDt);
+            store = new OutputStore(0f,outDt,ordered_lgs.size(),scenario.off_heap_outputs,
+                    scenario.output_block_size,scenario.output_max_rows_per_block);
+            for(int i=0;i<ordered_lgs.size();i++)
+                lgprofiles.get(ordered_lgs.get(i).getId()).initialize(i);
         }
 
     }
@@ -131,7 +135,7 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
     public XYSeries get_series_for_lg(AbstractLaneGroup lg) {
         if(!lgprofiles.containsKey(lg.getId()))
             return null;
-        return lgprofiles.get(lg.getId()).profile.get_series(String.format("%d (%d-%d)",lg.get_link().getId(),lg.get_start_lane_dn(),lg.get_start_lane_dn()+lg.get_num_lanes()-1));
+        return lgprofiles.get(lg.getId()).get_profile().get_series(String.format("%d (%d-%d)",lg.get_link().getId(),lg.get_start_lane_dn(),lg.get_start_lane_dn()+lg.get_num_lanes()-1));
     }
 
     //////////////////////////////////////////////////////
@@ -148,7 +152,7 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
         Map<Long,Profile1D> profiles = new HashMap<>();
         for(AbstractLaneGroup lg : scenario.network.links.get(link_id).get_lgs())
             if(lgprofiles.containsKey(lg.getId()))
-                profiles.put(lg.getId(),lgprofiles.get(lg.getId()).profile);
+                profiles.put(lg.getId(),lgprofiles.get(lg.getId()).get_profile());
 
         return profiles;
     }
@@ -176,15 +180,18 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
 
     public class LaneGroupProfile {
         public AbstractLaneGroup lg;
-        public Profile1D profile;
+        public int col;     // column in store
         public LaneGroupProfile(AbstractLaneGroup lg){
             this.lg = lg;
         }
-        public void initialize(float outDt){
-            this.profile = new Profile1D(null, outDt);
+        public void initialize(int col){
+            this.col = col;
         }
         public void add_value(double value){
-            profile.add_entry(value);
+            store.set(col,value);
+        }
+        public Profile1D get_profile(){
+            return store.get_profile(col);
         }
     }
 }
@@ -18,6 +18,7 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
 
     public long [] ordered_ids;
     public Map<Long,LinkProfile> linkprofiles;
+    public OutputStore store;
     abstract public double get_value_for_link(Long link_id);
 
     //////////////////////////////////////////////////////
@@ -85,19 +86,20 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
     public final void write(float timestamp) throws OTMException {
         super.write(timestamp);
         if(write_to_file){
-            try {
-                boolean isfirst=true;
-                for(Long link_id : ordered_ids){
-                    if(!isfirst)
+            double [] values = take_buffer(ordered_ids.length);
+            for(int i=0;i<ordered_ids.length;i++)
+                values[i] = get_value_for_link(ordered_ids[i]);
+            submit(() -> {
+                for(int i=0;i<values.length;i++){
+                    if(i>0)
                         writer.write(AbstractOutputTimed.delim);
-                    isfirst = false;
-                    writer.write(String.format("%f",get_value_for_link(link_id)));
+                    writer.write(String.format("%f",values[i]));
                 }
                 writer.write("\n");
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
+                release_buffer(values);
+            });
         } else {
+            store.new_row();
             for(Long link_id : ordered_ids) {
                 LinkProfile linkProfile = linkprofiles.get(link_id);
                 linkProfile.add_value(get_value_for_link(link_id));
@@ -135,7 +137,7 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
                 String filename = get_output_file();
                 if (filename != null) {
                     String subfilename = filename.substring(0, filename.length() - 4);
-                    Writer links_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_cols.txt"));
+                    Writer links_writer = open_writer(subfilename + "_cols.txt");
                     for(int i=0;i<ordered_ids.length;i++)
                         links_writer.write(String.format("%d%s",ordered_ids[i],i<ordered_ids.length-1?",":""));
                     links_writer.close();
@@ -146,8 +148,10 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
                 throw new OTMException(e);
             }
         } else {
-            for(LinkProfile linkProfile : linkprofiles.values())
-                linkProfile.initialize(outDt);
+            store = new OutputStore(0f,outDt,ordered_ids.length,scenario.off_heap_outputs,
+                    scenario.output_block_size,scenario.output_max_rows_per_block);
+            for(int i=0;i<ordered_ids.length;i++)
+                linkprofiles.get(ordered_ids[i]).initialize(i);
         }
     }
 
@@ -158,7 +162,7 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
     public XYSeries get_series_for_linkid(Long link_id) {
         if(!linkprofiles.containsKey(link_id))
             return null;
-        return linkprofiles.get(link_id).profile.get_series(String.format("%d",link_id));
+        return linkprofiles.get(link_id).get_profile().get_series(String.format("%d",link_id));
     }
 
     //////////////////////////////////////////////////////
@@ -166,17 +170,31 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
     //////////////////////////////////////////////////////
 
     public final List<Float> get_time(){
-        if(linkprofiles==null || linkprofiles.isEmpty())
+        if(store==null || linkprofiles.isEmpty())
             return new ArrayList();
-        return linkprofiles.values().iterator().next().profile.get_times();
+        return store.get_times();
     }
 
     public final long [] get_link_ids(){
         return ordered_ids;
     }
 
+    public final double [] get_time_array(){
+        return store==null ? new double[0] : store.get_time_array();
+    }
+
+    // row major [link][time], with links in the order of get_link_ids()
+    public final double [] get_values_array(){
+        if(store==null)
+            return new double[0];
+        int [] cols = new int[ordered_ids.length];
+        for(int i=0;i<cols.length;i++)
+            cols[i] = linkprofiles.get(ordered_ids[i]).col;
+        return store.get_columns(cols);
+    }
+
     public final Profile1D get_profile_for_linkid(Long link_id){
-        return linkprofiles.get(link_id).profile;
+        return linkprofiles.get(link_id).get_profile();
     }
 
     public final void plot_for_links(Set<Long> link_ids,String filename) throws OTMException {
@@ -202,15 +220,18 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
 
     public class LinkProfile {
         public Link link;
-        public Profile1D profile;
+        public int col;     // column in store
         public LinkProfile(Link link){
             this.link = link;
         }
-        public void initialize(float outDt){
-            this.profile = new Profile1D(null, outDt);
+        public void initialize(int col){
+            this.col = col;
         }
         public void add_value(double value){
-            profile.add_entry(value);
+            store.set(col,value);
+        }
+        public Profile1D get_profile(){
+            return store.get_profile(col);
         }
     }
 
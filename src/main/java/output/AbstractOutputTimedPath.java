@@ -64,7 +64,7 @@ public abstract class AbstractOutputTimedPath extends AbstractOutputTimed {
                 String filename = get_output_file();
                 if (filename != null) {
                     String subfilename = filename.substring(0, filename.length() - 4);
-                    Writer links_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_links.txt"));
+                    Writer links_writer = open_writer(subfilename + "_links.txt");
                     for (Link link : path.get_ordered_links() )
                         links_writer.write(link.getId() + "\t");
                     links_writer.close();
@@ -0,0 +1,378 @@
+package output;
+
+import core.AbstractLaneGroup;
+import core.Link;
+import core.Scenario;
+import error.OTMErrorLog;
+import error.OTMException;
+import models.fluid.FluidLaneGroup;
+import org.jfree.data.xy.XYSeriesCollection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Reduction of a link, lanegroup or cell output at the source. Each sample (every outDt) is summed over
+ * groups of elements (all, subnetworks, or link road types), and the group values are reduced over time
+ * windows (mean, min, max or percentile). Only one row per window is stored or written. Flow outputs are
+ * converted from cumulative counts to veh/hr before the reduction.
+ */
+public class OutputAggregate extends AbstractOutputTimed {
+
+    public enum Statistic {mean,min,max,percentile}
+    public enum Aggregate {none,all,subnetwork,road_type}
+
+    public final AbstractOutputTimed source;
+    public final float window;
+    public final Statistic statistic;
+    public final float percentile;
+    public final Aggregate aggregate;
+    public final Collection<Long> subnetwork_ids;
+
+    public List<String> group_labels;
+    public OutputStore store;
+
+    private int [][] element_groups;    // element index -> group indices
+    private boolean is_flow;
+    private int samples_per_window;
+
+    // accumulators
+    private double [] element_values;
+    private double [] prev_values;
+    private double [] group_values;
+    private double [] sum;
+    private double [] min;
+    private double [] max;
+    private double [][] samples;        // only for percentile
+    private int count;
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputAggregate(Scenario scenario,String prefix,String output_folder,String quantity,Long commodity_id,Collection<Long> link_ids,Float outDt,Float window,String statistic,Float percentile,String aggregate,Collection<Long> subnetwork_ids) throws OTMException {
+        super(scenario,prefix,output_folder,commodity_id,outDt);
+
+        // the source is held in memory and never registered with the dispatcher
+        switch(quantity){
+            case "link_veh":
+                source = new OutputLinkVehicles(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            case "link_flw":
+                source = new OutputLinkFlow(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            case "lanegroup_veh":
+                source = new OutputLaneGroupVehicles(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            case "lanegroup_flw":
+                source = new OutputLaneGroupFlow(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            case "cell_veh":
+                source = new OutputCellVehicles(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            case "cell_flw":
+                source = new OutputCellFlow(scenario,null,null,commodity_id,link_ids,outDt);
+                break;
+            default:
+                throw new OTMException("Bad quantity in aggregate output request : " + quantity);
+        }
+        this.type = source.type;
+        this.is_flow = quantity.endsWith("_flw");
+
+        this.window = window==null ? outDt : window;
+        this.percentile = percentile==null ? 50f : percentile;
+        this.subnetwork_ids = subnetwork_ids;
+        try {
+            this.statistic = statistic==null ? Statistic.mean : Statistic.valueOf(statistic);
+            this.aggregate = aggregate==null ? Aggregate.none : Aggregate.valueOf(aggregate);
+        } catch (IllegalArgumentException e) {
+            throw new OTMException("Bad statistic or aggregate in output request : " + statistic + ", " + aggregate);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return write_to_file ?
+                String.format("%s_%s_%s_%s.txt",super.get_output_file(),source.type.name(),aggregate.name(),statistic.name()) :
+                null;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return source.get_yaxis_label();
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        if(store==null)
+            return;
+        XYSeriesCollection dataset = new XYSeriesCollection();
+        for(int g=0;g<group_labels.size();g++)
+            dataset.addSeries(store.get_profile(g).get_series(group_labels.get(g)));
+        String title = String.format("%s %s %s, comm: %s", type.name(), aggregate.name(), statistic.name(), commodity==null ? "all" : commodity.name);
+        make_time_chart(dataset,title,get_yaxis_label(),filename);
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        source.validate_post_init(errorLog);
+        if(window<outDt)
+            errorLog.addError("Aggregate output window is smaller than dt");
+        if(percentile<0 || percentile>100)
+            errorLog.addError("Aggregate output percentile is not in [0,100]");
+        if(group_labels.isEmpty())
+            errorLog.addError("Aggregate output has no groups");
+    }
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        super.initialize(scenario);
+        source.initialize(scenario);
+
+        // elements and their links
+        List<String> element_labels = new ArrayList<>();
+        List<Link> element_links = new ArrayList<>();
+        if(source instanceof AbstractOutputTimedLink)
+            for(long link_id : ((AbstractOutputTimedLink) source).ordered_ids) {
+                element_labels.add(String.format("%d",link_id));
+                element_links.add(scenario.network.links.get(link_id));
+            }
+        else if(source instanceof AbstractOutputTimedLanegroup)
+            for(AbstractLaneGroup lg : ((AbstractOutputTimedLanegroup) source).ordered_lgs){
+                element_labels.add(String.format("%d",lg.getId()));
+                element_links.add(lg.get_link());
+            }
+        else
+            for(FluidLaneGroup lg : ((AbstractOutputTimedCell) source).ordered_lgs)
+                for(int i=0;i<lg.cells.size();i++){
+                    element_labels.add(String.format("%d:%d",lg.getId(),i));
+                    element_links.add(lg.get_link());
+                }
+
+        // groups
+        group_labels = new ArrayList<>();
+        List<Set<Long>> group_links = new ArrayList<>();
+        switch(aggregate){
+            case none:
+                group_labels.addAll(element_labels);
+                break;
+            case all:
+                group_labels.add("all");
+                group_links.add(null);
+                break;
+            case subnetwork:
+                Collection<Long> ids = subnetwork_ids==null ? new TreeSet<>(scenario.subnetworks.keySet()) : subnetwork_ids;
+                for(Long id : ids){
+                    if(!scenario.subnetworks.containsKey(id))
+                        throw new OTMException("Bad subnetwork id in aggregate output request : " + id);
+                    group_labels.add(String.format("subnetwork %d",id));
+                    group_links.add(new HashSet<>(scenario.subnetworks.get(id).get_link_ids()));
+                }
+                break;
+            case road_type:
+                for(Link.RoadType rt : Link.RoadType.values()){
+                    Set<Long> links = new HashSet<>();
+                    for(Link link : element_links)
+                        if(link.get_road_type()==rt)
+                            links.add(link.getId());
+                    if(!links.isEmpty()){
+                        group_labels.add(rt.name());
+                        group_links.add(links);
+                    }
+                }
+                break;
+        }
+
+        int num_elements = element_links.size();
+        element_groups = new int[num_elements][];
+        for(int e=0;e<num_elements;e++){
+            if(aggregate==Aggregate.none) {
+                element_groups[e] = new int[]{e};
+                continue;
+            }
+            long link_id = element_links.get(e).getId();
+            List<Integer> groups = new ArrayList<>();
+            for(int g=0;g<group_links.size();g++)
+                if(group_links.get(g)==null || group_links.get(g).contains(link_id))
+                    groups.add(g);
+            element_groups[e] = groups.stream().mapToInt(x->x).toArray();
+        }
+
+        // accumulators
+        int num_groups = group_labels.size();
+        samples_per_window = Math.max(1,Math.round(window/outDt));
+        element_values = new double[num_elements];
+        prev_values = null;
+        group_values = new double[num_groups];
+        sum = new double[num_groups];
+        min = new double[num_groups];
+        max = new double[num_groups];
+        samples = statistic==Statistic.percentile ? new double[num_groups][samples_per_window] : null;
+        count = 0;
+        store = null;
+
+        // write group labels
+        if(write_to_file){
+            try {
+                String filename = get_output_file();
+                Writer cols_writer = open_writer(filename.substring(0,filename.length()-4) + "_cols.txt");
+                for(String label : group_labels)
+                    cols_writer.write(label + "\n");
+                cols_writer.close();
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+
+        sample_source();
+
+        // cumulative counts to veh/hr
+        if(is_flow){
+            if(prev_values==null){
+                prev_values = element_values.clone();
+                return;
+            }
+            for(int e=0;e<element_values.length;e++){
+                double x = element_values[e];
+                element_values[e] = (x-prev_values[e])*3600d/outDt;
+                prev_values[e] = x;
+            }
+        }
+
+        // spatial sum
+        Arrays.fill(group_values,0d);
+        for(int e=0;e<element_values.length;e++)
+            for(int g : element_groups[e])
+                group_values[g] += element_values[e];
+
+        // temporal accumulation
+        for(int g=0;g<group_values.length;g++){
+            double x = group_values[g];
+            sum[g] = count==0 ? x : sum[g]+x;
+            min[g] = count==0 ? x : Math.min(min[g],x);
+            max[g] = count==0 ? x : Math.max(max[g],x);
+            if(samples!=null)
+                samples[g][count] = x;
+        }
+        count++;
+
+        if(count==samples_per_window) {
+            emit(timestamp);
+            count = 0;
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // final
+    //////////////////////////////////////////////////////
+
+    public final List<String> get_group_labels(){
+        return group_labels;
+    }
+
+    public final List<Float> get_time(){
+        return store==null ? new ArrayList<>() : store.get_times();
+    }
+
+    // row major [group][window]
+    public final double [] get_values_array(){
+        if(store==null)
+            return new double[0];
+        int [] cols = new int[group_labels.size()];
+        for(int g=0;g<cols.length;g++)
+            cols[g] = g;
+        return store.get_columns(cols);
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private void sample_source(){
+        if(source instanceof AbstractOutputTimedLink){
+            AbstractOutputTimedLink src = (AbstractOutputTimedLink) source;
+            for(int e=0;e<src.ordered_ids.length;e++)
+                element_values[e] = src.get_value_for_link(src.ordered_ids[e]);
+        }
+        else if(source instanceof AbstractOutputTimedLanegroup){
+            AbstractOutputTimedLanegroup src = (AbstractOutputTimedLanegroup) source;
+            for(int e=0;e<src.ordered_lgs.size();e++)
+                element_values[e] = src.get_value_for_lanegroup(src.ordered_lgs.get(e));
+        }
+        else {
+            AbstractOutputTimedCell src = (AbstractOutputTimedCell) source;
+            int e = 0;
+            for(FluidLaneGroup lg : src.ordered_lgs)
+                for(double x : src.get_value_for_lanegroup(lg))
+                    element_values[e++] = x;
+        }
+    }
+
+    private void emit(float timestamp) throws OTMException {
+
+        double [] row = take_buffer(group_values.length);
+        for(int g=0;g<row.length;g++){
+            switch(statistic){
+                case mean:
+                    row[g] = sum[g]/count;
+                    break;
+                case min:
+                    row[g] = min[g];
+                    break;
+                case max:
+                    row[g] = max[g];
+                    break;
+                case percentile:
+                    double [] x = Arrays.copyOf(samples[g],count);
+                    Arrays.sort(x);
+                    int rank = (int) Math.ceil(percentile/100d*count);
+                    row[g] = x[Math.max(0,Math.min(count-1,rank-1))];
+                    break;
+            }
+        }
+
+        super.write(timestamp);
+        if(write_to_file){
+            submit(() -> {
+                for(int g=0;g<row.length;g++){
+                    if(g>0)
+                        writer.write(AbstractOutputTimed.delim);
+                    writer.write(String.format("%f",row[g]));
+                }
+                writer.write("\n");
+                release_buffer(row);
+            });
+        } else {
+            if(store==null)
+                store = new OutputStore(timestamp,window,row.length,scenario.off_heap_outputs,
+                        scenario.output_block_size,scenario.output_max_rows_per_block);
+            store.new_row();
+            for(int g=0;g<row.length;g++)
+                store.set(g,row[g]);
+            release_buffer(row);
+        }
+    }
+
+}
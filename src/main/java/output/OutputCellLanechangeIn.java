@@ -84,7 +84,7 @@ public class OutputCellLanechangeIn extends AbstractOutputTimedCell {
     //////////////////////////////////////////////////////
 
     private Profile1D get_flow_profile_in_vph(CellProfile cellprof){
-        Profile1D profile = cellprof.profile.clone();
+        Profile1D profile = cellprof.get_profile();
         return new Profile1D(profile.start_time,profile.dt,profile.difftimes(3600d/outDt));
     }
 
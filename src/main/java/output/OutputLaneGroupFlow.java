@@ -82,7 +82,7 @@ public class OutputLaneGroupFlow extends AbstractOutputTimedLanegroup {
     }
 
     public Profile1D get_flow_profile_for_lg_in_vph(Long lgid){
-        Profile1D profile = lgprofiles.get(lgid).profile;
+        Profile1D profile = lgprofiles.get(lgid).get_profile();
         return new Profile1D(profile.start_time,profile.dt,profile.difftimes(3600d/outDt));
     }
 
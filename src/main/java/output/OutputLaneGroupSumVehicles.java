@@ -119,7 +119,7 @@ public class OutputLaneGroupSumVehicles extends AbstractOutputTimedLanegroup {
 
 
     public Profile1D get_veh_profile_for_lg(Long lgid){
-        Profile1D profile = lgprofiles.get(lgid).profile;
+        Profile1D profile = lgprofiles.get(lgid).get_profile();
         return new Profile1D(profile.start_time,profile.dt,profile.difftimes(3600d/outDt));
     }
     
@@ -56,7 +56,7 @@ public class OutputLinkVehicles extends AbstractOutputTimedLink {
     public final List<Double> get_density_for_link_in_vpk(Long link_id){
         if(!linkprofiles.containsKey(link_id))
             return null;
-        Profile1D profile = linkprofiles.get(link_id).profile.clone();
+        Profile1D profile = linkprofiles.get(link_id).get_profile();
         profile.multiply(1000d/linkprofiles.get(link_id).link.get_full_length());
         return profile.get_values();
     }
@@ -3,15 +3,29 @@ package output;
 import commodity.Path;
 import error.OTMException;
 import profiles.Profile1D;
+import core.Link;
 import core.Scenario;
+import traveltime.LinkTravelTimeManager;
+import traveltime.LinkTravelTimer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Travel time on a path, either instantaneous (sum of current link travel times), or predictive (the
+ * travel time experienced by a vehicle that enters the path at each output time). A predictive value is
+ * reported once its trip has ended, so those rows lag the simulation. Rows for trips that have not ended
+ * are completed with the latest link travel times when the output is closed.
+ */
 public class OutputPathTravelTime extends AbstractOutputTimedPath {
 
     public boolean instantaneous = true;
 
+    private LinkTravelTimer [] timers;
+    private Float next_departure;       // predictive: first departure not yet reported
+    private float last_time;
+
     //////////////////////////////////////////////////////
     // construction
     //////////////////////////////////////////////////////
@@ -30,6 +44,25 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
         super.initialize(scenario);
         if(!write_to_file)
             profile = new Profile1D(0f,outDt);
+        timers = null;
+        next_departure = null;
+    }
+
+    @Override
+    public void close() throws OTMException {
+        // the pipeline is closed by now, so pending rows are written here
+        for(double travel_time : get_pending_travel_times()) {
+            if (write_to_file) {
+                try {
+                    writer.write(String.format("%f\n", travel_time));
+                } catch (IOException e) {
+                    throw new OTMException(e);
+                }
+            } else
+                profile.add_entry(travel_time);
+        }
+        next_departure = null;
+        super.close();
     }
 
     @Override
@@ -44,19 +77,22 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     @Override
     public void write(float timestamp) throws OTMException {
         super.write(timestamp);
+        last_time = timestamp;
 
-        double travel_time = instantaneous ?
-                compute_instantaneous_travel_time() :
-                compute_predictive_travel_time(0f);
-
-        if(write_to_file){
-            try {
-                writer.write(String.format("%f\n",travel_time));
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
-        } else {
-            profile.add_entry(travel_time);
+        if(instantaneous) {
+            add_row(compute_instantaneous_travel_time());
+            return;
+        }
+
+        // report departures whose trips have ended
+        if(next_departure==null)
+            next_departure = timestamp;
+        while(next_departure<=timestamp){
+            double travel_time = compute_predictive_travel_time(next_departure);
+            if(next_departure+travel_time>timestamp)
+                break;
+            add_row(travel_time);
+            next_departure += outDt;
         }
     }
 
@@ -74,15 +110,14 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     //////////////////////////////////////////////////////
 
     public final double compute_predictive_travel_time(float start_time){
-//        float curr_time = start_time;
-//        for(Link link:path.ordered_links)
-//            curr_time += link.link_tt.get_value_for_time(curr_time);
-//        return (double) (curr_time-start_time);
-        return 0d;
+        return LinkTravelTimeManager.get_predictive_travel_time(get_timers(),start_time);
     }
 
+    // includes predictive values for trips that have not ended
     public final List<Double> get_travel_times_sec(){
-        return profile.get_values();
+        List<Double> x = new ArrayList<>(profile.get_values());
+        x.addAll(get_pending_travel_times());
+        return x;
     }
 
 //    private double get_value_for_link(Link link){
@@ -126,9 +161,34 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     //////////////////////////////////////////////////////
 
     private double compute_instantaneous_travel_time(){
-        return path.get_ordered_links().stream().
-                mapToDouble(link->link.link_tt.instantaneous_travel_time)
-                .sum();
+        return LinkTravelTimeManager.get_instantaneous_travel_time(get_timers());
+    }
+
+    // link timers are created by the travel time manager after the outputs are initialized
+    private LinkTravelTimer [] get_timers(){
+        if(timers==null){
+            List<Link> links = path.get_ordered_links();
+            timers = new LinkTravelTimer[links.size()];
+            for(int i=0;i<timers.length;i++)
+                timers[i] = links.get(i).link_tt;
+        }
+        return timers;
+    }
+
+    private List<Double> get_pending_travel_times(){
+        List<Double> x = new ArrayList<>();
+        if(instantaneous || next_departure==null)
+            return x;
+        for(float t=next_departure;t<=last_time;t+=outDt)
+            x.add(compute_predictive_travel_time(t));
+        return x;
+    }
+
+    private void add_row(double travel_time) throws OTMException {
+        if(write_to_file)
+            submit(() -> writer.write(String.format("%f\n",travel_time)));
+        else
+            profile.add_entry(travel_time);
     }
 
 }
@@ -0,0 +1,127 @@
+package output;
+
+import error.OTMException;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Background writers for file outputs. Outputs snapshot their values on the simulation thread and submit
+ * a task that formats and writes them. Each output is assigned to one lane (thread), so its rows are
+ * written in order. Each lane has a bounded queue and the simulation thread only blocks when it is full.
+ * Errors on a writer thread are thrown by the next submit or flush.
+ */
+public class OutputPipeline {
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    private static final Task STOP = () -> {};
+
+    private final Lane [] lanes;
+    private int next_lane;
+    private volatile IOException error;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public OutputPipeline(int num_threads,int queue_size){
+        lanes = new Lane[Math.max(1,num_threads)];
+        for(int i=0;i<lanes.length;i++)
+            lanes[i] = new Lane(i,queue_size);
+    }
+
+    public int assign_lane(){
+        return next_lane++ % lanes.length;
+    }
+
+    ///////////////////////////////////////////////////
+    // simulation thread
+    ///////////////////////////////////////////////////
+
+    public void submit(int lane,Task task) throws OTMException {
+        check_error();
+        put(lanes[lane],task);
+    }
+
+    // wait until all tasks submitted so far have been written
+    public void flush() throws OTMException {
+        CountDownLatch latch = new CountDownLatch(lanes.length);
+        for(Lane lane : lanes)
+            put(lane,() -> latch.countDown());
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        }
+        check_error();
+    }
+
+    public void close() throws OTMException {
+        try {
+            flush();
+        } finally {
+            for(Lane lane : lanes)
+                lane.queue.offer(STOP);
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    private void check_error() throws OTMException {
+        if(error!=null)
+            throw new OTMException(error);
+    }
+
+    private static void put(Lane lane,Task task) throws OTMException {
+        try {
+            lane.queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        final BlockingQueue<Task> queue;
+
+        Lane(int index,int queue_size){
+            queue = new ArrayBlockingQueue<>(Math.max(1,queue_size));
+            Thread thread = new Thread(this,"otm-output-writer-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while(true){
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(task==STOP)
+                    return;
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    if(error==null)
+                        error = e;
+                } catch (RuntimeException e) {
+                    if(error==null)
+                        error = new IOException(e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package output;
+
+import profiles.Profile1D;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory storage for timed outputs, with one column per link, lanegroup or cell and one row per
+ * output time. Values are kept unboxed in blocks of whole rows, so the store grows without copying.
+ * Blocks are allocated off the java heap when off_heap is set, see Scenario.off_heap_outputs, and the
+ * block size is set per scenario with Scenario.output_block_size and output_max_rows_per_block.
+ */
+public class OutputStore {
+
+    public static final int default_block_size = 1<<20;      // target number of values per block
+    public static final int default_max_rows_per_block = 1024;
+
+    public final float start_time;
+    public final float dt;
+    public final int num_cols;
+
+    private final int rows_per_block;
+    private final boolean direct;
+    private final List<DoubleBuffer> blocks = new ArrayList<>();
+    private int num_rows;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public OutputStore(float start_time,float dt,int num_cols){
+        this(start_time,dt,num_cols,false);
+    }
+
+    public OutputStore(float start_time,float dt,int num_cols,boolean off_heap){
+        this(start_time,dt,num_cols,off_heap,default_block_size,default_max_rows_per_block);
+    }
+
+    public OutputStore(float start_time,float dt,int num_cols,boolean off_heap,int block_size,int max_rows_per_block){
+        this.start_time = start_time;
+        this.dt = dt;
+        this.num_cols = num_cols;
+        this.rows_per_block = Math.max(1,Math.min(max_rows_per_block,block_size/Math.max(1,num_cols)));
+        this.direct = off_heap;
+    }
+
+    ///////////////////////////////////////////////////
+    // write
+    ///////////////////////////////////////////////////
+
+    public void new_row(){
+        if(num_rows % rows_per_block == 0) {
+            int n = rows_per_block * num_cols;
+            blocks.add(direct ?
+                    ByteBuffer.allocateDirect(8 * n).order(ByteOrder.nativeOrder()).asDoubleBuffer() :
+                    DoubleBuffer.allocate(n));
+        }
+        num_rows++;
+    }
+
+    // set a value in the last row
+    public void set(int col,double value){
+        int row = num_rows-1;
+        blocks.get(row/rows_per_block).put((row%rows_per_block)*num_cols+col,value);
+    }
+
+    // overwrite a value in an existing row
+    public void set(int row,int col,double value){
+        blocks.get(row/rows_per_block).put((row%rows_per_block)*num_cols+col,value);
+    }
+
+    ///////////////////////////////////////////////////
+    // read
+    ///////////////////////////////////////////////////
+
+    public boolean is_off_heap(){
+        return direct;
+    }
+
+    public int get_num_rows(){
+        return num_rows;
+    }
+
+    public double get(int row,int col){
+        return blocks.get(row/rows_per_block).get((row%rows_per_block)*num_cols+col);
+    }
+
+    // same as Profile1D.get_times
+    public List<Float> get_times(){
+        List<Float> times = new ArrayList<>();
+        times.add(start_time);
+        for(int i=1;i<num_rows;i++)
+            times.add(start_time + i*dt);
+        return times;
+    }
+
+    public double [] get_time_array(){
+        double [] x = new double[num_rows];
+        for(int i=0;i<num_rows;i++)
+            x[i] = start_time + i*dt;
+        return x;
+    }
+
+    public double [] get_column(int col){
+        double [] x = new double[num_rows];
+        for(int i=0;i<num_rows;i++)
+            x[i] = get(i,col);
+        return x;
+    }
+
+    public List<Double> get_values(int col){
+        List<Double> x = new ArrayList<>(num_rows);
+        for(int i=0;i<num_rows;i++)
+            x.add(get(i,col));
+        return x;
+    }
+
+    // copy of one column
+    public Profile1D get_profile(int col){
+        return new Profile1D(start_time,dt,get_values(col));
+    }
+
+    // row major [col][time], for the given columns
+    public double [] get_columns(int [] cols){
+        double [] x = new double[cols.length*num_rows];
+        for(int i=0;i<num_rows;i++)
+            for(int j=0;j<cols.length;j++)
+                x[j*num_rows+i] = get(i,cols[j]);
+        return x;
+    }
+
+    ///////////////////////////////////////////////////
+    // zero copy
+    ///////////////////////////////////////////////////
+
+    public int get_num_blocks(){
+        return blocks.size();
+    }
+
+    public int get_rows_per_block(){
+        return rows_per_block;
+    }
+
+    // read only view of block i, row major [time][col], limited to the rows written so far
+    public DoubleBuffer get_block(int i){
+        DoubleBuffer block = blocks.get(i).asReadOnlyBuffer();
+        int rows = Math.min(rows_per_block,num_rows-i*rows_per_block);
+        block.limit(rows*num_cols);
+        return block;
+    }
+
+}
@@ -0,0 +1,21 @@
+package plugin;
+
+import error.OTMException;
+
+/**
+ * Control law of a PluginController or PluginControllerBatch. Measurements and commands are flat arrays,
+ * laid out as described in PluginController.
+ */
+@FunctionalInterface
+public interface InterfaceArrayPolicy {
+
+    /**
+     * Compute the commands from the measurements.
+     * @param timestamp Simulation time in seconds.
+     * @param measurements Sensor measurements. Read only.
+     * @param commands Actuator commands, holding the previous values. NaN means no change.
+     * @throws OTMException Stops the simulation.
+     */
+    void update(float timestamp, double [] measurements, double [] commands) throws OTMException;
+
+}
@@ -1,15 +1,60 @@
 package plugin;
 
 import actuator.AbstractActuator;
+import actuator.ActuatorSignal;
+import actuator.SignalPhase;
 import control.AbstractController;
+import control.command.CommandNumber;
+import control.command.CommandSignal;
+import control.command.InterfaceCommand;
+import dispatch.Dispatcher;
+import error.OTMErrorLog;
 import error.OTMException;
 import jaxb.Controller;
 import core.Scenario;
+import sensor.AbstractSensor;
+import sensor.FixedSensor;
 
-public abstract class PluginController extends AbstractController {
+import java.util.*;
+
+/**
+ * Controller whose control law works on arrays. Sensors and actuators are ordered by id.
+ * <p>
+ * Measurements: values_per_sensor values per sensor, flow [vph] and vehicles. Sensors other than
+ * FixedSensor give NaN.
+ * <p>
+ * Commands: one value per lg_capacity [vps] or lg_speedlimit [mps] actuator, and one value per phase
+ * (ordered by phase id) for signal actuators, where a positive value is green and anything else is red.
+ * NaN leaves an actuator, or a phase, as it was.
+ * <p>
+ * The control law is either the policy field or an override of update. When the controller belongs to a
+ * PluginControllerBatch, it is updated by the batch instead.
+ */
+public class PluginController extends AbstractController {
+
+    public static final int values_per_sensor = 2;
+
+    public InterfaceArrayPolicy policy;
+    PluginControllerBatch batch;
+
+    protected AbstractSensor [] sensor_array;
+    protected AbstractActuator [] actuator_array;
+    protected int [] command_offset;            // actuator -> first value in commands
+    protected double [] measurements;
+    protected double [] commands;
+
+    private InterfaceCommand [] actuator_commands;
+    private long [][] phase_ids;                // signal actuators only
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
 
     public PluginController(Scenario scenario, Controller jaxb_controller) throws OTMException {
         super(scenario, jaxb_controller);
+
+        // the actuators are set by this controller's event, not by their own
+        set_actuators_passive();
     }
 
     @Override
@@ -17,4 +62,158 @@ public abstract class PluginController extends AbstractController {
         return AbstractActuator.class;
     }
 
+    @Override
+    public void validate_pre_init(OTMErrorLog errorLog) {
+        super.validate_pre_init(errorLog);
+        for(AbstractActuator act : actuators.values())
+            switch(act.getType()){
+                case lg_capacity:
+                case lg_speedlimit:
+                case signal:
+                    break;
+                default:
+                    errorLog.addError("PluginController id=" + id + ": unsupported actuator type " + act.getType());
+            }
+    }
+
+    @Override
+    protected void configure() throws OTMException {
+
+        sensor_array = sensors.stream()
+                .sorted(Comparator.comparing(AbstractSensor::getId))
+                .toArray(AbstractSensor[]::new);
+        actuator_array = actuators.values().stream()
+                .sorted(Comparator.comparing(AbstractActuator::getId))
+                .toArray(AbstractActuator[]::new);
+
+        int n = actuator_array.length;
+        command_offset = new int[n+1];
+        actuator_commands = new InterfaceCommand[n];
+        phase_ids = new long[n][];
+        for(int i=0;i<n;i++){
+            AbstractActuator act = actuator_array[i];
+            int width;
+            switch(act.getType()){
+                case lg_capacity:
+                case lg_speedlimit:
+                    actuator_commands[i] = new CommandNumber(Float.NaN);
+                    width = 1;
+                    break;
+                case signal:
+                    phase_ids[i] = ((ActuatorSignal) act).signal_phases.keySet().stream().sorted().mapToLong(x->x).toArray();
+                    actuator_commands[i] = new CommandSignal(new HashMap<>());
+                    width = phase_ids[i].length;
+                    break;
+                default:
+                    throw new OTMException("PluginController id=" + id + ": unsupported actuator type " + act.getType());
+            }
+            command_offset[i+1] = command_offset[i] + width;
+        }
+
+        measurements = new double[num_measurements()];
+        commands = new double[num_commands()];
+        Arrays.fill(commands,Double.NaN);
+    }
+
+    ///////////////////////////////////////////////////
+    // control law
+    ///////////////////////////////////////////////////
+
+    /**
+     * Compute the commands from the measurements. Override this or set the policy.
+     * @param timestamp Simulation time in seconds.
+     * @param measurements Sensor measurements.
+     * @param commands Actuator commands, holding the previous values.
+     * @throws OTMException If there is no policy.
+     */
+    protected void update(float timestamp, double [] measurements, double [] commands) throws OTMException {
+        if(policy==null)
+            throw new OTMException("PluginController id=" + id + " has no policy");
+        policy.update(timestamp,measurements,commands);
+    }
+
+    ///////////////////////////////////////////////////
+    // AbstractController
+    ///////////////////////////////////////////////////
+
+    @Override
+    protected void update_command(Dispatcher dispatcher) throws OTMException {
+        if(batch!=null)
+            return;
+        read_measurements(measurements,0);
+        update(dispatcher.current_time,measurements,commands);
+        write_commands(commands,0);
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    public int num_measurements(){
+        return sensors.size() * values_per_sensor;
+    }
+
+    public int num_commands(){
+        int n = 0;
+        for(AbstractActuator act : actuators.values())
+            if(!(act instanceof ActuatorSignal))
+                n++;
+            else if(((ActuatorSignal) act).signal_phases!=null)
+                n += ((ActuatorSignal) act).signal_phases.size();
+        return n;
+    }
+
+    public long [] get_sensor_ids(){
+        return sensors.stream().mapToLong(AbstractSensor::getId).sorted().toArray();
+    }
+
+    public long [] get_actuator_ids(){
+        return actuators.keySet().stream().mapToLong(x->x).sorted().toArray();
+    }
+
+    /**
+     * Current measurements of the controller's sensors. Available once the controller is on.
+     * @param x Destination array.
+     * @param offset Position of the first value in x.
+     */
+    public void read_measurements(double [] x,int offset){
+        for(AbstractSensor sensor : sensor_array){
+            if(sensor instanceof FixedSensor){
+                FixedSensor s = (FixedSensor) sensor;
+                x[offset] = s.get_flow_vph();
+                x[offset+1] = s.get_vehicles();
+            }
+            else {
+                x[offset] = Double.NaN;
+                x[offset+1] = Double.NaN;
+            }
+            offset += values_per_sensor;
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // package
+    ///////////////////////////////////////////////////
+
+    // NaN leaves the command as it was, or null for numeric commands that have not been set
+    void write_commands(double [] x,int offset){
+        for(int i=0;i<actuator_array.length;i++){
+            long act_id = actuator_array[i].id;
+            int k = offset + command_offset[i];
+            if(phase_ids[i]==null){
+                CommandNumber c = (CommandNumber) actuator_commands[i];
+                if(!Double.isNaN(x[k]))
+                    c.value = (float) x[k];
+                command.put(act_id,Float.isNaN(c.value) ? null : c);
+            }
+            else {
+                Map<Long,SignalPhase.BulbColor> colors = ((CommandSignal) actuator_commands[i]).value;
+                for(int j=0;j<phase_ids[i].length;j++)
+                    if(!Double.isNaN(x[k+j]))
+                        colors.put(phase_ids[i][j],x[k+j]>0 ? SignalPhase.BulbColor.GREEN : SignalPhase.BulbColor.RED);
+                command.put(act_id,actuator_commands[i]);
+            }
+        }
+    }
+
 }
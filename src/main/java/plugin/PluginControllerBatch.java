@@ -0,0 +1,119 @@
+package plugin;
+
+import core.Scenario;
+import dispatch.Dispatcher;
+import dispatch.EventPoke;
+import dispatch.Pokable;
+import error.OTMException;
+
+import java.util.*;
+
+/**
+ * Updates several PluginControllers with one call to a policy, once per dt. The measurements and commands
+ * of the members are concatenated in the order in which the members are given. Members that are off
+ * are skipped: their measurements are NaN and their commands are not applied.
+ * <p>
+ * A batch is added to the scenario's list of controller batches, and its members no longer keep their
+ * own dt.
+ */
+public class PluginControllerBatch implements Pokable {
+
+    public final float dt;
+    public InterfaceArrayPolicy policy;
+
+    private final PluginController [] members;
+    private final int [] measurement_offset;    // member -> first value in measurements
+    private final int [] command_offset;        // member -> first value in commands
+    private final double [] measurements;
+    private final double [] commands;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public PluginControllerBatch(Scenario scenario, float dt, InterfaceArrayPolicy policy, List<PluginController> controllers) throws OTMException {
+
+        if(dt<=0)
+            throw new OTMException("PluginControllerBatch requires a positive dt");
+        if(controllers==null || controllers.isEmpty())
+            throw new OTMException("PluginControllerBatch requires at least one controller");
+
+        this.dt = dt;
+        this.policy = policy;
+        this.members = controllers.toArray(new PluginController[0]);
+
+        int n = members.length;
+        measurement_offset = new int[n+1];
+        command_offset = new int[n+1];
+        for(int i=0;i<n;i++){
+            PluginController c = members[i];
+            if(c.batch!=null)
+                throw new OTMException("Controller " + c.id + " already belongs to a batch");
+            c.batch = this;
+            c.dt = null;
+            measurement_offset[i+1] = measurement_offset[i] + c.num_measurements();
+            command_offset[i+1] = command_offset[i] + c.num_commands();
+        }
+
+        measurements = new double[measurement_offset[n]];
+        commands = new double[command_offset[n]];
+
+        scenario.controller_batches.add(this);
+    }
+
+    public void initialize(Dispatcher dispatcher, float start_time){
+        Arrays.fill(commands,Double.NaN);
+        dispatcher.register_event(new EventPoke(dispatcher,36,start_time,this));
+    }
+
+    ///////////////////////////////////////////////////
+    // Pokable
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void poke(Dispatcher dispatcher, float timestamp) throws OTMException {
+
+        if(policy==null)
+            throw new OTMException("PluginControllerBatch has no policy");
+
+        for(int i=0;i<members.length;i++)
+            if(members[i].is_on())
+                members[i].read_measurements(measurements,measurement_offset[i]);
+            else
+                Arrays.fill(measurements,measurement_offset[i],measurement_offset[i+1],Double.NaN);
+
+        policy.update(timestamp,measurements,commands);
+
+        // the member's poke sends its commands and writes its output
+        for(int i=0;i<members.length;i++)
+            if(members[i].is_on()){
+                members[i].write_commands(commands,command_offset[i]);
+                members[i].poke(dispatcher,timestamp);
+            }
+
+        dispatcher.register_event(new EventPoke(dispatcher,36,timestamp+dt,this));
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    public int num_measurements(){
+        return measurements.length;
+    }
+
+    public int num_commands(){
+        return commands.length;
+    }
+
+    public int get_measurement_offset(PluginController controller){
+        int i = Arrays.asList(members).indexOf(controller);
+        return i<0 ? -1 : measurement_offset[i];
+    }
+
+    public int get_command_offset(PluginController controller){
+        int i = Arrays.asList(members).indexOf(controller);
+        return i<0 ? -1 : command_offset[i];
+    }
+
+}
@@ -49,20 +49,27 @@ public class PluginLoader {
 
     }
 
-    public static AbstractController get_controller_instance(String plugin_name, Scenario scenario, jaxb.Controller jaxb_controller) throws OTMException {
+    public static void register_controller(String plugin_name, Class<? extends AbstractController> clazz){
+        controller_plugins.put(plugin_name, (Class<AbstractController>) clazz);
+    }
 
-        try {
-            Class<AbstractModel> xxx = model_plugins.get("ctmplugin");
-            Class[] cArg = new Class[4];
-            cArg[0] = AbstractModel.Type.class;
-            cArg[1] = String.class;
-            cArg[2] = boolean.class;
-            cArg[3] = StochasticProcess.class;
+    /**
+     * Create a plugin controller. "plugin" gives a PluginController, any other name a registered class
+     * with a (Scenario, jaxb.Controller) constructor.
+     * @return The controller, or null if the name is not known.
+     */
+    public static AbstractController get_controller_instance(String plugin_name, Scenario scenario, jaxb.Controller jaxb_controller) throws OTMException {
 
+        if(AbstractController.Algorithm.plugin.name().equalsIgnoreCase(plugin_name))
+            return new PluginController(scenario,jaxb_controller);
 
-            Constructor<?> cnstr = xxx.getDeclaredConstructor(cArg);
-            AbstractModel model = (AbstractModel) cnstr.newInstance(null, null, true,null);
+        Class<AbstractController> clazz = controller_plugins.get(plugin_name);
+        if(clazz==null)
+            return null;
 
+        try {
+            Constructor<AbstractController> cnstr = clazz.getDeclaredConstructor(Scenario.class, jaxb.Controller.class);
+            return cnstr.newInstance(scenario,jaxb_controller);
         } catch (NoSuchMethodException e) {
             throw new OTMException(e);
         } catch (IllegalAccessException e) {
@@ -70,43 +77,10 @@ public class PluginLoader {
         } catch (InstantiationException e) {
             throw new OTMException(e);
         } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
             throw new OTMException(e);
         }
-
-
-//        try {
-
-
-//            Class[] cArg = new Class[4];
-//            cArg[0] = AbstractModel.Type.class;
-//            cArg[1] = String.class;
-//        zzzzzcArg[1] = boolean.class;
-
-//            Class<?> clazz = controller_plugins.get(plugin_name);
-//            Constructor<?> cnstr = clazz.getDeclaredConstructor(cArg);
-//            AbstractController controller = (AbstractController) cnstr.newInstance(scenario, jaxb_controller);
-            return null;
-//        } catch (InstantiationException e) {
-//            e.printStackTrace();
-//            return null;
-//        } catch (IllegalAccessException e) {
-//            e.printStackTrace();
-//            return null;
-//        } catch (InvocationTargetException e) {
-//            e.printStackTrace();
-//            return null;
-//        } catch (NoSuchMethodException e) {
-//            e.printStackTrace();
-//            return null;
-//        }
-
-//            return (AbstractController) loaded_plugins.get(plugin_name).newInstance(scenario,jaxb_controller);
-//        } catch(InstantiationException e) {
-//            throw new OTMException(e);
-//        } catch(IllegalAccessException e) {
-//            throw new OTMException(e);
-//        }
-//    }
     }
 
     public static AbstractModel get_model_instance(jaxb.Model jaxb_model,StochasticProcess process) throws OTMException {
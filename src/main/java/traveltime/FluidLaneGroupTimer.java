@@ -4,7 +4,7 @@ import core.AbstractLaneGroup;
 
 public class FluidLaneGroupTimer extends AbstractLaneGroupTimer {
 
-    private double travel_time_sec;
+    private double travel_time_sec = Double.NaN;    // NaN until the lanegroup is updated
 
     public FluidLaneGroupTimer(AbstractLaneGroup lg, float outDt) {
         super(lg,outDt);
@@ -14,6 +14,7 @@ public class LinkTravelTimeManager {
     public Scenario scenario;
     public float dt;
     public Set<Link> links;
+    public int history_size = LinkTravelTimer.default_history_size;    // samples kept per link
 
     public LinkTravelTimeManager(Scenario scenario){
         this.scenario = scenario;
@@ -22,22 +23,26 @@ public class LinkTravelTimeManager {
     }
 
     public void add_path_travel_time_writer(OutputPathTravelTime path_tt_writer) throws OTMException {
+        add_links(path_tt_writer.path.get_ordered_links(),path_tt_writer.outDt);
+    }
+
+    public void add_links(Collection<Link> new_links,float new_dt) throws OTMException {
 
         // check dt
         if (Float.isNaN(dt))
-            this.dt = path_tt_writer.outDt;
-        else if (this.dt!=path_tt_writer.outDt)
+            this.dt = new_dt;
+        else if (this.dt!=new_dt)
                 throw new OTMException("All path travel time requests must have the same dt.");
 
         // add all links to set
-        links.addAll(path_tt_writer.path.get_ordered_links());
+        links.addAll(new_links);
     }
 
     public void initialize(Dispatcher dispatcher){
 
         // create link travel timers
         for(Link link : links)
-            link.link_tt = new LinkTravelTimer(link,dt);
+            link.link_tt = new LinkTravelTimer(link,dt,history_size);
 
         dispatcher.register_event(new EventComputeTravelTime(dispatcher,dispatcher.current_time,this));
     }
@@ -46,10 +51,27 @@ public class LinkTravelTimeManager {
     public void run(float now){
 
         // update link travel times
-        links.forEach(link->link.link_tt.update_travel_time());
+        links.forEach(link->link.link_tt.update_travel_time(now));
 
         // set new event
         scenario.dispatcher.register_event(new EventComputeTravelTime(scenario.dispatcher,now+dt,this));
     }
 
+    // sum of the current link travel times
+    public static double get_instantaneous_travel_time(LinkTravelTimer [] timers){
+        double tt = 0d;
+        for(LinkTravelTimer timer : timers)
+            tt += timer.instantaneous_travel_time;
+        return tt;
+    }
+
+    // travel time experienced by a vehicle that enters the first link at start_time, with each link
+    // entered when the previous one is left. Times without samples yet take the latest sample.
+    public static double get_predictive_travel_time(LinkTravelTimer [] timers,float start_time){
+        double time = start_time;
+        for(LinkTravelTimer timer : timers)
+            time += timer.get_travel_time_for_time(time);
+        return time-start_time;
+    }
+
 }
@@ -5,13 +5,36 @@ import core.AbstractLaneGroup;
 import core.AbstractFluidModel;
 import core.AbstractVehicleModel;
 
+/**
+ * Link travel times sampled every dt. The last history_size samples are kept in a ring, so the
+ * travel time for any recent time is found without searching.
+ */
 public class LinkTravelTimer {
 
+    public static final int default_history_size = 1024;     // samples kept per link
+
     public double instantaneous_travel_time;
     public Link link;
 
-    public LinkTravelTimer(Link link,float outDt){
+    public final float dt;
+    public final double ff_travel_time;         // [sec]
+
+    // slot k%history holds the sample taken at start_time + k*dt
+    private final double [] history;
+    private float start_time;
+    private int num_samples;
+
+    public LinkTravelTimer(Link link,float outDt,int history_size){
         this.link = link;
+        this.dt = outDt;
+        this.history = new double[Math.max(1,history_size)];
+
+        double speed_kph = 0d;
+        for(AbstractLaneGroup lg : link.get_lgs())
+            if(lg.roadparam_orig!=null)
+                speed_kph = Math.max(speed_kph,lg.roadparam_orig.getSpeed());
+        this.ff_travel_time = speed_kph>0 ? link.get_full_length()*3.6d/speed_kph : 0d;
+        this.instantaneous_travel_time = ff_travel_time;
 
         // create FluidLaneGroupTimer
         if( link.get_model() instanceof AbstractFluidModel)
@@ -25,10 +48,43 @@ public class LinkTravelTimer {
 
     }
 
-    public void update_travel_time(){
-        instantaneous_travel_time = link.get_lgs().stream()
-                .mapToDouble(lg->lg.travel_timer.get_mean_and_clear())
-                .average().getAsDouble();
+    // lanegroups without samples are skipped. If there are none, the previous value is kept.
+    public void update_travel_time(float timestamp){
+        double sum = 0d;
+        int n = 0;
+        for(AbstractLaneGroup lg : link.get_lgs()){
+            double x = lg.travel_timer.get_mean_and_clear();
+            if(!Double.isNaN(x)){
+                sum += x;
+                n++;
+            }
+        }
+        if(n>0)
+            instantaneous_travel_time = sum/n;
+
+        if(num_samples==0)
+            start_time = timestamp;
+        history[num_samples % history.length] = instantaneous_travel_time;
+        num_samples++;
+    }
+
+    // sample in effect at the given time. Times beyond the last sample get the last sample,
+    // times before the kept history get the oldest kept sample.
+    public double get_travel_time_for_time(double time){
+        if(num_samples==0)
+            return instantaneous_travel_time;
+        int k = (int) Math.floor((time-start_time)/dt);
+        k = Math.max(k,Math.max(0,num_samples-history.length));
+        k = Math.min(k,num_samples-1);
+        return history[k % history.length];
+    }
+
+    public int get_num_samples(){
+        return num_samples;
+    }
+
+    public float get_last_sample_time(){
+        return start_time + (num_samples-1)*dt;
     }
 
 }
@@ -4,35 +4,31 @@ import core.AbstractVehicle;
 import core.Link;
 import core.AbstractLaneGroup;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class VehicleLaneGroupTimer extends AbstractLaneGroupTimer {
 
     public int num_samples;
     public double sum_time;
 
-    public Map<Long,Float> entry_time = new HashMap<>();
-
     public VehicleLaneGroupTimer(AbstractLaneGroup lg, float outDt) {
         super(lg,outDt);
         num_samples = 0;
         sum_time = 0d;
     }
 
+    // the entry time is kept on the vehicle, so no per vehicle storage is needed here
     public void vehicle_enter(float timestamp, AbstractVehicle vehicle){
-        entry_time.put(vehicle.getId(),timestamp);
+        vehicle.link_entry_time = timestamp;
     }
 
     public void vehicle_exit(float timestamp, AbstractVehicle vehicle, Long link_id, Link next_link){
 
         // I dont know about this vehicle
-        if(!entry_time.containsKey(vehicle.getId()))
+        if(Float.isNaN(vehicle.link_entry_time))
             return;
 
-        add_sample(timestamp-entry_time.get(vehicle.getId()));
+        add_sample(timestamp-vehicle.link_entry_time);
 
-        entry_time.remove(vehicle);
+        vehicle.link_entry_time = Float.NaN;
     }
 
     private void add_sample(double travel_time_sample){
@@ -11,6 +11,8 @@ import error.OTMException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 public class OTMUtils {
@@ -70,6 +72,25 @@ public class OTMUtils {
         return retValue;
     }
 
+    // py4j passes byte[] by value, other arrays by reference. These pack little endian, for numpy.frombuffer.
+    public static byte[] to_bytes(double [] x){
+        ByteBuffer buffer = ByteBuffer.allocate(8*x.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(x);
+        return buffer.array();
+    }
+
+    public static double [] doubles_from_bytes(byte [] x){
+        double [] y = new double[x.length/8];
+        ByteBuffer.wrap(x).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(y);
+        return y;
+    }
+
+    public static byte[] to_bytes(long [] x){
+        ByteBuffer buffer = ByteBuffer.allocate(8*x.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asLongBuffer().put(x);
+        return buffer.array();
+    }
+
     ///////////////////////////////////////////////////
     // math
     ///////////////////////////////////////////////////
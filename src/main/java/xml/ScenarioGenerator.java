@@ -0,0 +1,748 @@
+package xml;
+
+import error.OTMException;
+import jaxb.*;
+
+import java.util.*;
+
+/**
+ * Builds synthetic jaxb scenarios of configurable size, for scale and load testing.
+ *
+ * line    : a chain of 'size' links.
+ * grid    : a bidirectional arterial grid of size x size nodes, with a source and a sink at every
+ *           boundary node and (optionally) a pretimed two phase signal at every interior node.
+ * freeway : a freeway with 'size' sections, each with an on-ramp and an off-ramp, and (optionally)
+ *           an inner HOV lane and a bank of ALINEA ramp meters.
+ *
+ * The first num_pathfull commodities are pathfull and travel on a route through the network.
+ * The remaining commodities are pathless, with demand at every source and through-biased splits.
+ * Links are divided into contiguous chunks, one for each entry in 'models'. Flow from a vehicle
+ * model into a fluid model enters through the fluid buffer of the model source link.
+ */
+public class ScenarioGenerator {
+
+    public enum Topology {line,grid,freeway}
+
+    public Topology topology;
+    public int size;
+    public int lanes = 0;                   // lanes on main links. 0 means topology default
+    public float link_length = 500f;        // [m]
+    public int num_commodities = 1;
+    public int num_pathfull = 0;
+    public int num_routes = 1;              // grid only. Alternative routes per pathfull commodity, with the same origin and destination.
+    public List<String> models = new ArrayList<>(List.of("ctm"));  // ctm, spaceq, micro
+    public float sim_dt = 2f;               // [sec]
+    public boolean auto_dt = false;         // ctm only. sim_dt=auto picks the largest stable step.
+    public float max_cell_length = 100f;    // [m]
+    public float demand_vph = 600f;         // per source link (pathless) or route (pathfull, split among alternatives), shared by all commodities
+    public boolean signals = true;          // grid only
+    public float cycle = 60f;               // [sec]
+    public boolean hov = false;             // freeway only. The lane is restricted to the last commodity on ctm links.
+    public boolean ramp_meters = false;     // freeway only. A meter on every on-ramp, run by one rm_alinea_bank controller.
+    public float ramp_meter_dt = 30f;       // [sec]
+
+    private static final long rp_main = 1L;
+    private static final long rp_ramp = 2L;
+    private static final long rp_arterial = 3L;
+    private static final long rg_hov = 1L;
+    private static final float through_split = 0.6f;
+
+    private List<jaxb.Node> nodes;
+    private List<jaxb.Link> links;
+    private Map<Long,jaxb.Node> node_map;
+    private Map<Long,List<jaxb.Link>> node_out;
+    private Map<Long,List<jaxb.Link>> node_in;
+    private Map<Long,Long> reverse;         // link id -> id of the link that goes back
+    private List<Long> sources;
+    private List<List<Long>> routes;
+    private Map<Integer,List<List<Long>>> alternatives;    // route index -> alternative routes, including the route
+    private List<jaxb.Roadconnection> rcs;
+    private jaxb.Scenario scn;
+
+    ////////////////////////////////////////
+    // construction
+    ////////////////////////////////////////
+
+    public ScenarioGenerator(Topology topology,int size){
+        this.topology = topology;
+        this.size = size;
+    }
+
+    public ScenarioGenerator(String topology,int size) throws OTMException {
+        try {
+            this.topology = Topology.valueOf(topology.toLowerCase());
+        } catch (IllegalArgumentException e){
+            throw new OTMException("Unknown topology: " + topology);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Set parameters from a string of comma separated key=value pairs, e.g.
+     * "commodities=3,pathfull=1,models=ctm;spaceq,hov=true". Model types are separated by ';'.
+     */
+    public ScenarioGenerator set_options(String options) throws OTMException {
+        if(options==null || options.isEmpty())
+            return this;
+        for(String option : options.split(",")){
+            String [] kv = option.split("=");
+            if(kv.length!=2)
+                throw new OTMException("Poorly formatted option: " + option);
+            String key = kv[0].trim();
+            String value = kv[1].trim();
+            try {
+                switch (key) {
+                    case "lanes":
+                        lanes = Integer.parseInt(value);
+                        break;
+                    case "link_length":
+                        link_length = Float.parseFloat(value);
+                        break;
+                    case "commodities":
+                        num_commodities = Integer.parseInt(value);
+                        break;
+                    case "pathfull":
+                        num_pathfull = Integer.parseInt(value);
+                        break;
+                    case "routes":
+                        num_routes = Integer.parseInt(value);
+                        break;
+                    case "models":
+                        models = new ArrayList<>(Arrays.asList(value.split(";")));
+                        break;
+                    case "sim_dt":
+                        if(value.equals("auto"))
+                            auto_dt = true;
+                        else
+                            sim_dt = Float.parseFloat(value);
+                        break;
+                    case "max_cell_length":
+                        max_cell_length = Float.parseFloat(value);
+                        break;
+                    case "demand":
+                        demand_vph = Float.parseFloat(value);
+                        break;
+                    case "signals":
+                        signals = Boolean.parseBoolean(value);
+                        break;
+                    case "cycle":
+                        cycle = Float.parseFloat(value);
+                        break;
+                    case "hov":
+                        hov = Boolean.parseBoolean(value);
+                        break;
+                    case "ramp_meters":
+                        ramp_meters = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new OTMException("Unknown option: " + key);
+                }
+            } catch (NumberFormatException e){
+                throw new OTMException("Bad value for option " + key + ": " + value);
+            }
+        }
+        return this;
+    }
+
+    ////////////////////////////////////////
+    // generate
+    ////////////////////////////////////////
+
+    public jaxb.Scenario generate() throws OTMException {
+
+        if(size<1)
+            throw new OTMException("size<1");
+        if(num_commodities<1)
+            throw new OTMException("num_commodities<1");
+        if(num_pathfull<0 || num_pathfull>num_commodities)
+            throw new OTMException("num_pathfull must be between 0 and num_commodities");
+        if(num_routes<1 || (num_routes>1 && (topology!=Topology.grid || num_routes>size)))
+            throw new OTMException("routes must be 1, or at most size for the grid topology");
+        if(models==null || models.isEmpty())
+            throw new OTMException("No models specified");
+        for(String m : models)
+            if(!m.equals("ctm") && !m.equals("spaceq") && !m.equals("micro"))
+                throw new OTMException("Unknown model type: " + m);
+
+        nodes = new ArrayList<>();
+        links = new ArrayList<>();
+        node_map = new HashMap<>();
+        node_out = new HashMap<>();
+        node_in = new HashMap<>();
+        reverse = new HashMap<>();
+        sources = new ArrayList<>();
+        routes = new ArrayList<>();
+        alternatives = new HashMap<>();
+        rcs = new ArrayList<>();
+        scn = new jaxb.Scenario();
+
+        switch(topology){
+            case line:
+                make_line();
+                break;
+            case grid:
+                make_grid();
+                break;
+            case freeway:
+                make_freeway();
+                break;
+        }
+
+        make_network();
+        make_commodities_and_demands();
+        make_splits();
+        make_models();
+        return scn;
+    }
+
+    ////////////////////////////////////////
+    // topologies
+    ////////////////////////////////////////
+
+    private void make_line(){
+        int n = lanes>0 ? lanes : 3;
+        for(int i=0;i<=size;i++)
+            add_node(i*link_length,0f);
+        List<Long> route = new ArrayList<>();
+        for(int i=0;i<size;i++)
+            route.add(add_link(i,i+1,n,rp_main,null));
+        sources.add(route.get(0));
+        routes.add(route);
+    }
+
+    private void make_grid(){
+        int n = lanes>0 ? lanes : 2;
+        int m = size;
+
+        // grid nodes
+        for(int r=0;r<m;r++)
+            for(int c=0;c<m;c++)
+                add_node(c*link_length,-r*link_length);
+
+        // grid links in both directions
+        Map<Long,Long> east = new HashMap<>();
+        Map<Long,Long> south = new HashMap<>();
+        Map<Long,Long> north = new HashMap<>();
+        for(int r=0;r<m;r++)
+            for(int c=0;c<m;c++){
+                long a = r*m+c;
+                if(c<m-1){
+                    long ab = add_link(a,a+1,n,rp_arterial,null);
+                    long ba = add_link(a+1,a,n,rp_arterial,null);
+                    set_reverse(ab,ba);
+                    east.put(a,ab);
+                }
+                if(r<m-1){
+                    long ab = add_link(a,a+m,n,rp_arterial,null);
+                    long ba = add_link(a+m,a,n,rp_arterial,null);
+                    set_reverse(ab,ba);
+                    south.put(a,ab);
+                    north.put(a+m,ba);
+                }
+            }
+
+        // a source and a sink at every boundary node
+        Map<Long,Long> west_source = new HashMap<>();
+        Map<Long,Long> east_sink = new HashMap<>();
+        for(int r=0;r<m;r++)
+            for(int c=0;c<m;c++){
+                if(r>0 && r<m-1 && c>0 && c<m-1)
+                    continue;
+                long a = r*m+c;
+                float dx = c==0 ? -1f : c==m-1 ? 1f : 0f;
+                float dy = dx!=0f ? 0f : r==0 ? 1f : -1f;
+                float x = c*link_length;
+                float y = -r*link_length;
+                float h = link_length/2;
+                long src_node = add_node(x+dx*h-dy*h/4,y+dy*h-dx*h/4);
+                long snk_node = add_node(x+dx*h+dy*h/4,y+dy*h+dx*h/4);
+                long src = add_link(src_node,a,n,rp_arterial,null);
+                long snk = add_link(a,snk_node,n,rp_arterial,null);
+                set_reverse(src,snk);
+                sources.add(src);
+                if(dx<0f)
+                    west_source.put(a,src);
+                if(dx>0f)
+                    east_sink.put(a,snk);
+            }
+
+        // road connections for all movements except u-turns
+        long rc_id = 1;
+        Map<Long,List<Long>> link2rcs = new HashMap<>();
+        for(jaxb.Node node : nodes)
+            for(jaxb.Link in : node_in.getOrDefault(node.getId(),Collections.emptyList()))
+                for(jaxb.Link out : node_out.getOrDefault(node.getId(),Collections.emptyList())){
+                    if(Objects.equals(reverse.get(in.getId()),out.getId()))
+                        continue;
+                    jaxb.Roadconnection rc = new jaxb.Roadconnection();
+                    rc.setId(rc_id);
+                    rc.setInLink(in.getId());
+                    rc.setInLinkLanes(String.format("1#%d",in.getFullLanes()));
+                    rc.setOutLink(out.getId());
+                    rc.setOutLinkLanes(String.format("1#%d",out.getFullLanes()));
+                    rcs.add(rc);
+                    link2rcs.computeIfAbsent(in.getId(),k->new ArrayList<>()).add(rc_id++);
+                }
+
+        // pathfull routes run west to east along a row. Alternatives move to another row
+        // in the first column and return in the last column.
+        for(int k=0;k<num_pathfull;k++){
+            int r = k%m;
+            List<List<Long>> alts = new ArrayList<>();
+            for(int j=0;j<num_routes;j++){
+                int r2 = (r+j)%m;
+                List<Long> route = new ArrayList<>();
+                route.add(west_source.get((long)r*m));
+                for(int i=r;i!=r2;i+= r2>r ? 1 : -1)
+                    route.add(r2>r ? south.get((long)i*m) : north.get((long)i*m));
+                for(int c=0;c<m-1;c++)
+                    route.add(east.get((long)r2*m+c));
+                for(int i=r2;i!=r;i+= r>r2 ? 1 : -1)
+                    route.add(r>r2 ? south.get((long)i*m+m-1) : north.get((long)i*m+m-1));
+                route.add(east_sink.get((long)r*m+m-1));
+                alts.add(route);
+            }
+            alternatives.put(routes.size(),alts);
+            routes.add(alts.get(0));
+        }
+
+        if(signals && m>2)
+            make_signals(link2rcs);
+    }
+
+    // two phase pretimed signal at each interior node: north-south, then east-west
+    private void make_signals(Map<Long,List<Long>> link2rcs){
+        int m = size;
+        jaxb.Actuators actuators = new jaxb.Actuators();
+        jaxb.Controllers controllers = new jaxb.Controllers();
+        long id = 1;
+        for(int r=1;r<m-1;r++)
+            for(int c=1;c<m-1;c++){
+                long node_id = r*m+c;
+
+                StringBuilder ns = new StringBuilder();
+                StringBuilder ew = new StringBuilder();
+                for(jaxb.Link in : node_in.get(node_id)){
+                    jaxb.Node start = node_map.get(in.getStartNodeId());
+                    boolean is_ns = start.getX().floatValue()==node_map.get(node_id).getX().floatValue();
+                    StringBuilder sb = is_ns ? ns : ew;
+                    for(Long rc : link2rcs.get(in.getId()))
+                        sb.append(sb.length()==0 ? "" : ",").append(rc);
+                }
+
+                jaxb.Actuator act = new jaxb.Actuator();
+                act.setId(id);
+                act.setType("signal");
+                jaxb.ActuatorTarget target = new jaxb.ActuatorTarget();
+                target.setType("node");
+                target.setId(Long.toString(node_id));
+                act.setActuatorTarget(target);
+                jaxb.Signal signal = new jaxb.Signal();
+                signal.getPhase().add(phase(1L,ns.toString()));
+                signal.getPhase().add(phase(2L,ew.toString()));
+                act.setSignal(signal);
+                actuators.getActuator().add(act);
+
+                jaxb.Controller cntr = new jaxb.Controller();
+                cntr.setId(id);
+                cntr.setType("sig_pretimed");
+                jaxb.TargetActuators tas = new jaxb.TargetActuators();
+                tas.setIds(Long.toString(id));
+                cntr.setTargetActuators(tas);
+                jaxb.Parameters params = new jaxb.Parameters();
+                params.getParameter().add(parameter("cycle",Float.toString(cycle)));
+                params.getParameter().add(parameter("offset","0"));
+                cntr.setParameters(params);
+                jaxb.Stages stages = new jaxb.Stages();
+                stages.getStage().add(stage("1",cycle/2));
+                stages.getStage().add(stage("2",cycle/2));
+                cntr.setStages(stages);
+                controllers.getController().add(cntr);
+
+                id++;
+            }
+        scn.setActuators(actuators);
+        scn.setControllers(controllers);
+    }
+
+    private void make_freeway(){
+        int n = lanes>0 ? lanes : 4;
+        Long rg = hov ? rg_hov : null;
+        List<Long> mainline = new ArrayList<>();
+        List<Long> onramps = new ArrayList<>();
+
+        long up = add_node(0f,0f);
+        float x = 0f;
+        for(int s=0;s<size;s++){
+
+            // merge, weave and diverge links
+            long merge = add_node(x+=link_length,0f);
+            long diverge_start = add_node(x+=link_length,0f);
+            long diverge_end = add_node(x+=link_length,0f);
+            mainline.add(add_link(up,merge,n,rp_main,rg));
+            mainline.add(add_link(merge,diverge_start,n,rp_main,rg));
+            mainline.add(add_link(diverge_start,diverge_end,n,rp_main,rg));
+
+            // on-ramp
+            long onramp_node = add_node(x-2.5f*link_length,-link_length/2);
+            long onramp = add_link(onramp_node,merge,1,rp_ramp,null);
+            sources.add(onramp);
+            onramps.add(onramp);
+
+            // off-ramp
+            long offramp_node = add_node(x+link_length/2,-link_length/2);
+            add_link(diverge_end,offramp_node,1,rp_ramp,null);
+
+            up = diverge_end;
+        }
+
+        // mainline exit
+        mainline.add(add_link(up,add_node(x+link_length,0f),n,rp_main,rg));
+
+        sources.add(0,mainline.get(0));
+        routes.add(mainline);
+
+        if(hov)
+            make_hov_restriction(mainline);
+
+        if(ramp_meters)
+            make_ramp_meters(onramps);
+    }
+
+    // a capacity actuator on each on-ramp, all in one controller
+    private void make_ramp_meters(List<Long> onramps){
+
+        if(scn.getActuators()==null)
+            scn.setActuators(new jaxb.Actuators());
+        if(scn.getControllers()==null)
+            scn.setControllers(new jaxb.Controllers());
+        List<jaxb.Actuator> actuators = scn.getActuators().getActuator();
+        List<jaxb.Controller> controllers = scn.getControllers().getController();
+
+        long id = actuators.size()+1;
+        StringBuilder ids = new StringBuilder();
+        for(Long onramp : onramps){
+            jaxb.Actuator act = new jaxb.Actuator();
+            act.setId(id);
+            act.setType("lg_capacity");
+            jaxb.ActuatorTarget target = new jaxb.ActuatorTarget();
+            target.setType("lanegroups");
+            target.setLanegroups(onramp + "(1#1)");
+            act.setActuatorTarget(target);
+            actuators.add(act);
+            ids.append(ids.length()==0 ? "" : ",").append(id);
+            id++;
+        }
+
+        jaxb.Controller cntr = new jaxb.Controller();
+        cntr.setId(controllers.size()+1L);
+        cntr.setType("rm_alinea_bank");
+        cntr.setDt(ramp_meter_dt);
+        jaxb.TargetActuators tas = new jaxb.TargetActuators();
+        tas.setIds(ids.toString());
+        cntr.setTargetActuators(tas);
+        jaxb.Parameters params = new jaxb.Parameters();
+        params.getParameter().add(parameter("min_rate_vphpl","240"));
+        cntr.setParameters(params);
+        controllers.add(cntr);
+    }
+
+    // hov lanes on ctm links are closed to all but the last commodity
+    private void make_hov_restriction(List<Long> mainline){
+
+        StringBuilder lgs = new StringBuilder();
+        for(int i=0;i<mainline.size();i++)
+            if(model_for_link_index(mainline.get(i).intValue()-1).equals("ctm"))
+                lgs.append(lgs.length()==0 ? "" : ",").append(mainline.get(i)).append("(1#1)");
+
+        if(lgs.length()==0 || num_commodities<2)
+            return;
+
+        StringBuilder banned = new StringBuilder();
+        for(long c=1;c<num_commodities;c++)
+            banned.append(banned.length()==0 ? "" : ",").append(c);
+
+        jaxb.Actuator act = new jaxb.Actuator();
+        act.setId(1L);
+        act.setType("lg_allowcomm");
+        jaxb.ActuatorTarget target = new jaxb.ActuatorTarget();
+        target.setType("lanegroups");
+        target.setLanegroups(lgs.toString());
+        target.setCommids(banned.toString());
+        act.setActuatorTarget(target);
+
+        jaxb.Controller cntr = new jaxb.Controller();
+        cntr.setId(1L);
+        cntr.setType("lg_restrict");
+        jaxb.TargetActuators tas = new jaxb.TargetActuators();
+        tas.setIds("1");
+        cntr.setTargetActuators(tas);
+        jaxb.Parameters params = new jaxb.Parameters();
+        params.getParameter().add(parameter("disallowed_comms",banned.toString()));
+        cntr.setParameters(params);
+
+        scn.setActuators(new jaxb.Actuators());
+        scn.getActuators().getActuator().add(act);
+        scn.setControllers(new jaxb.Controllers());
+        scn.getControllers().getController().add(cntr);
+    }
+
+    ////////////////////////////////////////
+    // scenario elements
+    ////////////////////////////////////////
+
+    private void make_network(){
+        jaxb.Network network = new jaxb.Network();
+        network.setNodes(new jaxb.Nodes());
+        network.getNodes().getNode().addAll(nodes);
+        network.setLinks(new jaxb.Links());
+        network.getLinks().getLink().addAll(links);
+
+        if(!rcs.isEmpty()){
+            network.setRoadconnections(new jaxb.Roadconnections());
+            network.getRoadconnections().getRoadconnection().addAll(rcs);
+        }
+
+        network.setRoadparams(new jaxb.Roadparams());
+        network.getRoadparams().getRoadparam().add(roadparam(rp_main,"freeway",2000f,100f,80f));
+        network.getRoadparams().getRoadparam().add(roadparam(rp_ramp,"ramp",1800f,60f,100f));
+        network.getRoadparams().getRoadparam().add(roadparam(rp_arterial,"arterial",1200f,50f,120f));
+
+        if(hov){
+            jaxb.AddLanes al = new jaxb.AddLanes();
+            al.setSide("in");
+            al.setLanes(1);
+            al.setIsopen(true);
+            al.setRoadparam(rp_main);
+            jaxb.Roadgeom rg = new jaxb.Roadgeom();
+            rg.setId(rg_hov);
+            rg.getAddLanes().add(al);
+            network.setRoadgeoms(new jaxb.Roadgeoms());
+            network.getRoadgeoms().getRoadgeom().add(rg);
+        }
+
+        scn.setNetwork(network);
+    }
+
+    private void make_commodities_and_demands(){
+
+        jaxb.Commodities commodities = new jaxb.Commodities();
+        jaxb.Subnetworks subnetworks = new jaxb.Subnetworks();
+        jaxb.Demands demands = new jaxb.Demands();
+        String vph = Float.toString(demand_vph/num_commodities);
+        long subnet_id = 1;
+
+        for(long c=1;c<=num_commodities;c++){
+            boolean pathfull = c<=num_pathfull;
+            jaxb.Commodity comm = new jaxb.Commodity();
+            comm.setId(c);
+            comm.setName(String.format("c%d",c));
+            comm.setPathfull(pathfull);
+
+            if(pathfull){
+                int index = (int)(c-1)%routes.size();
+                List<List<Long>> alts = alternatives.getOrDefault(index,List.of(routes.get(index)));
+                String route_vph = Float.toString(demand_vph/num_commodities/alts.size());
+                List<Long> subnet_ids = new ArrayList<>();
+                for(List<Long> route : alts) {
+                    jaxb.Subnetwork subnet = new jaxb.Subnetwork();
+                    subnet.setId(subnet_id);
+                    subnet.setIsroute(true);
+                    subnet.setContent(csv(route));
+                    subnetworks.getSubnetwork().add(subnet);
+                    subnet_ids.add(subnet_id);
+
+                    jaxb.Demand dem = new jaxb.Demand();
+                    dem.setCommodityId(c);
+                    dem.setSubnetwork(subnet_id);
+                    dem.setContent(route_vph);
+                    demands.getDemand().add(dem);
+                    subnet_id++;
+                }
+                comm.setSubnetworks(csv(subnet_ids));
+            }
+            else {
+                for(Long source : sources){
+                    jaxb.Demand dem = new jaxb.Demand();
+                    dem.setCommodityId(c);
+                    dem.setLinkId(source);
+                    dem.setContent(vph);
+                    demands.getDemand().add(dem);
+                }
+            }
+            commodities.getCommodity().add(comm);
+        }
+
+        scn.setCommodities(commodities);
+        if(!subnetworks.getSubnetwork().isEmpty())
+            scn.setSubnetworks(subnetworks);
+        scn.setDemands(demands);
+    }
+
+    // pathless splits at every diverge, biased towards the through movement
+    private void make_splits(){
+        if(num_pathfull==num_commodities)
+            return;
+        jaxb.Splits splits = new jaxb.Splits();
+        for(jaxb.Link in : links){
+            List<jaxb.Link> outs = new ArrayList<>();
+            for(jaxb.Link out : node_out.getOrDefault(in.getEndNodeId(),Collections.emptyList()))
+                if(!Objects.equals(reverse.get(in.getId()),out.getId()))
+                    outs.add(out);
+            if(outs.size()<2)
+                continue;
+
+            jaxb.Link through = null;
+            for(jaxb.Link out : outs)
+                if(is_through(in,out))
+                    through = out;
+
+            for(long c=num_pathfull+1;c<=num_commodities;c++){
+                jaxb.SplitNode sn = new jaxb.SplitNode();
+                sn.setCommodityId(c);
+                sn.setNodeId(in.getEndNodeId());
+                sn.setLinkIn(in.getId());
+                for(jaxb.Link out : outs){
+                    double value = through==null ? 1d/outs.size() :
+                            out==through ? through_split : (1d-through_split)/(outs.size()-1);
+                    jaxb.Split split = new jaxb.Split();
+                    split.setLinkOut(out.getId());
+                    split.setContent(String.format("%f",value));
+                    sn.getSplit().add(split);
+                }
+                splits.getSplitNode().add(sn);
+            }
+        }
+        if(!splits.getSplitNode().isEmpty())
+            scn.setSplits(splits);
+    }
+
+    private void make_models(){
+        jaxb.Models jmodels = new jaxb.Models();
+        if(models.size()==1)
+            jmodels.getModel().add(model(models.get(0),null));
+        else {
+            List<StringBuilder> model_links = new ArrayList<>();
+            for(int i=0;i<models.size();i++)
+                model_links.add(new StringBuilder());
+            for(int i=0;i<links.size();i++){
+                StringBuilder sb = model_links.get(i*models.size()/links.size());
+                sb.append(sb.length()==0 ? "" : ",").append(links.get(i).getId());
+            }
+            for(int i=0;i<models.size();i++)
+                if(model_links.get(i).length()>0)
+                    jmodels.getModel().add(model(models.get(i),model_links.get(i).toString()));
+        }
+        scn.setModels(jmodels);
+    }
+
+    ////////////////////////////////////////
+    // helpers
+    ////////////////////////////////////////
+
+    private long add_node(float x,float y){
+        jaxb.Node node = new jaxb.Node();
+        node.setId(nodes.size());
+        node.setX(x);
+        node.setY(y);
+        nodes.add(node);
+        node_map.put(node.getId(),node);
+        return node.getId();
+    }
+
+    private long add_link(long start,long end,int lanes,long roadparam,Long roadgeom){
+        jaxb.Link link = new jaxb.Link();
+        link.setId(links.size()+1);
+        link.setStartNodeId(start);
+        link.setEndNodeId(end);
+        link.setFullLanes(lanes);
+        link.setLength(link_length);
+        link.setRoadparam(roadparam);
+        link.setRoadgeom(roadgeom);
+        links.add(link);
+        node_out.computeIfAbsent(start,k->new ArrayList<>()).add(link);
+        node_in.computeIfAbsent(end,k->new ArrayList<>()).add(link);
+        return link.getId();
+    }
+
+    private void set_reverse(long a,long b){
+        reverse.put(a,b);
+        reverse.put(b,a);
+    }
+
+    // model for the i'th link, in order of creation
+    private String model_for_link_index(int i){
+        int num_links = links.size();
+        return models.get((int)((long)i*models.size()/num_links));
+    }
+
+    private boolean is_through(jaxb.Link in,jaxb.Link out){
+        jaxb.Node a = node_map.get(in.getStartNodeId());
+        jaxb.Node b = node_map.get(in.getEndNodeId());
+        jaxb.Node c = node_map.get(out.getEndNodeId());
+        double ux = b.getX()-a.getX(), uy = b.getY()-a.getY();
+        double vx = c.getX()-b.getX(), vy = c.getY()-b.getY();
+        double cos = (ux*vx+uy*vy)/Math.sqrt((ux*ux+uy*uy)*(vx*vx+vy*vy));
+        return cos>0.99;
+    }
+
+    private jaxb.Model model(String type,String link_ids){
+        jaxb.Model model = new jaxb.Model();
+        model.setType(type);
+        model.setName(type);
+        if(link_ids==null)
+            model.setIsDefault(true);
+        else
+            model.setLinks(link_ids);
+        if(!type.equals("spaceq")){
+            jaxb.ModelParams params = new jaxb.ModelParams();
+            params.setSimDt(sim_dt);
+            if(type.equals("ctm")) {
+                params.setMaxCellLength(max_cell_length);
+                if(auto_dt)
+                    params.setAutoDt(true);
+            }
+            model.setModelParams(params);
+        }
+        return model;
+    }
+
+    private static jaxb.Roadparam roadparam(long id,String name,float capacity,float speed,float jam_density){
+        jaxb.Roadparam rp = new jaxb.Roadparam();
+        rp.setId(id);
+        rp.setName(name);
+        rp.setCapacity(capacity);
+        rp.setSpeed(speed);
+        rp.setJamDensity(jam_density);
+        return rp;
+    }
+
+    private static jaxb.Phase phase(long id,String rcs){
+        jaxb.Phase phase = new jaxb.Phase();
+        phase.setId(id);
+        phase.setRoadconnectionIds(rcs);
+        return phase;
+    }
+
+    private static jaxb.Stage stage(String phases,float duration){
+        jaxb.Stage stage = new jaxb.Stage();
+        stage.setPhases(phases);
+        stage.setDuration(duration);
+        return stage;
+    }
+
+    private static jaxb.Parameter parameter(String name,String value){
+        jaxb.Parameter p = new jaxb.Parameter();
+        p.setName(name);
+        p.setValue(value);
+        return p;
+    }
+
+    private static String csv(List<Long> x){
+        StringBuilder sb = new StringBuilder();
+        for(Long v : x)
+            sb.append(sb.length()==0 ? "" : ",").append(v);
+        return sb.toString();
+    }
+
+}
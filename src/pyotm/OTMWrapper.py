@@ -6,6 +6,11 @@ import numpy as np
 # from random import sample
 # import networkx as nx
 from os import path
+import gzip
+
+def open_output(filename):
+    """Open an output text file, decompressing on the fly if it is gzipped."""
+    return gzip.open(filename, 'rt') if filename.endswith('.gz') else open(filename)
 
 class OTMWrapper:
     """Provides a connection to the OTM API via py4j. Also includes convenience methods for running simulations and
@@ -122,33 +127,20 @@ class OTMWrapper:
 
     def get_links_table(self):
         """Creates a pandas dataframe with network link information."""
+        import pandas as pd
+
+        cols = list(self.otm.get_links_table_columns())
+        table = np.frombuffer(self.otm.get_links_table_bytes(), dtype='<f8').reshape(-1, len(cols))
+        df = pd.DataFrame(data=table, columns=cols)
+        for c in ['id', 'lanes', 'start_node', 'end_node']:
+            df[c] = df[c].astype(int)
+        for c in ['is_source', 'is_sink']:
+            df[c] = df[c].astype(bool)
+        return df
 
-        link_ids = []
-        link_lengths = []
-        link_lanes = []
-        link_start = []
-        link_end = []
-        link_is_source = []
-        link_is_sink = []
-        # link_capacity = []
-        # link_ffspeed = []
-        # link_jamdensity = []
-        # link_travel_time = []
-        for link_id in self.otm.scenario().link_ids():
-            link = self.otm.scenario().get_link(link_id)
-            link_ids.append(link_id)
-            link_lengths.append(link.get_full_length())
-            link_lanes.append(link.get_full_lanes())
-            link_start.append(link.get_start_node_id())
-            link_end.append(link.get_end_node_id())
-            link_is_source.append(link.get_is_source())
-            link_is_sink.append(link.get_is_sink())
-            # link_capacity.append(link.get_capacity_vphpl())
-            # link_ffspeed.append(link.get_ffspeed_kph())
-            # link_jamdensity.append(link.get_jam_density_vpkpl())
-            # link_travel_time.append(link.get_full_length() * 3.6 / link.get_ffspeed_kph())
-
-        return pd.DataFrame(data={'id': link_ids,'length_meter': link_lengths,'lanes': link_lanes,'start_node': link_start,'end_node': link_end,'is_source': link_is_source,'is_sink': link_is_sink}) #,'capacity_vphpl': link_capacity,'speed_kph': link_ffspeed,'max_vpl': link_jamdensity,'travel_time_sec': link_travel_time})
+    def get_link_vehicles(self):
+        """Current number of vehicles in each link, as a numpy array ordered by link id."""
+        return np.frombuffer(self.otm.get_link_vehicles_bytes(), dtype='<f8')
 
     # def to_networkx(self):
     #     """ Creates a networkx graph."""
@@ -166,25 +158,29 @@ class OTMWrapper:
         in a dictionary."""
         X = {'time': None, 'link_ids': None, 'vehs': None, 'flows_vph': None, 'speed_kph': None}
         output_data = self.otm.output().get_data()
+        outputs = []
         it = output_data.iterator()
         while (it.hasNext()):
 
             output = it.next()
+            classname = output.getClass().getSimpleName()
+            if classname not in ("OutputLinkFlow", "OutputLinkVehicles"):
+                continue
+
+            link_ids = np.frombuffer(self.otm.output().get_link_ids_bytes(output), dtype='<i8')
+            time = np.frombuffer(self.otm.output().get_time_bytes(output), dtype='<f8')
 
-            # collect common link ids
+            # collect common link ids and time vector
             if X['link_ids'] is None:
-                link_list = list(output.get_link_ids())
-                X['link_ids'] = np.array(link_list)
-            else:
-                if not np.array_equal(X['link_ids'], np.array(list(output.get_link_ids()))):
-                    raise ValueError('incompatible output requests')
-
-            # collect common time vector
-            if X['time'] is None:
-                X['time'] = np.array(list(output.get_time()))
-            else:
-                if not np.array_equal(X['time'], np.array(list(output.get_time()))):
-                    raise ValueError('incompatible output requests')
+                X['link_ids'] = link_ids
+                X['time'] = time
+            elif not np.array_equal(X['link_ids'], link_ids) or not np.array_equal(X['time'], time):
+                raise ValueError('incompatible output requests')
+
+            outputs.append((classname, output))
+
+        if X['link_ids'] is None:
+            return X
 
         # initialize outputs
         num_time = len(X['time'])
@@ -193,38 +189,19 @@ class OTMWrapper:
         X['vehs'] = np.empty([num_links, num_time])
         X['flows_vph'] = np.empty([num_links, num_time])
 
-        it = output_data.iterator()
-        while (it.hasNext()):
-            output = it.next()
-
-            for i in range(len(link_list)):
-                z = output.get_profile_for_linkid(link_list[i])
-                classname = output.getClass().getSimpleName()
-                if (classname == "OutputLinkFlow"):
-                    X['flows_vph'][i, 0:-1] = np.diff(np.array(list(z.get_values()))) * 3600.0 / z.get_dt()
-                if (classname == "OutputLinkVehicles"):
-                    X['vehs'][i, :] = np.array(list(z.get_values()))
-
-        # X['speed_kph'] = np.empty([num_links, num_time])
-        # for i in range(len(link_list)):
-        #     link = self.otm.scenario().get_link(link_list[i])
-        #     if link.get_is_source():
-        #         X['speed_kph'][i, :] = np.nan;
-        #     else:
-        #         ffspeed_kph = link.get_ffspeed_kph()
-        #         link_length_km = link.get_full_length() / 1000.0;
-
-        #         with np.errstate(divide='ignore', invalid='ignore'):
-        #             speed_kph = np.nan_to_num(link_length_km * np.divide(X['flows_vph'][i], X['vehs'][i]));
-        #         speed_kph[speed_kph > ffspeed_kph] = ffspeed_kph;
-        #         X['speed_kph'][i] = speed_kph;
+        for classname, output in outputs:
+            values = np.frombuffer(self.otm.output().get_values_bytes(output), dtype='<f8').reshape(num_links, num_time)
+            if (classname == "OutputLinkFlow"):
+                X['flows_vph'][:, 0:-1] = np.diff(values, axis=1) * 3600.0 / output.get_outdt()
+            if (classname == "OutputLinkVehicles"):
+                X['vehs'][:, :] = values
 
         return X
 
     def read_lg_file(self,filename):
         # read lane group output file
         x = []
-        with open(filename) as fp:
+        with open_output(filename) as fp:
             while True:
                 line = fp.readline()
                 if not line:
@@ -240,7 +217,7 @@ class OTMWrapper:
     def read_cell_file(self,filename):
         # read cell output file
         x = []
-        with open(filename) as fp:
+        with open_output(filename) as fp:
             while True:
                 line = fp.readline()
                 if not line:
@@ -271,6 +248,10 @@ class OTMWrapper:
         colsfile = "{0}/{1}_{2}_{3}_{4}_cols.txt".format(output_folder, prefix, comm, granularity, quantity)
         timefile = "{0}/{1}_{2}_{3}_{4}_time.txt".format(output_folder, prefix, comm, granularity, quantity)
 
+        # compressed outputs have a .gz extension. numpy and open_output stream them.
+        datafile, colsfile, timefile = [f + '.gz' if not path.exists(f) and path.exists(f + '.gz') else f
+                                        for f in (datafile, colsfile, timefile)]
+
         if not path.exists(datafile):
             print("Error: File not found: " + datafile)
             return (None, None, None)
@@ -0,0 +1,44 @@
+"""Round trip of a gzip compressed output through open_output. Runs the jar used by JavaConnect on the
+output_test scenario, with the same output requested with and without compression."""
+
+import os
+import shutil
+import subprocess
+import tempfile
+import unittest
+from pyotm.OTMWrapper import open_output
+
+this_folder = os.path.dirname(os.path.abspath(__file__))
+jar_file_name = os.path.join(this_folder, 'otm-sim-1.0-SNAPSHOT-jar-with-dependencies.jar')
+config_file = os.path.join(this_folder, '..', 'test', 'resources', 'test_configs', 'output_test.xml')
+
+output_requests = """<output_requests xmlns="opentrafficmodels">
+	<output_request quantity="link_veh" dt="10" compression="none" />
+	<output_request quantity="link_veh" dt="10" compression="gzip" />
+</output_requests>"""
+
+class TestOpenOutput(unittest.TestCase):
+
+    @unittest.skipUnless(os.path.isfile(jar_file_name), "Jar file missing")
+    def test_gzip_round_trip(self):
+        folder = tempfile.mkdtemp()
+        try:
+            requests_file = os.path.join(folder, 'requests.xml')
+            with open(requests_file, 'w') as f:
+                f.write(output_requests)
+            subprocess.check_call(['java', '-jar', jar_file_name, '-run', config_file, 'x', requests_file, folder, '0', '600'])
+
+            compressed = [f for f in os.listdir(folder) if f.endswith('.gz')]
+            self.assertTrue(compressed)
+            for name in compressed:
+                with open_output(os.path.join(folder, name[:-3])) as f:
+                    plain = f.read()
+                with open_output(os.path.join(folder, name)) as f:
+                    unzipped = f.read()
+                self.assertTrue(plain)
+                self.assertEqual(plain, unzipped)
+        finally:
+            shutil.rmtree(folder)
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,89 @@
+package benchmark;
+
+import core.OTM;
+import dispatch.Dispatcher;
+import dispatch.EventPoke;
+import dispatch.Pokable;
+import error.OTMException;
+import org.openjdk.jmh.annotations.*;
+import xml.ScenarioGenerator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event throughput of the dispatcher, both for a bare event queue and for a
+ * loaded synthetic scenario.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatcherBenchmark {
+
+    public static final int num_events = 10000;
+
+    @State(Scope.Thread)
+    public static class QueueState {
+
+        Dispatcher dispatcher;
+        float [] timestamps;
+        Pokable noop = (dispatcher,timestamp) -> {};
+
+        @Setup(Level.Trial)
+        public void setup() {
+            dispatcher = new Dispatcher();
+            Random random = new Random(0);
+            timestamps = new float[num_events];
+            for(int i=0;i<num_events;i++)
+                timestamps[i] = 3600f*random.nextFloat();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScenarioState {
+
+        @Param({"line","grid","freeway"})
+        public String topology;
+
+        @Param({"10","30"})
+        public int size;
+
+        @Param({"ctm","spaceq"})
+        public String model;
+
+        OTM otm;
+
+        @Setup(Level.Trial)
+        public void setup() throws OTMException {
+            otm = new OTM(new ScenarioGenerator(topology,size).set_options("models="+model).generate(),false);
+            otm.initialize(0f);
+            otm.advance(600f);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws OTMException {
+            otm.terminate();
+        }
+    }
+
+    /** Register and dispatch a batch of no-op events. Score is per event. **/
+    @Benchmark
+    @OperationsPerInvocation(num_events)
+    public float register_and_dispatch(QueueState s) throws OTMException {
+        s.dispatcher.initialize();
+        for(float t : s.timestamps)
+            s.dispatcher.register_event(new EventPoke(s.dispatcher,60,t,s.noop));
+        s.dispatcher.dispatch_events_to_stop();
+        return s.dispatcher.current_time;
+    }
+
+    /** Advance a loaded scenario by one minute of simulation time. **/
+    @Benchmark
+    public float advance_one_minute(ScenarioState s) throws OTMException {
+        s.otm.advance(60f);
+        return s.otm.get_current_time();
+    }
+
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import core.Link;
+import core.OTM;
+import core.RoadConnection;
+import core.packet.PacketLaneGroup;
+import core.packet.PacketLink;
+import error.OTMException;
+import models.fluid.ctm.ModelCTM;
+import models.fluid.nodemodel.NodeModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import xml.ScenarioGenerator;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of the fluid model: intra-link state update, node model flows and packet splitting.
+ * The scenario is loaded for ten minutes before measuring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FluidModelBenchmark {
+
+    @Param({"line","grid","freeway"})
+    public String topology;
+
+    @Param({"10","30"})
+    public int size;
+
+    OTM otm;
+    ModelCTM model;
+    float timestamp;
+    List<Link> links;
+    List<NodeModel> node_models;
+    List<Link> packet_links;
+    List<PacketLink> packets;
+
+    @Setup(Level.Trial)
+    public void setup() throws OTMException {
+        otm = new OTM(new ScenarioGenerator(topology,size).generate(),false);
+        otm.initialize(0f);
+        otm.advance(600f);
+
+        model = (ModelCTM) otm.scenario.models.get("ctm");
+        timestamp = otm.get_current_time();
+        links = new ArrayList<>(model.links);
+
+        node_models = new ArrayList<>();
+        for(Long node_id : otm.scenario.network.nodes.keySet()){
+            NodeModel nm = model.get_node_model_for_node(node_id);
+            if(nm!=null)
+                node_models.add(nm);
+        }
+
+        // one packet per road connection, one vehicle per commodity
+        packet_links = new ArrayList<>();
+        packets = new ArrayList<>();
+        for(RoadConnection rc : otm.scenario.network.road_connections.values()){
+            Link link = rc.get_end_link();
+            if(link==null)
+                continue;
+            Map<core.State,Double> state2vehicles = new HashMap<>();
+            for(Long comm_id : otm.scenario.commodities.keySet())
+                state2vehicles.put(new core.State(comm_id,link.getId(),false),1d);
+            packet_links.add(link);
+            packets.add(new PacketLink(state2vehicles,rc));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws OTMException {
+        otm.terminate();
+    }
+
+    /** ModelCTM.update_link_state on every link, with demands and supplies refreshed first. **/
+    @Benchmark
+    public void ctm_update_link_state() throws OTMException {
+        for(Link link : links) {
+            model.compute_lanechange_demand_supply(link, timestamp);
+            model.update_link_state(link, timestamp);
+        }
+    }
+
+    /** NodeModel.update_flow on every node. **/
+    @Benchmark
+    public void node_model_update_flow(){
+        for(NodeModel nm : node_models)
+            nm.update_flow(timestamp);
+    }
+
+    /** Link.split_packet for a packet entering through every road connection. **/
+    @Benchmark
+    public void link_split_packet(Blackhole bh){
+        for(int i=0;i<packets.size();i++) {
+            Map<Long, PacketLaneGroup> x = packet_links.get(i).split_packet(packets.get(i));
+            bh.consume(x);
+        }
+    }
+
+    /** One complete model step: update_flow followed by the state update of every link. **/
+    @Benchmark
+    public void ctm_step() throws OTMException {
+        model.update_flow(timestamp);
+        for(Link link : links)
+            model.update_link_state(link, timestamp);
+    }
+
+}
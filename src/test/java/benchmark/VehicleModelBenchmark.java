@@ -0,0 +1,56 @@
+package benchmark;
+
+import core.OTM;
+import error.OTMException;
+import org.openjdk.jmh.annotations.*;
+import xml.ScenarioGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vehicle model steps on a loaded scenario. A spaceq step is dominated by
+ * MesoLaneGroup.release_vehicle_packets and the transit-to-waiting events, a micro
+ * step by ModelNewell.update_state. Both need the dispatcher to keep demand and
+ * release events flowing, so each operation advances the simulation by one sim_dt.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VehicleModelBenchmark {
+
+    @Param({"line","grid","freeway"})
+    public String topology;
+
+    @Param({"10","30"})
+    public int size;
+
+    @Param({"spaceq","micro"})
+    public String model;
+
+    OTM otm;
+    float sim_dt;
+
+    @Setup(Level.Trial)
+    public void setup() throws OTMException {
+        ScenarioGenerator generator = new ScenarioGenerator(topology,size).set_options("models="+model);
+        sim_dt = generator.sim_dt;
+        otm = new OTM(generator.generate(),false);
+        otm.initialize(0f);
+        otm.advance(600f);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws OTMException {
+        otm.terminate();
+    }
+
+    @Benchmark
+    public float step() throws OTMException {
+        otm.advance(sim_dt);
+        return otm.get_current_time();
+    }
+
+}
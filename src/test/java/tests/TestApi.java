@@ -2,17 +2,54 @@ package tests;
 
 import control.AbstractController;
 import control.sigint.ControllerSignalFollower;
+import core.AbstractLaneGroup;
+import core.Environment;
+import core.EventFluidModelUpdate;
+import core.FluidSubdomainProcess;
+import core.InMemorySubdomainTransport;
+import core.InterfaceSubdomainTransport;
+import core.Link;
+import core.NetworkGraph;
+import core.NetworkPartition;
 import core.OTM;
+import core.SocketSubdomainTransport;
+import dispatch.AbstractEvent;
+import dispatch.DispatcherProfiler;
+import dispatch.EventPoke;
+import dta.DTA;
 import error.OTMException;
+import models.fluid.FluidLaneGroup;
 import core.AbstractModel;
 import core.AbstractFluidModel;
 import org.junit.Ignore;
+import plugin.InterfaceArrayPolicy;
+import plugin.PluginController;
+import plugin.PluginControllerBatch;
 import org.junit.Test;
+import output.OutputLaneGroupVehicles;
+import output.OutputLinkFlow;
+import output.OutputLinkVehicles;
 import output.animation.AbstractLinkInfo;
 import output.animation.AnimationInfo;
 import output.animation.macro.LaneGroupInfo;
-
+import profiles.Profile1D;
+import traveltime.LinkTravelTimer;
+
+import xml.ScenarioGenerator;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToDoubleFunction;
 
 import static java.util.stream.Collectors.toSet;
 import static org.junit.Assert.*;
@@ -159,4 +196,451 @@ public class TestApi extends AbstractTest {
         assertTrue(!OTM.get_version().isEmpty());
     }
 
+    @Test
+    public void test_profiler() throws Exception {
+        OTM otm = OTM.load_synthetic("grid",3,"models=ctm",true);
+        otm.set_profiling(true);
+        otm.initialize(0f);
+        otm.advance(600f);
+
+        DispatcherProfiler profiler = otm.get_profiler();
+        assertTrue(profiler.getTotalEvents()>0);
+        assertTrue(profiler.event_stats.containsKey(EventFluidModelUpdate.class));
+        String model_name = otm.scenario.models.keySet().iterator().next();
+        assertTrue(profiler.section_stats.get("NodeModel " + model_name).count>0);
+        assertTrue(otm.get_profile_summary().contains("NodeModel " + model_name));
+
+        // the getters are jmx attributes
+        ObjectName name = new ObjectName("otm:type=DispatcherProfiler,name=" + System.identityHashCode(otm));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(profiler.getTotalEvents(),server.getAttribute(name,"TotalEvents"));
+        assertEquals(profiler.getMaxQueueDepth(),server.getAttribute(name,"MaxQueueDepth"));
+
+        // terminate does not print
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured));
+        try {
+            otm.terminate();
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals(0,captured.size());
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void test_telemetry_file() throws Exception {
+        File file = File.createTempFile("telemetry",".jsonl");
+        file.deleteOnExit();
+        OTM otm = OTM.load_synthetic("grid",3,"models=ctm",true);
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);     // comma decimal separator
+        try {
+            otm.initialize(0f);
+            otm.set_telemetry(60f,false,file.getAbsolutePath(),null);
+            otm.advance(600f);
+            otm.terminate();
+        } finally {
+            Locale.setDefault(locale);
+        }
+
+        // one json object per sample
+        String num = "(-?[0-9]+(\\.[0-9]+)?|null)";
+        String line_regex = "\\{\"sim_time\":" + num + ",\"wall_time\":" + num + ",\"sim_wall_ratio\":" + num +
+                ",\"events\":[0-9]+,\"events_per_sec\":" + num + ",\"vehicles\":" + num + ",\"heap_used_mb\":" + num +
+                ",\"model_ms\":\\{(\"[^\"]+\":" + num + ",?)*\\}\\}";
+        List<String> lines = java.nio.file.Files.readAllLines(file.toPath());
+        assertEquals(10,lines.size());
+        for(int i=0;i<lines.size();i++){
+            assertTrue(lines.get(i),lines.get(i).matches(line_regex));
+            assertTrue(lines.get(i).startsWith(String.format(Locale.ROOT,"{\"sim_time\":%.1f,",60f*(i+1))));
+        }
+    }
+
+    @Test
+    public void test_network_graph() throws OTMException {
+        OTM otm = OTM.load_synthetic("grid",3,"models=ctm",true);
+        NetworkGraph graph = otm.scenario.network.get_graph();
+        assertEquals(otm.scenario.network.links.size(),graph.num_links());
+        for(Link link : otm.scenario.network.links.values()){
+            int l = graph.link_index(link.getId());
+            Set<Long> next = new HashSet<>();
+            for(int a=graph.link_out_begin(l);a<graph.link_out_end(l);a++)
+                next.add(graph.links[graph.link_out_link(a)].getId());
+            assertEquals(new HashSet<>(link.get_outlink_ids()),next);
+        }
+        Link source = otm.scenario.network.links.values().stream().filter(Link::is_source).findFirst().get();
+        Link sink = otm.scenario.network.links.values().stream().filter(Link::is_sink).findFirst().get();
+        assertTrue(graph.is_reachable(source.getId(),sink.getId()));
+        assertFalse(graph.is_reachable(sink.getId(),source.getId()));
+    }
+
+    @Test
+    public void test_subdomains() throws OTMException {
+        Map<Long,Double> serial = run_grid_with_subdomains(1);
+        Map<Long,Double> parallel = run_grid_with_subdomains(3);
+        for(Long link_id : serial.keySet())
+            assertEquals(serial.get(link_id),parallel.get(link_id),1e-9);
+    }
+
+    private static Map<Long,Double> run_grid_with_subdomains(int num_subdomains) throws OTMException {
+        OTM otm = OTM.load_synthetic("grid",4,"commodities=2,pathfull=1,models=ctm",true);
+        AbstractFluidModel model = (AbstractFluidModel) otm.scenario.models.values().iterator().next();
+        model.set_num_subdomains(num_subdomains);
+        if(num_subdomains>1)
+            assertEquals(num_subdomains,model.get_partition().num_parts);
+        otm.initialize(0f);
+        otm.advance(600f);
+        Map<Long,Double> veh = new HashMap<>();
+        for(Link link : otm.scenario.network.links.values())
+            veh.put(link.getId(),link.get_veh());
+        otm.terminate();
+        return veh;
+    }
+
+    @Test
+    public void test_subdomain_processes() throws Exception {
+        Map<Long,double[][]> serial = run_grid_with_subdomain_processes(1,false);
+        Map<Long,double[][]> in_memory = run_grid_with_subdomain_processes(3,false);
+        Map<Long,double[][]> sockets = run_grid_with_subdomain_processes(3,true);
+        assertEquals(serial.keySet(),in_memory.keySet());
+        for(Long link_id : serial.keySet())
+            for(int i=0;i<serial.get(link_id).length;i++){
+                assertArrayEquals(serial.get(link_id)[i],in_memory.get(link_id)[i],1e-9);
+                assertArrayEquals(serial.get(link_id)[i],sockets.get(link_id)[i],1e-9);
+            }
+    }
+
+    // link id -> {final vehicles in the subdomain of the link}, then the outputs of subdomain 0:
+    // {vehicles}, {flow}, {vehicles of each lanegroup}...
+    private static Map<Long,double[][]> run_grid_with_subdomain_processes(int num_parts,boolean sockets) throws Exception {
+
+        // one scenario per subdomain, loaded one at a time
+        List<OTM> otms = new ArrayList<>();
+        for(int p=0;p<num_parts;p++){
+            OTM otm = OTM.load_synthetic("grid",4,"commodities=2,pathfull=1,models=ctm",true);
+            otm.output.request_links_veh(null,null,null,null,60f);
+            otm.output.request_links_flow(null,null,null,null,60f);
+            otm.output.request_lanegroup_veh(null,null,null,null,60f);
+            otms.add(otm);
+        }
+
+        // the same partition for every subdomain
+        Map<Long,Integer> link2part = new HashMap<>();
+        if(num_parts>1){
+            AbstractFluidModel model = (AbstractFluidModel) otms.get(0).scenario.models.values().iterator().next();
+            link2part.putAll(NetworkPartition.create(otms.get(0).scenario.network,model.links,num_parts,NetworkPartition.get_cost(1d,1d,0d)).link2part);
+        }
+
+        InterfaceSubdomainTransport [] transports = sockets ? null : InMemorySubdomainTransport.create(num_parts,60000);
+        List<ServerSocket> servers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        if(sockets)
+            for(int p=0;p<num_parts;p++){
+                ServerSocket server = new ServerSocket(0,50,InetAddress.getLoopbackAddress());
+                servers.add(server);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),server.getLocalPort()));
+            }
+
+        ExecutorService executor = Executors.newFixedThreadPool(num_parts);
+        List<Future<FluidSubdomainProcess>> futures = new ArrayList<>();
+        for(int p=0;p<num_parts;p++){
+            final int part = p;
+            futures.add(executor.submit(()->{
+                OTM otm = otms.get(part);
+                if(num_parts==1){
+                    otm.run(0f,600f);
+                    return null;
+                }
+                AbstractFluidModel model = (AbstractFluidModel) otm.scenario.models.values().iterator().next();
+                NetworkPartition partition = new NetworkPartition(otm.scenario.network,model.links,link2part,NetworkPartition.get_cost(1d,1d,0d));
+                InterfaceSubdomainTransport transport = sockets ?
+                        new SocketSubdomainTransport(part,servers.get(part),addresses,60000) :
+                        transports[part];
+                try {
+                    FluidSubdomainProcess process = model.set_subdomain_process(partition,transport);
+                    assertTrue(process.get_neighbors().length>0);
+                    otm.run(0f,600f);
+                    process.gather_outputs();
+                    return process;
+                } finally {
+                    transport.close();
+                }
+            }));
+        }
+        for(Future<FluidSubdomainProcess> f : futures)
+            f.get();
+        executor.shutdown();
+
+        OTM otm0 = otms.get(0);
+        OutputLinkVehicles veh = (OutputLinkVehicles) otm0.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+        OutputLinkFlow flow = (OutputLinkFlow) otm0.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkFlow).findFirst().get();
+        OutputLaneGroupVehicles lgveh = (OutputLaneGroupVehicles) otm0.output.get_data().stream()
+                .filter(x->x instanceof OutputLaneGroupVehicles).findFirst().get();
+        Map<Long,double[][]> x = new HashMap<>();
+        for(Link link : otm0.scenario.network.links.values()){
+            OTM owner = otms.get(link2part.getOrDefault(link.getId(),0));
+            List<double[]> values = new ArrayList<>();
+            values.add(new double[]{owner.scenario.network.links.get(link.getId()).get_veh()});
+            values.add(veh.get_profile_for_linkid(link.getId()).get_values().stream().mapToDouble(v->v).toArray());
+            values.add(flow.get_flow_for_link_in_vph(link.getId()).stream().mapToDouble(v->v).toArray());
+            Map<Long,Profile1D> lgs = lgveh.get_profiles_for_linkid(link.getId());
+            for(AbstractLaneGroup lg : link.get_lgs())
+                values.add(lgs.get(lg.getId()).get_values().stream().mapToDouble(v->v).toArray());
+            x.put(link.getId(),values.toArray(new double[0][]));
+        }
+        return x;
+    }
+
+    @Test
+    public void test_auto_dt() throws OTMException {
+        OTM otm = OTM.load_synthetic("freeway",3,"models=ctm,sim_dt=auto,hov=true",true);
+        AbstractFluidModel model = (AbstractFluidModel) otm.scenario.models.values().iterator().next();
+        assertTrue(model.auto_dt);
+        assertTrue(model.get_num_cells()>0);
+        assertFalse(otm.get_discretization_summary().isEmpty());
+
+        // stable, and within a tenth of a second of the limit
+        double cfl = 0d;
+        for(Link link : model.links)
+            if(!link.is_source())
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    cfl = Math.max(cfl,Math.max(((FluidLaneGroup) lg).ffspeed_cell_per_dt,((FluidLaneGroup) lg).wspeed_cell_per_dt));
+        assertTrue(cfl<=1d);
+        assertTrue(cfl*(model.dt_sec+0.1)/model.dt_sec>1d);
+        otm.run(0f,300f);
+    }
+
+    @Test
+    public void test_plugin_batch() throws OTMException {
+
+        // meters follow the queue on their on-ramp
+        InterfaceArrayPolicy policy = (t,x,u) -> {
+            for(int i=0;i<u.length;i++)
+                u[i] = 0.1 + 0.01*x[i*PluginController.values_per_sensor+1];
+        };
+
+        // one controller
+        int [] calls = new int[1];
+        OTM otm = load_freeway_with_plugins(1);
+        PluginController single = (PluginController) otm.scenario.controllers.values().iterator().next();
+        single.policy = (t,x,u) -> {
+            calls[0]++;
+            policy.update(t,x,u);
+        };
+        otm.initialize(0f);
+        otm.advance(1800f);
+        for(AbstractEvent e : otm.scenario.dispatcher.events)
+            assertFalse(e instanceof EventPoke && single.actuators.containsValue(e.recipient));
+        assertEquals(8,single.num_measurements()/PluginController.values_per_sensor);
+        assertEquals(8,single.num_commands());
+        assertEquals(1800/30+1,calls[0]);
+        double delay = otm.scenario.kpis.get_delay(null,null,1800f);
+        otm.terminate();
+
+        // the same actuators in two controllers, updated together
+        calls[0] = 0;
+        otm = load_freeway_with_plugins(2);
+        List<PluginController> members = new ArrayList<>();
+        for(AbstractController c : otm.scenario.controllers.values())
+            members.add((PluginController) c);
+        members.sort(Comparator.comparing(c->c.id));
+        PluginControllerBatch batch = new PluginControllerBatch(otm.scenario,30f,(t,x,u) -> {
+            calls[0]++;
+            assertEquals(16,x.length);
+            assertEquals(8,u.length);
+            policy.update(t,x,u);
+        },members);
+        assertEquals(4,batch.get_command_offset(members.get(1)));
+        otm.initialize(0f);
+        otm.advance(1800f);
+        assertEquals(1800/30+1,calls[0]);
+        assertEquals(delay,otm.scenario.kpis.get_delay(null,null,1800f),1e-6);
+        otm.terminate();
+    }
+
+    // freeway with one fixed sensor per on-ramp, and the ramp meters split over plugin controllers
+    private static OTM load_freeway_with_plugins(int num_controllers) throws OTMException {
+        return new OTM(freeway_with_plugins(num_controllers),true);
+    }
+
+    private static jaxb.Scenario freeway_with_plugins(int num_controllers) throws OTMException {
+        jaxb.Scenario jscn = new ScenarioGenerator("freeway",8).set_options("models=ctm,lanes=1,demand=1000,ramp_meters=true").generate();
+        List<jaxb.Actuator> acts = jscn.getActuators().getActuator();
+        acts.sort(Comparator.comparing(jaxb.Actuator::getId));
+        jscn.setSensors(new jaxb.Sensors());
+        jscn.getControllers().getController().clear();
+        for(int c=0;c<num_controllers;c++){
+            jaxb.Controller cntr = new jaxb.Controller();
+            cntr.setId(c+1);
+            cntr.setType("plugin");
+            cntr.setDt(30f);
+            jaxb.TargetActuators tas = new jaxb.TargetActuators();
+            jaxb.FeedbackSensors fss = new jaxb.FeedbackSensors();
+            List<String> act_ids = new ArrayList<>();
+            List<String> sensor_ids = new ArrayList<>();
+            for(int i=c*acts.size()/num_controllers;i<(c+1)*acts.size()/num_controllers;i++){
+                jaxb.Actuator act = acts.get(i);
+                String lgs = act.getActuatorTarget().getLanegroups();
+                jaxb.Sensor sensor = new jaxb.Sensor();
+                sensor.setId(act.getId());
+                sensor.setType("fixed");
+                sensor.setLinkId(Long.parseLong(lgs.substring(0,lgs.indexOf('('))));
+                sensor.setDt(30f);
+                jscn.getSensors().getSensor().add(sensor);
+                act_ids.add(Long.toString(act.getId()));
+                sensor_ids.add(Long.toString(sensor.getId()));
+            }
+            tas.setIds(String.join(",",act_ids));
+            fss.setIds(String.join(",",sensor_ids));
+            cntr.setTargetActuators(tas);
+            cntr.setFeedbackSensors(fss);
+            jscn.getControllers().getController().add(cntr);
+        }
+        return jscn;
+    }
+
+    @Test
+    public void test_environment() throws OTMException {
+        jaxb.Scenario jscn = freeway_with_plugins(2);
+        Environment env = new Environment(jscn,3,0f,30f,1);
+        assertEquals(8,env.num_actions);
+        assertEquals(16,env.num_observations);
+
+        // the first copy is metered, the others are not
+        double [] a = new double[3*8];
+        Arrays.fill(a,Double.NaN);
+        Arrays.fill(a,0,8,0.1);
+        double [][] rewards = run_environment(env,a);
+        assertEquals(rewards[1][0],rewards[2][0],1e-9);
+        assertNotEquals(rewards[0][0],rewards[1][0],1e-3);
+
+        // reset restores the initial state
+        assertArrayEquals(rewards[0],run_environment(env,a)[0],1e-9);
+        env.close();
+
+        // parallel stepping gives the same result
+        env = new Environment(jscn,3,0f,30f,3);
+        assertArrayEquals(rewards[0],run_environment(env,a)[0],1e-9);
+        env.close();
+    }
+
+    // copy -> (total reward, final observation of the first on-ramp)
+    private static double [][] run_environment(Environment env,double [] a) throws OTMException {
+        env.reset(0L);
+        double [][] x = new double[env.num_copies][2];
+        for(int s=0;s<60;s++){
+            double [] r = env.step(a);
+            for(int k=0;k<env.num_copies;k++)
+                x[k][0] += r[k];
+        }
+        for(int k=0;k<env.num_copies;k++)
+            x[k][1] = env.get_observations()[k*env.num_observations+1];
+        assertEquals(1800f,env.get_time(0),0f);
+        return x;
+    }
+
+    @Test
+    public void test_partition() throws Exception {
+        OTM otm = OTM.load_synthetic("grid",5,"models=ctm",true);
+        Collection<Link> links = otm.scenario.network.links.values();
+        ToDoubleFunction<Link> cost = NetworkPartition.get_cost(1d,1d,0d);
+        NetworkPartition p1 = NetworkPartition.create(otm.scenario.network,links,4,cost);
+        NetworkPartition p2 = NetworkPartition.create(otm.scenario.network,links,4,cost);
+        assertEquals(4,p1.num_parts);
+        assertEquals(p1.link2part,p2.link2part);
+        assertTrue(p1.get_edge_cut()>0);
+        assertTrue(p1.get_imbalance()<1.2);
+
+        // file round trip
+        File file = File.createTempFile("partition",".txt");
+        file.deleteOnExit();
+        p1.write(file.getAbsolutePath());
+        NetworkPartition p3 = NetworkPartition.read(otm.scenario.network,links,file.getAbsolutePath(),cost);
+        assertEquals(p1.link2part,p3.link2part);
+        assertEquals(p1.node2part,p3.node2part);
+        assertEquals(p1.get_edge_cut(),p3.get_edge_cut());
+    }
+
+    @Test
+    public void test_dta() throws OTMException {
+        OTM otm = OTM.load_synthetic("grid",3,"pathfull=1,routes=2,models=ctm",true);
+        DTA dta = new DTA(otm,10f);
+        assertEquals(1,dta.ods.size());
+        assertEquals(2,dta.ods.get(0).generators.size());
+
+        dta.run(4,0f,1800f);
+
+        // the gap decreases, and the shares of each interval sum to one
+        assertEquals(4,dta.relative_gap.size());
+        assertTrue(dta.relative_gap.get(3)<dta.relative_gap.get(0));
+        assertTrue(dta.relative_gap.stream().allMatch(x->x>=0d));
+        List<Long> path_ids = dta.ods.get(0).get_path_ids();
+        double [] s1 = dta.get_shares(path_ids.get(0));
+        double [] s2 = dta.get_shares(path_ids.get(1));
+        for(int i=0;i<s1.length;i++)
+            assertEquals(1d,s1[i]+s2[i],1e-9);
+
+        DTA.OD od = dta.ods.get(0);
+        List<Long> sp = dta.get_shortest_path(od.origin_id,od.destination_id,0f);
+        assertNotNull(sp);
+        assertEquals(od.origin_id,(long) sp.get(0));
+        assertEquals(od.destination_id,(long) sp.get(sp.size()-1));
+        assertNull(od.unpooled_path);
+    }
+
+    @Test
+    public void test_dta_unpooled_path() throws OTMException {
+
+        // one path per od, with a bottleneck on its last link before the destination
+        jaxb.Scenario jscn = new ScenarioGenerator("grid",3).set_options("pathfull=1,routes=1,models=ctm").generate();
+        OTM otm = new OTM(jscn,true);
+        DTA.OD od = new DTA(otm,10f).ods.get(0);
+        List<Link> links = od.generators.get(0).get_path().get_ordered_links();
+        Link bottleneck = links.get(links.size()-2);
+        jaxb.Event event = new jaxb.Event();
+        event.setId(1L);
+        event.setTimestamp(0f);
+        event.setType("lgfd");
+        event.setEventTarget(new jaxb.EventTarget());
+        event.getEventTarget().setType("lanegroups");
+        event.getEventTarget().setLanegroups(String.format("%d(1#%d)",bottleneck.getId(),bottleneck.get_full_lanes()));
+        jaxb.Parameter p = new jaxb.Parameter();
+        p.setName("capacity");
+        p.setValue("0.1");
+        event.setParameters(new jaxb.Parameters());
+        event.getParameters().getParameter().add(p);
+        jscn.setEvents(new jaxb.Events());
+        jscn.getEvents().getEvent().add(event);
+
+        // the gap is measured against the network shortest path, which avoids the bottleneck
+        otm = new OTM(jscn,true);
+        DTA dta = new DTA(otm,10f);
+        dta.run(1,0f,1800f);
+        od = dta.ods.get(0);
+        assertTrue(dta.relative_gap.get(0)>0d);
+        assertNotNull(od.unpooled_path);
+        assertFalse(od.unpooled_path.contains(bottleneck.getId()));
+        assertEquals(od.origin_id,(long) od.unpooled_path.get(0));
+        assertEquals(od.destination_id,(long) od.unpooled_path.get(od.unpooled_path.size()-1));
+    }
+
+    @Test
+    public void test_dta_history() throws OTMException {
+
+        // the whole run is kept, in this scenario only
+        OTM otm = OTM.load_synthetic("grid",3,"pathfull=1,routes=2,models=ctm",true);
+        new DTA(otm,1f).run(1,0f,1500f);
+        assertEquals(1501,otm.scenario.path_tt_manager.history_size);
+        for(Link link : otm.scenario.network.links.values())
+            assertEquals(1501,link.link_tt.get_num_samples());
+
+        OTM other = OTM.load_synthetic("grid",3,"models=ctm",true);
+        other.scenario.add_link_travel_timers(other.scenario.network.links.values(),1f);
+        assertEquals(LinkTravelTimer.default_history_size,other.scenario.path_tt_manager.history_size);
+    }
+
 }
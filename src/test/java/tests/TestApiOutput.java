@@ -1,14 +1,40 @@
 package tests;
 
+import core.AbstractLaneGroup;
+import core.Link;
 import core.OTM;
 import error.OTMException;
+import models.vehicle.spatialq.MesoVehicle;
 import org.junit.Test;
+import output.AbstractOutputTimedLink;
+import output.OutputAggregate;
+import output.OutputLinkVehicles;
+import output.OutputPipeline;
+import output.OutputPathTravelTime;
+import output.OutputStore;
+import output.OutputSubnetworkVHT;
+import traveltime.LinkTravelTimer;
+import traveltime.VehicleLaneGroupTimer;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class TestApiOutput extends AbstractTest {
 
@@ -98,4 +124,312 @@ public class TestApiOutput extends AbstractTest {
         }
     }
 
+    @Test
+    public void test_bulk_data() throws OTMException {
+
+        OTM otm = OTM.load_test("output_test");
+        otm.output.request_links_veh(null, null, null, null, 10f);
+        otm.run(0f,300f);
+
+        // links table
+        int num_links = otm.scenario.network.links.size();
+        int num_cols = OTM.links_table_columns.length;
+        double [] table = otm.get_links_table_array();
+        assertEquals(num_links*num_cols,table.length);
+        for(int i=0;i<num_links;i++)
+            assertEquals(otm.scenario.network.links.get((long)table[i*num_cols]).get_full_length(),table[i*num_cols+1],1e-3);
+        assertEquals(table[num_cols+1],ByteBuffer.wrap(otm.get_links_table_bytes()).order(ByteOrder.LITTLE_ENDIAN).getDouble(8*(num_cols+1)),0d);
+
+        // output matrix
+        AbstractOutputTimedLink output = (AbstractOutputTimedLink) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+        int num_time = output.get_time().size();
+        double [] values = output.get_values_array();
+        assertEquals(output.ordered_ids.length*num_time,values.length);
+        long link_id = output.ordered_ids[1];
+        assertEquals(output.get_profile_for_linkid(link_id).get_values().get(num_time-1),values[2*num_time-1],0d);
+        assertEquals(8*values.length,otm.output.get_values_bytes(output).length);
+    }
+
+    @Test
+    public void test_output_store() {
+        OutputStore store = new OutputStore(0f,5f,3,true,OutputStore.default_block_size,4);
+        for(int i=0;i<10;i++){
+            store.new_row();
+            for(int j=0;j<3;j++)
+                store.set(j,10*i+j);
+        }
+        assertEquals(3,store.get_num_blocks());
+        assertEquals(6,store.get_block(2).remaining());
+        assertEquals(92d,store.get(9,2),0d);
+        assertEquals(45f,store.get_times().get(9),0f);
+        assertEquals(store.get_profile(1).get_values().get(7),store.get_column(1)[7],0d);
+    }
+
+    @Test
+    public void test_output_pipeline() throws OTMException {
+
+        OutputPipeline pipeline = new OutputPipeline(2,1);
+        int [] lanes = {pipeline.assign_lane(),pipeline.assign_lane()};
+        List<List<Integer>> rows = Arrays.asList(new ArrayList<>(),new ArrayList<>());
+        for(int i=0;i<100;i++)
+            for(int j=0;j<2;j++){
+                final int lane = j, row = i;
+                pipeline.submit(lanes[lane],()->rows.get(lane).add(row));
+            }
+
+        // every task submitted before flush has run, in order, when it returns
+        pipeline.flush();
+        List<Integer> expected = IntStream.range(0,100).boxed().collect(Collectors.toList());
+        assertEquals(expected,rows.get(0));
+        assertEquals(expected,rows.get(1));
+
+        // a writer error is thrown by the next flush, and by close
+        pipeline.submit(lanes[0],()->{ throw new IOException("disk full"); });
+        try {
+            pipeline.flush();
+            fail();
+        } catch (OTMException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            pipeline.close();
+            fail();
+        } catch (OTMException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void test_writer_threads() throws Exception {
+
+        // files written in the background are complete and identical once run returns
+        File dir0 = Files.createTempDirectory("otm_writer0").toFile();
+        File dir2 = Files.createTempDirectory("otm_writer2").toFile();
+        for(File dir : new File[]{dir0,dir2}){
+            OTM otm = OTM.load_test("output_test");
+            otm.output.set_writer_threads(dir==dir0 ? 0 : 2);
+            otm.output.request_links_veh("x", dir.getPath(), null, null, 10f);
+            otm.output.request_links_flow("x", dir.getPath(), null, null, 10f);
+            otm.run(0f,600f);
+        }
+        File [] files = dir0.listFiles();
+        assertTrue(files.length>0);
+        for(File file : files){
+            byte [] x0 = Files.readAllBytes(file.toPath());
+            byte [] x2 = Files.readAllBytes(new File(dir2,file.getName()).toPath());
+            assertTrue(x0.length>0);
+            assertArrayEquals(file.getName(),x0,x2);
+        }
+
+        // a writer error is thrown by terminate, and the files are still closed
+        OTM otm = OTM.load_test("output_test");
+        otm.output.set_writer_threads(1);
+        otm.output.request_links_veh("y", dir2.getPath(), null, null, 10f);
+        otm.initialize(0f);
+        otm.advance(100f);
+        otm.scenario.output_pipeline.submit(0,()->{ throw new IOException("disk full"); });
+        try {
+            otm.terminate();
+            fail();
+        } catch (OTMException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertNull(otm.scenario.output_pipeline);
+
+        for(File dir : new File[]{dir0,dir2}){
+            for(File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void test_compression() throws Exception {
+
+        // the same output, with and without compression
+        File dir = Files.createTempDirectory("otm_gzip").toFile();
+        File requests = new File(dir,"requests.xml");
+        Files.write(requests.toPath(),(
+                "<output_requests xmlns=\"opentrafficmodels\">" +
+                "<output_request quantity=\"link_veh\" dt=\"10\" compression=\"none\" />" +
+                "<output_request quantity=\"link_veh\" dt=\"10\" compression=\"gzip\" />" +
+                "</output_requests>").getBytes(StandardCharsets.UTF_8));
+        OTM otm = OTM.load_test("output_test");
+        otm.run("x",requests.getPath(),dir.getPath(),0f,600f,true);
+
+        Set<String> names = otm.output.get_file_names();
+        assertEquals(1,names.size());
+        String name = names.iterator().next();
+        byte [] plain = Files.readAllBytes(new File(name).toPath());
+        byte [] unzipped;
+        try(InputStream in = new GZIPInputStream(new FileInputStream(name + ".gz"))){
+            unzipped = in.readAllBytes();
+        }
+        assertTrue(plain.length>0);
+        assertArrayEquals(plain,unzipped);
+
+        // values outside none|gzip are rejected by the schema
+        Files.write(requests.toPath(),(
+                "<output_requests xmlns=\"opentrafficmodels\">" +
+                "<output_request quantity=\"link_veh\" dt=\"10\" compression=\"zip\" />" +
+                "</output_requests>").getBytes(StandardCharsets.UTF_8));
+        try {
+            OTM.load_test("output_test").run("y",requests.getPath(),dir.getPath(),0f,600f,true);
+            fail();
+        } catch (OTMException e) {
+            assertTrue(e.getMessage().contains("zip"));
+        }
+
+        for(File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void test_vehicle_lanegroup_timer() throws OTMException {
+
+        OTM otm = OTM.load_test("line_spaceq");
+        Iterator<AbstractLaneGroup> it = otm.scenario.network.links.values().stream()
+                .flatMap(link->link.get_lgs().stream()).iterator();
+        VehicleLaneGroupTimer timer = new VehicleLaneGroupTimer(it.next(),60f);
+
+        // no per vehicle state in the timer
+        for(Field field : VehicleLaneGroupTimer.class.getDeclaredFields())
+            assertTrue(field.getName(),field.getType().isPrimitive());
+
+        // each exit is sampled from the vehicle's own entry time, which is then cleared
+        for(int i=0;i<10000;i++){
+            MesoVehicle vehicle = new MesoVehicle(1L,null);
+            timer.vehicle_enter(i,vehicle);
+            timer.vehicle_exit(i+10+i%3,vehicle,null,null);
+            assertTrue(Float.isNaN(vehicle.link_entry_time));
+        }
+        assertEquals(10000,timer.num_samples);
+        assertEquals(11d,timer.get_mean_and_clear(),1e-3);
+
+        // an exit without an entry is not sampled
+        timer.vehicle_exit(5f,new MesoVehicle(1L,null),null,null);
+        assertFalse(timer.has_samples());
+
+        // a vehicle that enters through one lanegroup and exits through another is sampled
+        if(it.hasNext()){
+            VehicleLaneGroupTimer other = new VehicleLaneGroupTimer(it.next(),60f);
+            MesoVehicle vehicle = new MesoVehicle(1L,null);
+            other.vehicle_enter(3f,vehicle);
+            timer.vehicle_exit(7f,vehicle,null,null);
+            assertEquals(4d,timer.get_mean_and_clear(),0d);
+        }
+
+        // in a run, link travel times are never below free flow
+        otm.scenario.add_link_travel_timers(otm.scenario.network.links.values(),60f);
+        otm.run(0f,3600f);
+        for(Link link : otm.scenario.network.links.values()){
+            LinkTravelTimer tt = link.link_tt;
+            assertEquals(61,tt.get_num_samples());
+            for(int k=0;k<tt.get_num_samples();k++)
+                assertTrue(tt.get_travel_time_for_time(60*k)>=tt.ff_travel_time-1d);
+        }
+    }
+
+    @Test
+    public void test_off_heap_per_scenario() throws OTMException {
+
+        // the settings of one scenario do not leak into another
+        OTM otm1 = OTM.load_test("output_test");
+        OTM otm2 = OTM.load_test("output_test");
+        otm1.output.set_off_heap(true);
+        otm1.scenario.output_max_rows_per_block = 4;
+        otm1.output.request_links_veh(null, null, null, null, 10f);
+        otm2.output.request_links_veh(null, null, null, null, 10f);
+        otm1.run(0f,100f);
+        otm2.run(0f,100f);
+
+        OutputLinkVehicles out1 = (OutputLinkVehicles) otm1.output.get_data().iterator().next();
+        OutputLinkVehicles out2 = (OutputLinkVehicles) otm2.output.get_data().iterator().next();
+        assertTrue(out1.store.is_off_heap());
+        assertFalse(out2.store.is_off_heap());
+        assertEquals(4,out1.store.get_rows_per_block());
+        assertEquals(OutputStore.default_max_rows_per_block,out2.store.get_rows_per_block());
+        assertTrue(out1.store.get_num_blocks()>1);
+        assertArrayEquals(out2.get_values_array(),out1.get_values_array(),0d);
+    }
+
+    @Test
+    public void test_aggregate() throws OTMException {
+
+        OTM otm = OTM.load_test("output_test");
+        otm.output.request_links_veh(null, null, null, null, 10f);
+        otm.output.request_aggregate(null, null, "link_veh", null, null, 10f, 60f, "mean", null, "all", null);
+        otm.output.request_aggregate(null, null, "link_veh", null, null, 10f, 60f, "max", null, "road_type", null);
+        otm.run(0f,300f);
+
+        OutputLinkVehicles raw = (OutputLinkVehicles) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+        OutputAggregate mean = (OutputAggregate) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputAggregate && ((OutputAggregate)x).statistic==OutputAggregate.Statistic.mean).findFirst().get();
+        OutputAggregate max = (OutputAggregate) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputAggregate && ((OutputAggregate)x).statistic==OutputAggregate.Statistic.max).findFirst().get();
+
+        // one row per window, mean of the network total
+        double [] total = new double[raw.get_time().size()];
+        for(long link_id : raw.ordered_ids) {
+            List<Double> values = raw.get_profile_for_linkid(link_id).get_values();
+            for (int i = 0; i < total.length; i++)
+                total[i] += values.get(i);
+        }
+        double [] values = mean.get_values_array();
+        assertEquals(total.length/6,values.length);
+        for(int k=0;k<values.length;k++){
+            double sum = 0d;
+            for(int i=6*k;i<6*k+6;i++)
+                sum += total[i];
+            assertEquals(sum/6,values[k],1e-6);
+        }
+
+        // one row per window and road type
+        assertTrue(max.get_group_labels().size()>=1);
+        assertEquals(values.length*max.get_group_labels().size(),max.get_values_array().length);
+    }
+
+    @Test
+    public void test_kpis() throws OTMException {
+
+        OTM otm = OTM.load_test("output_test");
+        long comm_id = otm.scenario.commodities.keySet().iterator().next();
+        otm.output.request_subnetwork_vht(null, null, comm_id, null, 2f);
+        otm.initialize(0f);
+        otm.advance(1800f);
+
+        // sampled at the model time step, the vht output matches the accumulated vht
+        OutputSubnetworkVHT output = (OutputSubnetworkVHT) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputSubnetworkVHT).findFirst().get();
+        double sampled = 0d;
+        for(long link_id : output.ordered_ids)
+            for(double x : output.get_profile_for_linkid(link_id).get_values())
+                sampled += x;
+        assertEquals(sampled,otm.output.get_vht(comm_id,null),1e-3);
+
+        assertTrue(otm.output.get_vkt(null,null)>0d);
+        assertTrue(otm.output.get_delay(null,null)>=0d);
+        assertTrue(otm.output.get_throughput(null,null)>0d);
+    }
+
+    @Test
+    public void test_predictive_path_travel_time() throws OTMException {
+
+        OTM otm = OTM.load_synthetic("line",6,"pathfull=1,models=spaceq",false);
+        long path_id = otm.scenario.subnetworks.keySet().iterator().next();
+        otm.output.request_path_travel_time(null, null, path_id, 60f, false);
+        otm.run(0f,1800f);
+
+        OutputPathTravelTime output = (OutputPathTravelTime) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputPathTravelTime).findFirst().get();
+        List<Double> tt = output.get_travel_times_sec();
+        assertEquals(31,tt.size());
+        for(double x : tt)
+            assertTrue(x>0d && x<1800d);
+        assertEquals(tt.get(10),output.compute_predictive_travel_time(600f),0d);
+    }
+
 }
@@ -2,8 +2,14 @@ package tests;
 
 import cmd.OTM;
 import org.junit.Test;
+import py4j.GatewayServer;
 
-import java.io.File;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
 
 public class TestCmd {
 
@@ -39,4 +45,40 @@ public class TestCmd {
 
     }
 
+
+    // the calls OTMWrapper.get_links_table makes, in the py4j wire protocol
+    @Test
+    public void test_gateway_links_table() throws Exception {
+        GatewayServer server = new GatewayServer(new OTM(),0);
+        server.start();
+        try(Socket socket = new Socket("127.0.0.1",server.getListeningPort())){
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(),StandardCharsets.UTF_8);
+
+            String otm = gateway_call(in,out,"c\nt\nget_synthetic\nsgrid\ni3\nsmodels=ctm\nbtrue\ne\n").substring(3);
+            String cols = gateway_call(in,out,"c\n" + otm + "\nget_links_table_columns\ne\n");
+            assertTrue(cols.startsWith("!yt"));
+            cols = cols.substring(3);
+            int num_cols = Integer.parseInt(gateway_call(in,out,"a\ne\n" + cols + "\ne\n").substring(3));
+            assertEquals(core.OTM.links_table_columns.length,num_cols);
+            for(int i=0;i<num_cols;i++)
+                assertEquals("!ys" + core.OTM.links_table_columns[i],gateway_call(in,out,"a\ng\n" + cols + "\ni" + i + "\ne\n"));
+
+            String bytes = gateway_call(in,out,"c\n" + otm + "\nget_links_table_bytes\ne\n");
+            assertTrue(bytes.startsWith("!yj"));
+            String vehicles = gateway_call(in,out,"c\n" + otm + "\nget_link_vehicles_bytes\ne\n");
+            int num_links = Base64.getDecoder().decode(vehicles.substring(3)).length / 8;
+            assertTrue(num_links>0);
+            assertEquals(8*num_cols*num_links,Base64.getDecoder().decode(bytes.substring(3)).length);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static String gateway_call(BufferedReader in,Writer out,String command) throws IOException {
+        out.write(command);
+        out.flush();
+        return in.readLine();
+    }
+
 }
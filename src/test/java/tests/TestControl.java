@@ -0,0 +1,230 @@
+package tests;
+
+import actuator.AbstractActuator;
+import control.rampmetering.ControllerAlineaBank;
+import core.Link;
+import core.OTM;
+import dispatch.AbstractEvent;
+import dispatch.EventPoke;
+import error.OTMException;
+import org.junit.Test;
+import utils.OTMUtils;
+import xml.ScenarioGenerator;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestControl {
+
+    ///////////////////////////////////////////////////
+    // ramp metering
+    ///////////////////////////////////////////////////
+
+    @Test
+    public void test_alinea_bank() throws OTMException {
+        double delay = run_freeway_with_meters(false);
+        double delay_metered = run_freeway_with_meters(true);
+        assertTrue(delay_metered<delay);
+    }
+
+    @Test
+    public void test_alinea_bank_hero() throws OTMException {
+
+        // the same scenario with and without coordination, until the first update where they differ
+        OTM otm1 = load_freeway_with_meters(50f,true);
+        OTM otm2 = load_freeway_with_meters(50f,false);
+        ControllerAlineaBank coordinated = get_bank(otm1);
+        ControllerAlineaBank alone = get_bank(otm2);
+        Set<Long> ids = new TreeSet<>(coordinated.actuators.keySet());
+        otm1.initialize(0f);
+        otm2.initialize(0f);
+
+        boolean held = false;
+        for(int k=0;k<120 && !held;k++){
+            otm1.advance(coordinated.dt);
+            otm2.advance(alone.dt);
+            for(long j : ids){
+                float rate = coordinated.get_rate_vps(j);
+                if(rate==alone.get_rate_vps(j))
+                    continue;
+
+                // a slave is held back by a master with a fuller queue above hero_activation
+                held = true;
+                assertTrue(rate<alone.get_rate_vps(j));
+                float ratio = coordinated.get_queue_ratio(j);
+                assertTrue(ids.stream().anyMatch(i->i!=j &&
+                        coordinated.get_queue_ratio(i)>=coordinated.hero_activation &&
+                        coordinated.get_queue_ratio(i)>ratio));
+            }
+        }
+        assertTrue(held);
+        otm1.terminate();
+        otm2.terminate();
+    }
+
+    @Test
+    public void test_alinea_bank_full_queue() throws OTMException {
+        OTM otm = load_freeway_with_meters(5f,true);
+        ControllerAlineaBank bank = get_bank(otm);
+        otm.initialize(0f);
+
+        int num_full = 0;
+        for(int k=0;k<60;k++){
+            otm.advance(bank.dt);
+
+            // the meters update only with the controller
+            for(AbstractEvent e : otm.scenario.dispatcher.events)
+                assertFalse(e instanceof EventPoke && bank.actuators.containsValue(e.recipient));
+
+            for(long id : bank.actuators.keySet())
+                if(bank.get_queue_ratio(id)>=1f) {
+                    assertEquals(1800f,bank.get_rate_vps(id)*3600f,1e-2);
+                    num_full++;
+                }
+        }
+        assertTrue(num_full>0);
+        otm.terminate();
+    }
+
+    private static double run_freeway_with_meters(boolean meters) throws OTMException {
+        OTM otm = OTM.load_synthetic("freeway",8,"models=ctm,lanes=1,demand=1000,ramp_meters="+meters,true);
+        ControllerAlineaBank bank = (ControllerAlineaBank) otm.scenario.controllers.values().stream()
+                .filter(c->c instanceof ControllerAlineaBank)
+                .findFirst().orElse(null);
+        assertEquals(meters,bank!=null);
+        if(meters)
+            bank.max_queue_veh = Float.POSITIVE_INFINITY;
+        otm.initialize(0f);
+        otm.advance(3600f);
+        if(meters) {
+            assertEquals(8,bank.num_meters());
+            for(Long act_id : bank.actuators.keySet()) {
+                float rate_vph = bank.get_rate_vps(act_id)*3600f;
+                assertTrue(rate_vph>=240f-1e-3 && rate_vph<=1800f+1e-3);
+            }
+        }
+        double delay = otm.scenario.kpis.get_delay(null,null,3600f);
+        otm.terminate();
+        return delay;
+    }
+
+    // on-ramps that hold max_queue_veh vehicles
+    private static OTM load_freeway_with_meters(float max_queue_veh,boolean coordinated) throws OTMException {
+        OTM otm = OTM.load_synthetic("freeway",8,"models=ctm,lanes=1,demand=1000,ramp_meters=true",true);
+        ControllerAlineaBank bank = get_bank(otm);
+        bank.max_queue_veh = max_queue_veh;
+        bank.coordinated = coordinated;
+        return otm;
+    }
+
+    private static ControllerAlineaBank get_bank(OTM otm){
+        return (ControllerAlineaBank) otm.scenario.controllers.values().iterator().next();
+    }
+
+    ///////////////////////////////////////////////////
+    // signals
+    ///////////////////////////////////////////////////
+
+    @Test
+    public void test_compiled_signals() throws OTMException {
+        jaxb.Scenario jscn = generate_grid_with_signals();
+        assert_same_veh(run_grid_with_signals(jscn,false,false),run_grid_with_signals(jscn,true,false));
+    }
+
+    @Test
+    public void test_compiled_signals_toggle() throws OTMException {
+        jaxb.Scenario jscn = generate_grid_with_signals();
+
+        // turned off and on through the api: the plan leaves the lanegroups alone while the signal is off
+        assert_same_veh(run_grid_with_signals(jscn,false,true),run_grid_with_signals(jscn,true,true));
+
+        // turned off and on by scenario events: the signal is left to its controller
+        long act_id = get_first_signal_id(jscn);
+        jscn.setEvents(new jaxb.Events());
+        jscn.getEvents().getEvent().add(actuator_toggle(1L,toggle_off_time,act_id,false));
+        jscn.getEvents().getEvent().add(actuator_toggle(2L,toggle_on_time,act_id,true));
+        assert_same_veh(run_grid_with_signals(jscn,false,false),run_grid_with_signals(jscn,true,false));
+    }
+
+    private static final float toggle_off_time = 150f;
+    private static final float toggle_on_time = 330f;
+
+    private static jaxb.Scenario generate_grid_with_signals() throws OTMException {
+        return new ScenarioGenerator("grid",4).set_options("commodities=2,pathfull=1,models=ctm,cycle=45").generate();
+    }
+
+    // toggle turns the first signal off and on again through the api
+    private static Map<Long,Double> run_grid_with_signals(jaxb.Scenario jscn,boolean compile,boolean toggle) throws OTMException {
+        OTM otm = new OTM(jscn,true);
+        otm.scenario.compile_signals = compile;
+        otm.initialize(0f);
+
+        // controllers whose signal is toggled by an event are not compiled
+        Set<Long> toggled = new HashSet<>();
+        if(jscn.getEvents()!=null)
+            for(jaxb.Event e : jscn.getEvents().getEvent())
+                toggled.addAll(OTMUtils.csv2longlist(e.getEventTarget().getIds()));
+        if(compile) {
+            long num_compiled = otm.scenario.controllers.values().stream()
+                    .filter(c->c.actuators.keySet().stream().noneMatch(toggled::contains))
+                    .count();
+            assertTrue(num_compiled<otm.scenario.controllers.size() || toggled.isEmpty());
+            assertEquals(num_compiled,otm.scenario.signal_engine.num_controllers());
+        }
+
+        if(toggle){
+            AbstractActuator signal = otm.scenario.actuators.get(get_first_signal_id(jscn));
+            otm.advance(toggle_off_time);
+            signal.turn_off();
+            otm.advance(toggle_on_time-toggle_off_time);
+            assertFalse(signal.is_on());
+            signal.turn_on();
+            assertTrue(signal.is_on());
+            otm.advance(600f-toggle_on_time);
+
+            // a compiled signal has no pokes of its own, also after it is turned on again
+            if(compile)
+                for(AbstractEvent e : otm.scenario.dispatcher.events)
+                    assertFalse(e instanceof EventPoke && e.recipient==signal);
+        }
+        else
+            otm.advance(600f);
+
+        Map<Long,Double> veh = new HashMap<>();
+        for(Link link : otm.scenario.network.links.values())
+            veh.put(link.getId(),link.get_veh());
+        otm.terminate();
+        return veh;
+    }
+
+    private static long get_first_signal_id(jaxb.Scenario jscn){
+        return jscn.getActuators().getActuator().stream()
+                .filter(a->a.getType().equals("signal"))
+                .mapToLong(jaxb.Actuator::getId)
+                .min().getAsLong();
+    }
+
+    private static jaxb.Event actuator_toggle(long id,float timestamp,long act_id,boolean ison){
+        jaxb.Event e = new jaxb.Event();
+        e.setId(id);
+        e.setTimestamp(timestamp);
+        e.setType("acttgl");
+        e.setEventTarget(new jaxb.EventTarget());
+        e.getEventTarget().setType("actuators");
+        e.getEventTarget().setIds(Long.toString(act_id));
+        jaxb.Parameter p = new jaxb.Parameter();
+        p.setName("ison");
+        p.setValue(Boolean.toString(ison));
+        e.setParameters(new jaxb.Parameters());
+        e.getParameters().getParameter().add(p);
+        return e;
+    }
+
+    private static void assert_same_veh(Map<Long,Double> expected,Map<Long,Double> actual){
+        assertEquals(expected.keySet(),actual.keySet());
+        for(Long link_id : expected.keySet())
+            assertEquals(expected.get(link_id),actual.get(link_id),1e-9);
+    }
+
+}
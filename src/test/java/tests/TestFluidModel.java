@@ -0,0 +1,177 @@
+package tests;
+
+import core.AbstractFluidModel;
+import core.AbstractLaneGroup;
+import core.Link;
+import core.OTM;
+import core.State;
+import error.OTMException;
+import models.Maneuver;
+import models.fluid.AbstractCell;
+import models.fluid.FluidLaneGroup;
+import models.fluid.ctm.ModelCTM;
+import org.junit.Test;
+import output.OutputLinkFlow;
+import output.OutputLinkVehicles;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestFluidModel {
+
+    ///////////////////////////////////////////////////
+    // commodity cache
+    ///////////////////////////////////////////////////
+
+    @Test
+    public void test_veh_per_comm_cache() throws OTMException {
+
+        // hov lanes, and lane change demand sent to the through link before each diverge
+        OTM otm = OTM.load_synthetic("freeway",4,"models=ctm,lanes=3,hov=true,commodities=2,demand=3000",true);
+        Set<Long> comms = otm.scenario.commodities.keySet();
+        List<Link> alt_links = new ArrayList<>();
+        for(Link link : otm.scenario.network.links.values())
+            if(link.get_lgs().size()>1 && link.get_end_node().get_out_links().size()>1) {
+                link.alt_next_link = link.get_end_node().get_out_links().stream()
+                        .max(Comparator.comparing(Link::get_full_lanes)).get().getId();
+                alt_links.add(link);
+            }
+        assertFalse(alt_links.isEmpty());
+
+        // cache is read after every step, so lane changes and cell updates must invalidate it
+        otm.initialize(0f);
+        double lane_changes = 0d;
+        for(int k=0;k<60;k++){
+            otm.advance(37f);
+            for(Link link : otm.scenario.network.links.values())
+                for(AbstractLaneGroup lg : link.get_lgs())
+                    lane_changes += check_cache((FluidLaneGroup) lg,comms);
+        }
+        assertTrue(lane_changes>0d);
+
+        // each cell operation, on a filled cache
+        for(Link link : alt_links)
+            for(AbstractLaneGroup alg : link.get_lgs()){
+                FluidLaneGroup lg = (FluidLaneGroup) alg;
+                AbstractCell cell = lg.cells.get(lg.cells.size()-1);
+
+                State state = link.states.stream().filter(s->!s.isPath && s.pathOrlink_id!=link.alt_next_link).findFirst().get();
+                Map<State,Double> x = new HashMap<>();
+                x.put(state,1d);
+                Map<State,Double> x_in = lg.get_neighbor_in()==null ? null : x;
+                Map<State,Double> x_out = lg.get_neighbor_out()==null ? null : x;
+
+                cell.add_vehicles(state,1d,Collections.singletonMap(Maneuver.stay,1d));
+                check_cache(lg,comms);
+                cell.add_vehicles(x,x_in,x_out);
+                assertTrue(check_cache(lg,comms)>0d);
+                cell.subtract_vehicles(x,null,null);
+                check_cache(lg,comms);
+
+                // lane change demand moved to the alternative link
+                cell.update_demand();
+                check_cache(lg,comms);
+                assertEquals(0d,cell.get_veh_in_for_commodity(null)+cell.get_veh_out_for_commodity(null),1e-3);
+
+                lg.allocate_state();
+                assertEquals(0d,check_cache(lg,comms),0d);
+            }
+
+        otm.terminate();
+    }
+
+    // compares the cached values with the sums over cells, and returns the vehicles changing lanes
+    private static double check_cache(FluidLaneGroup lg,Set<Long> comms){
+        double lc = 0d;
+        for(Long c : comms){
+            double dwn = 0d, in = 0d, out = 0d;
+            for(AbstractCell cell : lg.cells){
+                dwn += cell.get_veh_dwn_for_commodity(c);
+                in += cell.get_veh_in_for_commodity(c);
+                out += cell.get_veh_out_for_commodity(c);
+            }
+            assertEquals(dwn,lg.vehs_dwn_for_comm(c),1e-3);
+            assertEquals(in,lg.vehs_in_for_comm(c),1e-3);
+            assertEquals(out,lg.vehs_out_for_comm(c),1e-3);
+            lc += in + out;
+        }
+        return lc;
+    }
+
+    ///////////////////////////////////////////////////
+    // idle links
+    ///////////////////////////////////////////////////
+
+    @Test
+    public void test_skip_idle_links() throws OTMException {
+        Map<Long,Double> all = run_grid_skipping_idle_links(false,1);
+        Map<Long,Double> skip = run_grid_skipping_idle_links(true,1);
+        Map<Long,Double> skip_parallel = run_grid_skipping_idle_links(true,3);
+        for(Long link_id : all.keySet()) {
+            assertEquals(all.get(link_id),skip.get(link_id),1e-9);
+            assertEquals(all.get(link_id),skip_parallel.get(link_id),1e-9);
+        }
+    }
+
+    private static Map<Long,Double> run_grid_skipping_idle_links(boolean skip,int num_subdomains) throws OTMException {
+        OTM otm = OTM.load_synthetic("grid",4,"commodities=2,pathfull=1,models=ctm",true);
+        AbstractFluidModel model = (AbstractFluidModel) otm.scenario.models.values().iterator().next();
+        model.set_skip_idle_links(skip);
+        model.set_num_subdomains(num_subdomains);
+        otm.initialize(0f);
+        otm.advance(model.dt_sec);
+        if(skip)
+            assertTrue(model.get_num_idle_links()>0);
+        otm.advance(600f);
+        Map<Long,Double> veh = new HashMap<>();
+        for(Link link : otm.scenario.network.links.values())
+            veh.put(link.getId(),link.get_veh());
+        otm.terminate();
+        return veh;
+    }
+
+    ///////////////////////////////////////////////////
+    // multi-rate
+    ///////////////////////////////////////////////////
+
+    @Test
+    public void test_multirate() throws OTMException {
+        Map<Long,double[][]> single = run_grid_multirate(1);
+        Map<Long,double[][]> multi = run_grid_multirate(4);
+        assertEquals(single.keySet(),multi.keySet());
+        for(Long link_id : single.keySet()){
+            double [][] x = single.get(link_id);
+            double [][] y = multi.get(link_id);
+            assertArrayEquals(x[0],y[0],1d);        // [veh/km]
+            assertArrayEquals(x[1],y[1],25d);       // [veh/hr]
+        }
+    }
+
+    // link id -> {density [veh/km], flow [veh/hr]}, every minute
+    private static Map<Long,double[][]> run_grid_multirate(int max_rate) throws OTMException {
+        OTM otm = OTM.load_synthetic("grid",4,"commodities=2,pathfull=1,models=ctm,sim_dt=0.5",true);
+        ModelCTM model = (ModelCTM) otm.scenario.models.values().iterator().next();
+        model.set_max_rate(max_rate);
+        otm.output.request_links_veh(null,null,null,null,60f);
+        otm.output.request_links_flow(null,null,null,null,60f);
+        otm.initialize(0f);
+        if(max_rate>1)
+            assertFalse(model.get_link_rates().isEmpty());
+        otm.advance(600f);
+        OutputLinkVehicles veh = (OutputLinkVehicles) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+        OutputLinkFlow flow = (OutputLinkFlow) otm.output.get_data().stream()
+                .filter(x->x instanceof OutputLinkFlow).findFirst().get();
+        Map<Long,double[][]> x = new HashMap<>();
+        for(Link link : otm.scenario.network.links.values()){
+            double length_km = link.get_full_length()/1000d;
+            double [] k = veh.get_profile_for_linkid(link.getId()).get_values().stream().mapToDouble(v->v/length_km).toArray();
+            double [] f = flow.get_flow_for_link_in_vph(link.getId()).stream().mapToDouble(v->v).toArray();
+            x.put(link.getId(),new double[][]{k,f});
+        }
+        otm.terminate();
+        return x;
+    }
+
+}
@@ -0,0 +1,60 @@
+package tests;
+
+import core.OTM;
+import error.OTMException;
+import org.junit.Test;
+import xml.ScenarioGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestScenarioGenerator {
+
+    @Test
+    public void test_line() throws OTMException {
+        OTM otm = run(OTM.load_synthetic("line",20,"commodities=2,pathfull=1",true));
+        assertEquals(20,otm.scenario.network.links.size());
+        assertEquals(2,otm.scenario.commodities.size());
+    }
+
+    @Test
+    public void test_grid_signals() throws OTMException {
+        jaxb.Scenario jscn = new ScenarioGenerator("grid",5).set_options("commodities=3,pathfull=1").generate();
+        assertEquals(9,jscn.getControllers().getController().size());
+        OTM otm = run(new OTM(jscn,true));
+
+        // 2x40 grid links, 16 sources, 16 sinks
+        assertEquals(112,otm.scenario.network.links.size());
+        assertEquals(1,otm.scenario.models.size());
+        assertEquals(9,otm.scenario.controllers.size());
+    }
+
+    @Test
+    public void test_freeway_hov() throws OTMException {
+        OTM otm = run(OTM.load_synthetic("freeway",4,"commodities=2,hov=true,models=ctm;micro",true));
+
+        // 3 mainline and 2 ramps per section, plus the exit
+        assertEquals(21,otm.scenario.network.links.size());
+        assertEquals(1,otm.scenario.controllers.size());
+        assertTrue(otm.scenario.network.links.get(1L).get_lgs().size()==2);
+    }
+
+    @Test
+    public void test_bad_options() {
+        try {
+            new ScenarioGenerator("grid",3).set_options("models=foo").generate();
+            fail();
+        } catch (OTMException e) {
+        }
+    }
+
+    private static OTM run(OTM otm) throws OTMException {
+        otm.initialize(0f);
+        otm.advance(600f);
+        otm.terminate();
+        assertTrue(otm.scenario.network.links.values().stream().mapToDouble(x->x.get_veh()).sum()>0);
+        return otm;
+    }
+
+}
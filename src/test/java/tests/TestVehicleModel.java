@@ -0,0 +1,112 @@
+package tests;
+
+import core.AbstractLaneGroup;
+import core.AbstractVehicleModel;
+import core.Link;
+import core.OTM;
+import error.OTMException;
+import models.vehicle.newell.NewellLaneGroup;
+import models.vehicle.newell.NewellVehicle;
+import models.vehicle.spatialq.MesoLaneGroup;
+import models.vehicle.spatialq.MesoVehicle;
+import output.InterfaceVehicleListener;
+import output.OutputLinkVehicles;
+import org.junit.Test;
+import utils.OTMUtils;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestVehicleModel {
+
+    @Test
+    public void test_vehicle_pool() throws OTMException {
+        OTM otm = OTM.load_synthetic("freeway",3,"models=micro,commodities=2",true);
+        otm.initialize(0f);
+        otm.advance(1800f);
+
+        // recycled vehicles get new ids, and are not referenced by vehicles in the network
+        Set<NewellVehicle> vehicles = new HashSet<>();
+        Set<Long> ids = new HashSet<>();
+        for(Link link : otm.scenario.network.links.values())
+            for(AbstractLaneGroup lg : link.get_lgs())
+                for(NewellVehicle vehicle : ((NewellLaneGroup) lg).vehicles) {
+                    assertSame(lg,vehicle.get_lanegroup());
+                    assertTrue(ids.add(vehicle.getId()));
+                    vehicles.add(vehicle);
+                }
+        for(NewellVehicle vehicle : vehicles)
+            assertTrue(vehicle.leader==null || vehicles.contains(vehicle.leader));
+
+        // vehicles that left the network are in the pool, and are handed out again
+        AbstractVehicleModel model = (AbstractVehicleModel) otm.scenario.models.values().iterator().next();
+        int pool_size = model.get_pool_size();
+        assertTrue(pool_size>0);
+        NewellVehicle vehicle = (NewellVehicle) model.create_vehicle(1L,null);
+        assertEquals(pool_size-1,model.get_pool_size());
+        assertFalse(ids.contains(vehicle.getId()));
+        assertNull(vehicle.leader);
+        assertNull(vehicle.follower);
+        otm.terminate();
+    }
+
+    @Test
+    public void test_meso_vehicle_pool() throws OTMException {
+
+        // pooling does not change the result
+        double [] with_pool = run_meso(10000);
+        double [] without_pool = run_meso(0);
+        assertArrayEquals(without_pool,with_pool,0d);
+
+        // a recycled vehicle comes back with no lanegroup, queue, entry time or listeners of its former life
+        OTM otm = OTM.load_synthetic("freeway",3,"models=spaceq",true);
+        otm.scenario.add_link_travel_timers(otm.scenario.network.links.values(),60f);
+        otm.initialize(0f);
+        otm.advance(600f);
+        AbstractVehicleModel model = (AbstractVehicleModel) otm.scenario.models.values().iterator().next();
+        assertTrue(model.get_pool_size()>0);
+
+        MesoLaneGroup lg = (MesoLaneGroup) otm.scenario.network.links.values().iterator().next().get_lgs().iterator().next();
+        InterfaceVehicleListener old_listener = (t,v,from,to) -> fail();
+        MesoVehicle old = new MesoVehicle(1L,Collections.singleton(old_listener));
+        long old_id = old.getId();
+        old.lg = lg;
+        old.my_queue = lg.waiting_queue;
+        old.waiting_for_lane_change = true;
+        old.link_entry_time = 42f;
+        model.recycle_vehicle(old);
+
+        Set<InterfaceVehicleListener> listeners = Collections.singleton((t,v,from,to) -> {});
+        MesoVehicle vehicle = (MesoVehicle) model.create_vehicle(2L,listeners);
+        assertSame(old,vehicle);
+        assertNotEquals(old_id,vehicle.getId());
+        assertEquals(2L,vehicle.get_commodity_id());
+        assertNull(vehicle.lg);
+        assertNull(vehicle.my_queue);
+        assertFalse(vehicle.waiting_for_lane_change);
+        assertTrue(Float.isNaN(vehicle.link_entry_time));
+        assertSame(listeners,vehicle.get_event_listeners());
+        otm.terminate();
+    }
+
+    // vehicles on every link, with travel timers and a vehicle listener on every commodity
+    private static double [] run_meso(int max_pool_size) throws OTMException {
+        OTMUtils.set_random_seed(1L);
+        OTM otm = OTM.load_synthetic("freeway",3,"models=spaceq,commodities=2",true);
+        for(core.AbstractModel model : otm.scenario.models.values())
+            ((AbstractVehicleModel) model).set_max_pool_size(max_pool_size);
+        int [] moves = new int[1];
+        otm.scenario.commodities.values().forEach(c->c.add_vehicle_event_listener((t,v,from,to)->moves[0]++));
+        otm.scenario.add_link_travel_timers(otm.scenario.network.links.values(),60f);
+        otm.output.request_links_veh(null,null,null,null,60f);
+        otm.run(0f,1800f);
+        assertTrue(moves[0]>0);
+        OutputLinkVehicles output = (OutputLinkVehicles) otm.output.get_data().iterator().next();
+        double [] x = output.get_values_array();
+        double [] y = Arrays.copyOf(x,x.length+1);
+        y[x.length] = moves[0];
+        return y;
+    }
+
+}